@@ -90,8 +90,17 @@ public class PlayerTester {
      * @throws SymbolFormatException
      */
     static Game getMediasResGame(String gameKey, String theState) throws SymbolFormatException {
+    	return getMediasResGame(GameRepository.getDefaultRepository().getGame(gameKey), theState);
+    }
+
+    /**
+     * Same as {@link #getMediasResGame(String, String)}, for a game that has
+     * already been loaded, for example from a local rulesheet.
+     * @throws SymbolFormatException
+     */
+    static Game getMediasResGame(Game theOriginalGame, String theState) throws SymbolFormatException {
     	StringBuilder newRulesheet = new StringBuilder();
-    	List<Gdl> theRules = GameRepository.getDefaultRepository().getGame(gameKey).getRules();
+    	List<Gdl> theRules = theOriginalGame.getRules();
     	for (Gdl gdl : theRules) {
     		if (gdl instanceof GdlRule) {
     			// Capture and drop init statements of the form "( <= ( init ( pool ?piece ) ) ( piece ?piece ) )"
@@ -125,7 +134,15 @@ public class PlayerTester {
     }
 
     public static boolean passesTest(String hostport, TestCase theCase) throws SymbolFormatException {
-    	final Game theGame = getMediasResGame(theCase.gameKey, theCase.theState);
+    	return passesTest(hostport, theCase, GameRepository.getDefaultRepository().getGame(theCase.gameKey));
+    }
+
+    /**
+     * Runs a test case against the given rules for its game rather than the
+     * rules fetched from the default repository by game key.
+     */
+    public static boolean passesTest(String hostport, TestCase theCase, Game theOriginalGame) throws SymbolFormatException {
+    	final Game theGame = getMediasResGame(theOriginalGame, theCase.theState);
     	final Match theMatch = new Match("playerTester." + Match.getRandomString(5), -1, theCase.nStartClock, theCase.nPlayClock, theGame, "");
 
         // Set up fake players to pretend to play the game alongside the real player
@@ -9,18 +9,25 @@ import javax.swing.ScrollPaneConstants;
 import javax.swing.table.DefaultTableModel;
 
 import org.ggp.base.player.gamer.event.GamerNewMatchEvent;
+import org.ggp.base.player.gamer.event.GamerSearchMetricsEvent;
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.SearchMetrics;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.ui.table.JZebraTable;
 
 /**
  * This is a simple tabular detail panel that shows the number of
  * available moves, the time it took to select a move, and the move
- * that was selected.
+ * that was selected, followed by the search metrics of the turn: the
+ * simulation rate, nodes expanded, tree depth, average playout length,
+ * and the time spent in the state machine, the tree and the garbage
+ * collector. Metrics the gamer does not report are left blank.
  */
 @SuppressWarnings("serial")
 public class SimpleDetailPanel extends DetailPanel {
 	private final JZebraTable moveTable;
+	// Whether the last row is still waiting for the metrics of its turn
+	private boolean awaitingMetrics = false;
 
 	public SimpleDetailPanel() {
 		super(new GridBagLayout());
@@ -29,6 +36,12 @@ public class SimpleDetailPanel extends DetailPanel {
 		model.addColumn("Available Moves");
 		model.addColumn("Computation Time");
 		model.addColumn("Selected Move");
+		model.addColumn("Simulations/s");
+		model.addColumn("Nodes Expanded");
+		model.addColumn("Tree Depth");
+		model.addColumn("Playout Length");
+		model.addColumn("State Machine / Tree");
+		model.addColumn("GC Time");
 
 		moveTable = new JZebraTable(model) {
 			@Override
@@ -48,12 +61,15 @@ public class SimpleDetailPanel extends DetailPanel {
 			observe((GamerNewMatchEvent) event);
 		} else if (event instanceof GamerSelectedMoveEvent) {
 			observe((GamerSelectedMoveEvent) event);
+		} else if (event instanceof GamerSearchMetricsEvent) {
+			observe((GamerSearchMetricsEvent) event);
 		}
 	}
 
 	private void observe(GamerNewMatchEvent event) {
 		DefaultTableModel model = (DefaultTableModel) moveTable.getModel();
 		model.setRowCount(0);
+		awaitingMetrics = false;
 	}
 
 	private void observe(GamerSelectedMoveEvent event) {
@@ -62,6 +78,31 @@ public class SimpleDetailPanel extends DetailPanel {
 		String move = event.getSelection().toString();
 
 		DefaultTableModel model = (DefaultTableModel) moveTable.getModel();
-		model.addRow(new String[] { availableMoves, computationTime, move });
+		model.addRow(new String[] { availableMoves, computationTime, move, "", "", "", "", "", "" });
+		awaitingMetrics = true;
+	}
+
+	private void observe(GamerSearchMetricsEvent event) {
+		// turns decided without a search, such as forced moves, have no row
+		if (!awaitingMetrics) {
+			return;
+		}
+		awaitingMetrics = false;
+		SearchMetrics.Snapshot metrics = event.getMetrics();
+		boolean simulated = metrics.getSimulations() > 0;
+		String[] values = new String[] {
+			simulated ? String.format("%.0f", metrics.getSimulationsPerSecond()) : "",
+			metrics.getNodesExpanded() > 0 ? Long.toString(metrics.getNodesExpanded()) : "",
+			metrics.getMaxDepth() > 0 ? Integer.toString(metrics.getMaxDepth()) : "",
+			simulated ? String.format("%.1f", metrics.getAveragePlayoutLength()) : "",
+			metrics.getStateMachineCalls() > 0 ? metrics.getStateMachineMillis() + " / " + metrics.getTreeMillis() + " ms" : "",
+			metrics.getGcMillis() + " ms"
+		};
+
+		DefaultTableModel model = (DefaultTableModel) moveTable.getModel();
+		int row = model.getRowCount() - 1;
+		for (int i = 0; i < values.length; i++) {
+			model.setValueAt(values[i], row, 3 + i);
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package org.ggp.base.apps.validator;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineFuzzer;
+
+/**
+ * StateMachineFuzzerRunner fuzzes a state machine against the prover on every
+ * game bundled with the project, those in the local game repository and the
+ * test games, and prints what it found in each game. It exits with status 1
+ * if the machine differed from the prover or could not be built for any
+ * game, so that scripts can gate changes to a state machine on it.
+ * <p>
+ * Usage: StateMachineFuzzerRunner &lt;state machine class&gt; [seconds per game]
+ * [threads] [seed] [game key pattern]
+ * <p>
+ * The state machine class needs a no-argument constructor. Games whose keys
+ * do not match the pattern are skipped; test games have keys starting with
+ * "test/". Without a pattern, the test games that no state machine built from
+ * the rules can be expected to agree on are skipped too, and listed with the
+ * reason; a pattern that matches them fuzzes them like any other game.
+ */
+public final class StateMachineFuzzerRunner
+{
+    private static final Map<String, String> KNOWN_DIVERGENT = new LinkedHashMap<String, String>();
+    static {
+        KNOWN_DIVERGENT.put("test/test_case_3e", "unsafe rules, which the prover answers with unbound variables");
+        KNOWN_DIVERGENT.put("test/test_case_3f", "unsafe rules, which the prover answers with unbound variables");
+        KNOWN_DIVERGENT.put("test/test_case_5a", "infinitely nested function terms, which sentence forms cannot be found for");
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        if (args.length < 1) {
+            System.err.println("Usage: StateMachineFuzzerRunner <state machine class> [seconds per game] [threads] [seed] [game key pattern]");
+            System.exit(2);
+        }
+        StateMachineFuzzer.Factory subject = StateMachineFuzzer.forClass(args[0]);
+        long timePerGame = args.length > 1 ? (long) (Double.parseDouble(args[1]) * 1000) : 10000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.currentTimeMillis();
+        Pattern pattern = Pattern.compile(args.length > 4 ? args[4] : ".*");
+        boolean skipKnownDivergent = args.length <= 4;
+
+        Map<String, List<Gdl>> games = new LinkedHashMap<String, List<Gdl>>();
+        LocalGameRepository localRepository = new LocalGameRepository();
+        try {
+            addGames(games, localRepository, "", pattern);
+        } finally {
+            localRepository.cleanUp();
+        }
+        addGames(games, new TestGameRepository(), "test/", pattern);
+        if (skipKnownDivergent) {
+            for (Map.Entry<String, String> known : KNOWN_DIVERGENT.entrySet()) {
+                if (games.remove(known.getKey()) != null) {
+                    System.out.println(known.getKey() + ": SKIPPED, " + known.getValue());
+                }
+            }
+        }
+
+        System.out.println("Fuzzing " + args[0] + " on " + games.size() + " games with seed " + seed);
+        StateMachineFuzzer fuzzer = new StateMachineFuzzer(
+                StateMachineFuzzer.forClass(ProverStateMachine.class.getName()), subject, threads);
+        fuzzer.setSeed(seed);
+        boolean passed = true;
+        for (StateMachineFuzzer.Report report : fuzzer.fuzz(games, timePerGame)) {
+            System.out.println(report);
+            passed &= report.isPassed();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static void addGames(Map<String, List<Gdl>> games, GameRepository repository, String prefix, Pattern pattern)
+    {
+        for (String gameKey : new TreeSet<String>(repository.getGameKeys())) {
+            if (pattern.matcher(prefix + gameKey).matches()) {
+                games.put(prefix + gameKey, repository.getGame(gameKey).getRules());
+            }
+        }
+    }
+}
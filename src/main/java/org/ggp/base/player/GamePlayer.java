@@ -84,6 +84,7 @@ public final class GamePlayer extends AbstractGamePlayer
 		while (listener != null) {
 			try {
 				Socket connection = listener.accept();
+				long acceptTime = System.currentTimeMillis();
 				String in = HttpReader.readAsServer(connection);
 				if (in.length() == 0) {
 				    throw new IOException("Empty message received.");
@@ -93,10 +94,12 @@ public final class GamePlayer extends AbstractGamePlayer
 				GamerLogger.log("GamePlayer", "[Received at " + System.currentTimeMillis() + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
 
 				Request request = new RequestFactory().create(gamer, in);
-				String out = request.process(System.currentTimeMillis());
+				long receptionTime = System.currentTimeMillis();
+				String out = request.process(receptionTime);
 
 				HttpWriter.writeAsServer(connection, out);
 				connection.close();
+				gamer.notifyResponseSent(acceptTime, receptionTime, System.currentTimeMillis());
 				notifyObservers(new PlayerSentMessageEvent(out));
 				GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + out, GamerLogger.LOG_LEVEL_DATA_DUMP);
 			} catch (Exception e) {
@@ -65,6 +65,15 @@ public abstract class Gamer implements Subject
 
 	public abstract void preview(Game g, long timeout) throws GamePreviewException;  // Preview a game
 
+	/* Called by the game player once the response to a request has been
+	 * completely written, so that gamers can learn how much of the clock is
+	 * lost to the network. Times are in milliseconds since the era: when the
+	 * connection was accepted, when the request had been read, and when the
+	 * response had been sent. */
+	public void notifyResponseSent(long acceptTime, long receptionTime, long sentTime) {
+		// By default, gamers ignore response timing.
+	}
+
 	// ==== Gamer Profile and Configuration ====
 	public abstract String getName();
 	public String getSpecies() { return null; }
@@ -0,0 +1,17 @@
+package org.ggp.base.player.gamer.event;
+
+import org.ggp.base.player.gamer.statemachine.SearchMetrics;
+import org.ggp.base.util.observer.Event;
+
+public final class GamerSearchMetricsEvent extends Event
+{
+	private final SearchMetrics.Snapshot metrics;
+
+	public GamerSearchMetricsEvent(SearchMetrics.Snapshot metrics) {
+		this.metrics = metrics;
+	}
+
+	public SearchMetrics.Snapshot getMetrics() {
+		return metrics;
+	}
+}
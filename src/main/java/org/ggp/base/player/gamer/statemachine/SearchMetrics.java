@@ -0,0 +1,201 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * SearchMetrics measures the work a {@link StateMachineGamer} does while it
+ * selects a move, so that a slow turn can be put down to the state machine,
+ * the search code or the garbage collector.
+ * <p>
+ * The gamer resets the metrics when a play request arrives and publishes a
+ * {@link Snapshot} in a
+ * {@link org.ggp.base.player.gamer.event.GamerSearchMetricsEvent} once the
+ * move has been selected. In between, search code reports what it does:
+ * {@link #addSimulation(int)} for every finished playout,
+ * {@link #addNodesExpanded(int)} whenever tree nodes are created and
+ * {@link #observeDepth(int)} for the depth reached in the tree. Time spent
+ * in the state machine is recorded by wrapping the machine the search runs
+ * on in a {@link TimedStateMachine}; the rest of the turn counts as tree time.
+ * <p>
+ * The counters are not synchronized. They are written by whichever thread is
+ * searching, which is the pondering thread between requests and the request
+ * thread during a turn, never both at once.
+ */
+public final class SearchMetrics
+{
+    private long startNanos;
+    private long startGcMillis;
+    private long startGcCount;
+    private long simulations;
+    private long playoutSteps;
+    private long nodesExpanded;
+    private int maxDepth;
+    private long stateMachineNanos;
+    private long stateMachineCalls;
+
+    /**
+     * Resets every counter and starts timing a new turn.
+     */
+    public void begin()
+    {
+        simulations = 0;
+        playoutSteps = 0;
+        nodesExpanded = 0;
+        maxDepth = 0;
+        stateMachineNanos = 0;
+        stateMachineCalls = 0;
+        startGcMillis = gcMillis();
+        startGcCount = gcCount();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Records a finished playout of the given number of moves.
+     */
+    public void addSimulation(int length)
+    {
+        simulations++;
+        playoutSteps += length;
+    }
+
+    /**
+     * Records nodes added to the search tree.
+     */
+    public void addNodesExpanded(int count)
+    {
+        nodesExpanded += count;
+    }
+
+    /**
+     * Records that the search reached the given depth below the root.
+     */
+    public void observeDepth(int depth)
+    {
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    /**
+     * Records one state machine call that took the given number of nanoseconds.
+     */
+    public void addStateMachineTime(long nanos)
+    {
+        stateMachineNanos += nanos;
+        stateMachineCalls++;
+    }
+
+    /**
+     * Returns the metrics of the turn so far.
+     */
+    public Snapshot snapshot()
+    {
+        return new Snapshot(System.nanoTime() - startNanos, simulations, playoutSteps, nodesExpanded, maxDepth,
+                stateMachineNanos, stateMachineCalls, gcMillis() - startGcMillis, gcCount() - startGcCount);
+    }
+
+    private static long gcMillis()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+
+    private static long gcCount()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+
+    /**
+     * The metrics of one turn, as published to observers.
+     */
+    public static final class Snapshot
+    {
+        private final long elapsedNanos;
+        private final long simulations;
+        private final long playoutSteps;
+        private final long nodesExpanded;
+        private final int maxDepth;
+        private final long stateMachineNanos;
+        private final long stateMachineCalls;
+        private final long gcMillis;
+        private final long gcCount;
+
+        public Snapshot(long elapsedNanos, long simulations, long playoutSteps, long nodesExpanded, int maxDepth,
+                long stateMachineNanos, long stateMachineCalls, long gcMillis, long gcCount)
+        {
+            this.elapsedNanos = elapsedNanos;
+            this.simulations = simulations;
+            this.playoutSteps = playoutSteps;
+            this.nodesExpanded = nodesExpanded;
+            this.maxDepth = maxDepth;
+            this.stateMachineNanos = stateMachineNanos;
+            this.stateMachineCalls = stateMachineCalls;
+            this.gcMillis = gcMillis;
+            this.gcCount = gcCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000;
+        }
+
+        public long getSimulations() {
+            return simulations;
+        }
+
+        public double getSimulationsPerSecond() {
+            return elapsedNanos == 0 ? 0 : simulations * 1e9 / elapsedNanos;
+        }
+
+        public double getAveragePlayoutLength() {
+            return simulations == 0 ? 0 : (double) playoutSteps / simulations;
+        }
+
+        public long getNodesExpanded() {
+            return nodesExpanded;
+        }
+
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        public long getStateMachineMillis() {
+            return stateMachineNanos / 1000000;
+        }
+
+        public long getStateMachineCalls() {
+            return stateMachineCalls;
+        }
+
+        /**
+         * Time spent outside the state machine, in the search itself and any
+         * other work the gamer did during the turn.
+         */
+        public long getTreeMillis() {
+            return Math.max(0, elapsedNanos - stateMachineNanos) / 1000000;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d simulations (%.1f/s, %.1f moves each), %d nodes, depth %d, "
+                    + "state machine %d ms, tree %d ms, GC %d ms in %d collections",
+                    simulations, getSimulationsPerSecond(), getAveragePlayoutLength(), nodesExpanded, maxDepth,
+                    getStateMachineMillis(), getTreeMillis(), gcMillis, gcCount);
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.gamer.event.GamerSearchMetricsEvent;
 import org.ggp.base.player.gamer.exception.AbortingException;
 import org.ggp.base.player.gamer.exception.MetaGamingException;
 import org.ggp.base.player.gamer.exception.MoveSelectionException;
@@ -74,6 +75,35 @@ public abstract class StateMachineGamer extends Gamer
      */
     public abstract void stateMachineAbort();
 
+    /**
+     * Defines the work the player does while waiting for the next request,
+     * if pondering has been turned on with {@link #setPondering(boolean)}.
+     * This runs on a background thread once a start or play response has
+     * been sent, and should keep searching the current state until
+     * {@link TimeManager#shouldStop()} returns true, which happens as soon
+     * as the next request arrives. The request waits for this method to
+     * return, so it must poll often. The default does nothing.
+     * @throws TransitionDefinitionException
+     * @throws MoveDefinitionException
+     * @throws GoalDefinitionException
+     */
+    public void stateMachinePonder() throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+    }
+
+    /**
+     * Defines the selector that picks the state machine for each match. If
+     * this returns a selector, the start clock begins with it racing its
+     * builders on the game, and the machine it selects is used in place of
+     * {@link #getInitialStateMachine()}, which is then only used when the
+     * state machine is reset from a match. The default returns null, which
+     * turns selection off.
+     */
+    public StateMachineSelector getStateMachineSelector()
+    {
+        return null;
+    }
+
     // =====================================================================
     // Next, methods which can be used by subclasses to get information about
     // the current state of the game, and tweak the state machine on the fly.
@@ -94,6 +124,16 @@ public abstract class StateMachineGamer extends Gamer
 		return role;
 	}
 
+	/**
+	 * Returns the move sent in response to the last play request, or null
+	 * if none has been sent in this match. Pondering uses it to search only
+	 * the states that can follow the current one.
+	 */
+	public final Move getLastSelection()
+	{
+		return lastSelection == null ? null : stateMachine.getMoveFromTerm(lastSelection);
+	}
+
 	/**
 	 * Returns the state machine.  This is used for calculating the next state and other operations, such as computing
 	 * the legal moves for all players, whether states are terminal, and the goal values of terminal states.
@@ -103,6 +143,44 @@ public abstract class StateMachineGamer extends Gamer
 		return stateMachine;
 	}
 
+	/**
+	 * Returns the time manager for the current clock. Search loops should
+	 * poll {@link TimeManager#shouldStop()} rather than comparing the timeout
+	 * against a fixed buffer.
+	 */
+	public final TimeManager getTimeManager()
+	{
+		return timeManager;
+	}
+
+	/**
+	 * Returns the metrics of the current turn. Search code reports its
+	 * simulations, nodes and depth here, and the metrics are published to
+	 * observers in a {@link GamerSearchMetricsEvent} after every move.
+	 */
+	public final SearchMetrics getSearchMetrics()
+	{
+		return searchMetrics;
+	}
+
+	/**
+	 * Turns pondering between requests on or off. While it is on,
+	 * {@link #stateMachinePonder()} runs in the background from the time a
+	 * start or play response is sent until the next request arrives.
+	 */
+	public final void setPondering(boolean enabled)
+	{
+		ponderingEnabled = enabled;
+	}
+
+	/**
+	 * Returns whether the gamer ponders between requests.
+	 */
+	public final boolean isPonderingEnabled()
+	{
+		return ponderingEnabled;
+	}
+
     /**
      * Cleans up the role, currentState and stateMachine. This should only be
      * used when a match is over, and even then only when you really need to
@@ -180,14 +258,27 @@ public abstract class StateMachineGamer extends Gamer
 	{
 		try
 		{
-			stateMachine = getInitialStateMachine();
-			stateMachine.initialize(getMatch().getGame().getRules());
+			stopPondering();
+			timeManager = new TimeManager();
+			timeManager.beginClock(timeout, getMatch().getStartClock() * 1000L);
+			lastSelection = null;
+
+			StateMachineSelector selector = getStateMachineSelector();
+			if (selector != null) {
+				long timeLimit = (long) (timeManager.getTimeRemaining() * selector.getStartClockFraction());
+				stateMachine = selector.select(getMatch().getGame().getRules(), timeLimit);
+			} else {
+				stateMachine = getInitialStateMachine();
+				stateMachine.initialize(getMatch().getGame().getRules());
+			}
 			currentState = stateMachine.getInitialState();
 
 			role = stateMachine.getRoleFromConstant(getRoleName());
 			getMatch().appendState(currentState.getContents());
 
 			stateMachineMetaGame(timeout);
+			timeManager.endClock();
+			ponderAfterResponse = true;
 		}
 		catch (Exception e)
 		{
@@ -207,6 +298,9 @@ public abstract class StateMachineGamer extends Gamer
 	{
 		try
 		{
+			stopPondering();
+			timeManager.beginClock(timeout, getMatch().getPlayClock() * 1000L);
+			searchMetrics.begin();
 			stateMachine.doPerMoveWork();
 
 			List<GdlTerm> lastMoves = getMatch().getMostRecentMoves();
@@ -222,7 +316,11 @@ public abstract class StateMachineGamer extends Gamer
 				getMatch().appendState(currentState.getContents());
 			}
 
-			return stateMachineSelectMove(timeout).getContents();
+			lastSelection = stateMachineSelectMove(timeout).getContents();
+			timeManager.endClock();
+			notifyObservers(new GamerSearchMetricsEvent(searchMetrics.snapshot()));
+			ponderAfterResponse = true;
+			return lastSelection;
 		}
 		catch (Exception e)
 		{
@@ -231,9 +329,70 @@ public abstract class StateMachineGamer extends Gamer
 		}
 	}
 
+	@Override
+	public void notifyResponseSent(long acceptTime, long receptionTime, long sentTime) {
+		if (timeManager != null) {
+			timeManager.recordResponseSent(acceptTime, receptionTime, sentTime);
+		}
+		if (ponderAfterResponse) {
+			ponderAfterResponse = false;
+			startPondering();
+		}
+	}
+
+	/**
+	 * Starts pondering in a background thread, unless pondering is off or
+	 * the game is already over.
+	 */
+	private void startPondering()
+	{
+		if (!ponderingEnabled || stateMachine == null || currentState == null || stateMachine.isTerminal(currentState)) {
+			return;
+		}
+		timeManager.startPondering();
+		ponderThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					stateMachinePonder();
+				} catch (Exception e) {
+					GamerLogger.logStackTrace("GamePlayer", e);
+				}
+			}
+		}, "Ponder-" + getName());
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+
+	/**
+	 * Stops pondering and waits for the pondering thread to finish, so that
+	 * the thread handling a request has the gamer to itself.
+	 */
+	private void stopPondering()
+	{
+		ponderAfterResponse = false;
+		if (ponderThread == null) {
+			return;
+		}
+		timeManager.stopPondering();
+		boolean interrupted = false;
+		while (ponderThread.isAlive()) {
+			try {
+				ponderThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		ponderThread = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	@Override
 	public void stop() throws StoppingException {
 		try {
+			stopPondering();
 			stateMachine.doPerMoveWork();
 
 			List<GdlTerm> lastMoves = getMatch().getMostRecentMoves();
@@ -262,6 +421,7 @@ public abstract class StateMachineGamer extends Gamer
 	@Override
 	public void abort() throws AbortingException {
 		try {
+			stopPondering();
 			stateMachineAbort();
 		}
 		catch (Exception e)
@@ -275,4 +435,10 @@ public abstract class StateMachineGamer extends Gamer
     private Role role;
     private MachineState currentState;
     private StateMachine stateMachine;
+    private TimeManager timeManager = new TimeManager();
+    private final SearchMetrics searchMetrics = new SearchMetrics();
+    private GdlTerm lastSelection;
+    private boolean ponderingEnabled = false;
+    private boolean ponderAfterResponse = false;
+    private Thread ponderThread;
 }
\ No newline at end of file
@@ -0,0 +1,432 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.cache.CachedStateMachine;
+import org.ggp.base.util.statemachine.implementation.chaining.ChainingStateMachine;
+import org.ggp.base.util.statemachine.implementation.compiled.CompiledStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+
+/**
+ * StateMachineSelector picks the state machine a {@link StateMachineGamer}
+ * plays a match with, by trying every kind it is given on the game at hand.
+ * Which machine is fastest differs from game to game, and some cannot be
+ * built for a game at all, or not in time.
+ * <p>
+ * Selection spends its time in two halves. In the first, the machines are
+ * built at once, each on a thread of its own, so that a slow build cannot
+ * hold up the others even on a single processor. A build that runs past the
+ * end of the half is abandoned, as are all unfinished builds when the heap
+ * fills past the memory limit. Builds are abandoned by interrupting them,
+ * and the default builders check for interruption as they go, so an
+ * abandoned build stops using the processor and the heap soon after. A build
+ * of another kind that does not check carries on in the background, but its
+ * machine is never used. In the second half, each machine that was built
+ * in turn is checked against a {@link ProverStateMachine} with
+ * {@link StateMachineVerifier}, and then has its depth charges per second
+ * measured from the initial state after a warm-up. The fastest machine that
+ * agreed with the prover is selected; if none did, the prover itself is.
+ */
+public final class StateMachineSelector
+{
+    /** How often unfinished builds are checked on, in milliseconds. */
+    private static final long POLL_INTERVAL = 10;
+
+    /**
+     * Builds and initializes one kind of state machine for a game.
+     */
+    public interface Builder
+    {
+        String getName();
+
+        StateMachine build(List<Gdl> description);
+    }
+
+    /**
+     * What became of a builder's machine.
+     */
+    public enum Status
+    {
+        /** Built, agreed with the prover and measured */
+        MEASURED,
+        /** Not built before the build time ran out */
+        TIMED_OUT,
+        /** Abandoned because the heap filled up while it was being built */
+        OUT_OF_MEMORY,
+        /** Threw an exception or error while being built or measured */
+        FAILED,
+        /** Disagreed with the prover */
+        INCONSISTENT
+    }
+
+    /**
+     * The fate of one builder during the last selection.
+     */
+    public static final class Candidate
+    {
+        private final Builder builder;
+        private volatile Status status = Status.TIMED_OUT;
+        private volatile StateMachine machine;
+        private volatile long buildTime = -1;
+        private double depthChargesPerSecond = 0;
+        /** Whether the build was abandoned, guarded by the candidate's lock */
+        private boolean abandoned = false;
+
+        private Candidate(Builder builder)
+        {
+            this.builder = builder;
+        }
+
+        public String getName()
+        {
+            return builder.getName();
+        }
+
+        public Status getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * Returns how long the build took in milliseconds, or -1 if it did
+         * not finish.
+         */
+        public long getBuildTime()
+        {
+            return buildTime;
+        }
+
+        public double getDepthChargesPerSecond()
+        {
+            return depthChargesPerSecond;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getName() + ": " + status + (buildTime >= 0 ? ", built in " + buildTime + "ms" : "")
+                    + (status == Status.MEASURED ? ", " + depthChargesPerSecond + " depth charges per second" : "");
+        }
+    }
+
+    private final List<Builder> builders;
+    private double startClockFraction = 0.25;
+    private double memoryFraction = 0.75;
+    private List<Candidate> candidates = Collections.emptyList();
+    private Candidate selected;
+
+    public StateMachineSelector(List<Builder> builders)
+    {
+        this.builders = new ArrayList<Builder>(builders);
+    }
+
+    /**
+     * Returns builders for the prover, the prover behind a cache, and the
+     * forward-chaining and compiled machines, none of which ground the game.
+     */
+    public static List<Builder> getDefaultBuilders()
+    {
+        return Arrays.asList(
+                new Builder() {
+                    @Override
+                    public String getName() {
+                        return "ProverStateMachine";
+                    }
+                    @Override
+                    public StateMachine build(List<Gdl> description) {
+                        StateMachine machine = new ProverStateMachine();
+                        machine.initialize(description);
+                        return machine;
+                    }
+                },
+                new Builder() {
+                    @Override
+                    public String getName() {
+                        return "CachedStateMachine(ProverStateMachine)";
+                    }
+                    @Override
+                    public StateMachine build(List<Gdl> description) {
+                        StateMachine machine = new CachedStateMachine(new ProverStateMachine());
+                        machine.initialize(description);
+                        return machine;
+                    }
+                },
+                new Builder() {
+                    @Override
+                    public String getName() {
+                        return "ChainingStateMachine";
+                    }
+                    @Override
+                    public StateMachine build(List<Gdl> description) {
+                        StateMachine machine = new ChainingStateMachine();
+                        machine.initialize(description);
+                        return machine;
+                    }
+                },
+                new Builder() {
+                    @Override
+                    public String getName() {
+                        return "CompiledStateMachine";
+                    }
+                    @Override
+                    public StateMachine build(List<Gdl> description) {
+                        StateMachine machine = new CompiledStateMachine();
+                        machine.initialize(description);
+                        return machine;
+                    }
+                });
+    }
+
+    /**
+     * Returns the fraction of the time left on the start clock that a
+     * {@link StateMachineGamer} gives to selection. The default is a quarter.
+     */
+    public double getStartClockFraction()
+    {
+        return startClockFraction;
+    }
+
+    public void setStartClockFraction(double startClockFraction)
+    {
+        this.startClockFraction = startClockFraction;
+    }
+
+    /**
+     * Sets the fraction of the maximum heap that may be in use before
+     * unfinished builds are abandoned. The default is three quarters.
+     */
+    public void setMemoryFraction(double memoryFraction)
+    {
+        this.memoryFraction = memoryFraction;
+    }
+
+    /**
+     * Returns what became of each builder in the last selection, in the
+     * order the builders were given.
+     */
+    public List<Candidate> getCandidates()
+    {
+        return candidates;
+    }
+
+    /**
+     * Returns the candidate selected last time, or null if the prover was
+     * fallen back on.
+     */
+    public Candidate getSelected()
+    {
+        return selected;
+    }
+
+    /**
+     * Builds, checks and measures the machines for the game, taking about
+     * the given number of milliseconds, and returns the fastest correct one,
+     * initialized.
+     */
+    public StateMachine select(List<Gdl> description, long timeLimit)
+    {
+        long start = System.currentTimeMillis();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(description);
+
+        candidates = new ArrayList<Candidate>();
+        for (Builder builder : builders) {
+            candidates.add(new Candidate(builder));
+        }
+        List<Candidate> built = build(description, start + timeLimit / 2);
+        selected = null;
+        for (int i = 0; i < built.size(); i++) {
+            Candidate candidate = built.get(i);
+            long slice = Math.max(0, start + timeLimit - System.currentTimeMillis()) / (built.size() - i);
+            measure(candidate, reference, slice);
+            if (candidate.status == Status.MEASURED
+                    && (selected == null || candidate.depthChargesPerSecond > selected.depthChargesPerSecond)) {
+                selected = candidate;
+            }
+        }
+
+        for (Candidate candidate : candidates) {
+            GamerLogger.log("StateMachine", candidate.toString());
+        }
+        if (selected == null) {
+            GamerLogger.log("StateMachine", "No state machine agreed with the prover; falling back on it");
+            return reference;
+        }
+        GamerLogger.log("StateMachine", "Selected " + selected.getName());
+        StateMachine machine = selected.machine;
+        // Let the machines that lost be collected
+        for (Candidate candidate : candidates) {
+            candidate.machine = null;
+        }
+        return machine;
+    }
+
+    /**
+     * Runs the builders on a pool of daemon threads until they are done, the
+     * deadline passes or the heap fills up. Returns the candidates whose
+     * builds finished.
+     */
+    private List<Candidate> build(final List<Gdl> description, long deadline)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, candidates.size()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "StateMachineSelector");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Candidate candidate : candidates) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long buildStart = System.currentTimeMillis();
+                    try {
+                        StateMachine machine = candidate.builder.build(description);
+                        synchronized (candidate) {
+                            if (!candidate.abandoned) {
+                                candidate.machine = machine;
+                                candidate.buildTime = System.currentTimeMillis() - buildStart;
+                            }
+                        }
+                    } catch (OutOfMemoryError e) {
+                        finishBuild(candidate, Status.OUT_OF_MEMORY);
+                    } catch (Exception e) {
+                        GamerLogger.logStackTrace("StateMachine", e);
+                        finishBuild(candidate, Status.FAILED);
+                    } catch (Error e) {
+                        GamerLogger.logStackTrace("StateMachine", e);
+                        finishBuild(candidate, Status.FAILED);
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            while (!executor.isTerminated() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(POLL_INTERVAL);
+                if (isHeapFull() && !executor.isTerminated()) {
+                    System.gc();
+                    if (isHeapFull()) {
+                        abandonUnfinished(futures, Status.OUT_OF_MEMORY);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        abandonUnfinished(futures, Status.TIMED_OUT);
+
+        List<Candidate> built = new ArrayList<Candidate>();
+        for (Candidate candidate : candidates) {
+            if (candidate.machine != null) {
+                built.add(candidate);
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Records how a build that did not produce a machine ended, unless it
+     * was abandoned first, since an interrupted build often ends by throwing.
+     */
+    private static void finishBuild(Candidate candidate, Status status)
+    {
+        synchronized (candidate) {
+            if (!candidate.abandoned) {
+                candidate.status = status;
+            }
+        }
+    }
+
+    /**
+     * Interrupts the builds that have not finished. A build that finishes
+     * anyway is not counted.
+     */
+    private void abandonUnfinished(List<Future<?>> futures, Status status)
+    {
+        for (int i = 0; i < futures.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            synchronized (candidate) {
+                if (candidate.machine == null && !candidate.abandoned && futures.get(i).cancel(true)) {
+                    candidate.abandoned = true;
+                    candidate.status = status;
+                }
+            }
+        }
+    }
+
+    private boolean isHeapFull()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() > runtime.maxMemory() * memoryFraction;
+    }
+
+    /**
+     * Spends a third of the given time checking the candidate's machine
+     * against the reference, and the rest on depth charges from the initial
+     * state, of which the second half are counted.
+     */
+    private void measure(Candidate candidate, StateMachine reference, long duration)
+    {
+        StateMachine machine = candidate.machine;
+        try {
+            if (!StateMachineVerifier.checkMachineConsistency(reference, machine, duration / 3)) {
+                candidate.status = Status.INCONSISTENT;
+                return;
+            }
+            long warmUp = duration / 3;
+            runDepthCharges(machine, warmUp);
+            long measured = duration - duration / 3 - warmUp;
+            int charges = runDepthCharges(machine, measured);
+            candidate.depthChargesPerSecond = charges * 1000.0 / Math.max(1, measured);
+            candidate.status = Status.MEASURED;
+        } catch (Exception e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+            candidate.status = Status.FAILED;
+        } catch (StackOverflowError e) {
+            GamerLogger.logStackTrace("StateMachine", e);
+            candidate.status = Status.FAILED;
+        }
+    }
+
+    /**
+     * Plays depth charges from the initial state for the given number of
+     * milliseconds, and returns how many finished. The time is checked after
+     * every move rather than every charge, so that a charge in a game that
+     * does not end, or one that takes the machine long to play, is cut off
+     * when the time is up and not counted.
+     */
+    private static int runDepthCharges(StateMachine machine, long duration) throws Exception
+    {
+        long end = System.currentTimeMillis() + duration;
+        MachineState initialState = machine.getInitialState();
+        int charges = 0;
+        while (System.currentTimeMillis() < end) {
+            MachineState state = initialState;
+            while (!machine.isTerminal(state)) {
+                if (System.currentTimeMillis() >= end) {
+                    return charges;
+                }
+                state = machine.getNextStateDestructively(state, machine.getRandomJointMove(state));
+            }
+            charges++;
+        }
+        return charges;
+    }
+}
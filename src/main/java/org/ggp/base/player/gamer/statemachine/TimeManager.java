@@ -0,0 +1,191 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.ggp.base.util.logging.GamerLogger;
+
+/**
+ * TimeManager decides how much of each clock a {@link StateMachineGamer} may
+ * spend thinking. Instead of a fixed number of milliseconds held back from
+ * every timeout, it keeps a safety margin derived from the latency actually
+ * observed on recent turns: the time between the search stopping and the
+ * response being written, the time spent reading the request off the
+ * network, and however long the search ran past its deadline. A reply
+ * that was not sent until after the timeout of its clock widens the margin.
+ * <p>
+ * Search loops should poll {@link #shouldStop()}, which only compares the
+ * current time against a precomputed deadline and is cheap enough to call
+ * once per simulation.
+ * <p>
+ * The fraction of each clock that was used is recorded so that it can be
+ * inspected after the match.
+ * <p>
+ * Between requests there is no clock, so pondering searches run until
+ * {@link #stopPondering()} is called from the thread handling the next request.
+ */
+public final class TimeManager
+{
+    /** Margin used until some latency has been observed. */
+    public static final long DEFAULT_MARGIN = 1000;
+    /** The margin never drops below this, to absorb GC pauses and jitter. */
+    public static final long MIN_MARGIN = 250;
+    /** How many recent turns of latency the margin is derived from. */
+    private static final int HISTORY_LENGTH = 10;
+
+    private final LinkedList<Long> recentOverheads = new LinkedList<Long>();
+    private final List<Double> clockUsage = new ArrayList<Double>();
+    private long penalty = 0;
+
+    private long clockStart;
+    private long clockLength;
+    private long timeout;
+    private volatile long deadline = Long.MAX_VALUE;
+    // The deadline set by beginClock, which pondering does not move
+    private long clockDeadline = Long.MAX_VALUE;
+    private long searchStopped = -1;
+
+    /**
+     * Starts timing a new clock (the start clock or a play clock).
+     *
+     * @param timeout time in milliseconds since the era by which the response must be sent
+     * @param clockLength length of the clock in milliseconds
+     */
+    public synchronized void beginClock(long timeout, long clockLength)
+    {
+        this.clockStart = System.currentTimeMillis();
+        this.clockLength = clockLength;
+        this.timeout = timeout;
+        this.clockDeadline = timeout - getSafetyMargin();
+        this.deadline = clockDeadline;
+        this.searchStopped = -1;
+    }
+
+    /**
+     * Marks the end of thinking for the current clock and records how much
+     * of the clock was used.
+     */
+    public synchronized void endClock()
+    {
+        searchStopped = System.currentTimeMillis();
+        if (clockLength > 0) {
+            clockUsage.add((double)(searchStopped - clockStart) / clockLength);
+        }
+        GamerLogger.log("TimeManager", "Used " + (searchStopped - clockStart) + " of " + clockLength
+                + " ms with a safety margin of " + (timeout - clockDeadline) + " ms.");
+    }
+
+    /**
+     * Lifts the deadline, so that a search started while pondering runs
+     * until {@link #stopPondering()} is called. The next call to
+     * {@link #beginClock(long, long)} restores a real deadline.
+     */
+    public void startPondering()
+    {
+        deadline = Long.MAX_VALUE;
+    }
+
+    /**
+     * Makes {@link #shouldStop()} return true at once, ending a pondering
+     * search.
+     */
+    public void stopPondering()
+    {
+        deadline = Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns true once the search should stop so that the response can
+     * still reach the server in time.
+     */
+    public boolean shouldStop()
+    {
+        return System.currentTimeMillis() >= deadline;
+    }
+
+    /**
+     * Returns the time in milliseconds since the era at which searching should stop.
+     */
+    public long getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Returns the number of milliseconds left before searching should stop.
+     */
+    public long getTimeRemaining()
+    {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    /**
+     * Records the observed latency of the response to the current clock,
+     * counting any time the search ran past its deadline, and widens the
+     * margin if the response was sent after the timeout.
+     *
+     * @param acceptTime when the connection carrying the request was accepted
+     * @param receptionTime when the request had been completely read
+     * @param sentTime when the response had been completely written
+     */
+    public synchronized void recordResponseSent(long acceptTime, long receptionTime, long sentTime)
+    {
+        if (searchStopped < 0) {
+            return;
+        }
+        long overhead = (sentTime - searchStopped) + (receptionTime - acceptTime)
+                + Math.max(0, searchStopped - clockDeadline);
+        recentOverheads.addLast(Math.max(0, overhead));
+        if (recentOverheads.size() > HISTORY_LENGTH) {
+            recentOverheads.removeFirst();
+        }
+        searchStopped = -1;
+        if (sentTime > timeout) {
+            recordMissedDeadline();
+        } else {
+            // A penalty from an earlier late reply wears off as timely replies accumulate.
+            penalty /= 2;
+        }
+    }
+
+    /**
+     * Records that our previous response did not arrive in time to be used.
+     */
+    public synchronized void recordMissedDeadline()
+    {
+        penalty += Math.max(getSafetyMargin(), DEFAULT_MARGIN);
+        GamerLogger.logError("TimeManager", "Previous response arrived too late; safety margin is now " + getSafetyMargin() + " ms.");
+    }
+
+    /**
+     * Returns the number of milliseconds held back from each timeout. This is
+     * twice the worst latency seen in recent turns plus a fixed allowance,
+     * and is capped at half of the clock so that short clocks still leave
+     * time to search.
+     */
+    public synchronized long getSafetyMargin()
+    {
+        long margin;
+        if (recentOverheads.isEmpty()) {
+            margin = DEFAULT_MARGIN;
+        } else {
+            margin = MIN_MARGIN + 2 * Collections.max(recentOverheads);
+        }
+        margin += penalty;
+        if (clockLength > 0) {
+            margin = Math.min(margin, clockLength / 2);
+        }
+        return margin;
+    }
+
+    /**
+     * Returns, for each clock timed so far, the fraction of it spent before
+     * the response was ready.
+     */
+    public synchronized List<Double> getClockUsage()
+    {
+        return new ArrayList<Double>(clockUsage);
+    }
+}
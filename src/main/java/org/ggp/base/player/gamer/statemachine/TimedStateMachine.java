@@ -0,0 +1,115 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * TimedStateMachine wraps another state machine and adds the time spent in
+ * each of its queries to a {@link SearchMetrics}. Only the primitive queries
+ * are timed; composite ones such as joint move generation are built from
+ * them by {@link StateMachine}, so nothing is counted twice.
+ * <p>
+ * States are passed through unchanged, so states of the wrapped machine and
+ * of the wrapper can be mixed freely.
+ */
+public final class TimedStateMachine extends StateMachine
+{
+    private final StateMachine backingStateMachine;
+    private final SearchMetrics metrics;
+
+    public TimedStateMachine(StateMachine backingStateMachine, SearchMetrics metrics)
+    {
+        this.backingStateMachine = backingStateMachine;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the machine that does the work.
+     */
+    public StateMachine getBackingStateMachine()
+    {
+        return backingStateMachine;
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        backingStateMachine.initialize(description);
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        long start = System.nanoTime();
+        try {
+            return backingStateMachine.getGoal(state, role);
+        } finally {
+            metrics.addStateMachineTime(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        long start = System.nanoTime();
+        try {
+            return backingStateMachine.isTerminal(state);
+        } finally {
+            metrics.addStateMachineTime(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return backingStateMachine.getRoles();
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return backingStateMachine.getInitialState();
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        return backingStateMachine.findActions(role);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        long start = System.nanoTime();
+        try {
+            return backingStateMachine.getLegalMoves(state, role);
+        } finally {
+            metrics.addStateMachineTime(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        long start = System.nanoTime();
+        try {
+            return backingStateMachine.getNextState(state, moves);
+        } finally {
+            metrics.addStateMachineTime(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void doPerMoveWork()
+    {
+        backingStateMachine.doPerMoveWork();
+    }
+}
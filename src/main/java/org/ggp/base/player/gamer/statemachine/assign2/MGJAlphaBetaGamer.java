@@ -3,6 +3,8 @@ package org.ggp.base.player.gamer.statemachine.assign2;
 import java.util.List;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.finalgamer.MGJAlphaBetaEngine;
+import org.ggp.base.player.gamer.statemachine.finalgamer.MGJEvaluator;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
@@ -14,12 +16,34 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 /*
  * Team: Michael Genesereth Junior
  * MGJAlphaBetaGamer is our implementation of an alpha-beta gamer.
- * It fully searches the game tree from the current state to generate
- * minimum and maximum nodes using minScore and maxScore and uses
- * this to make an informed decision.
+ * It searches the game tree from the current state with iterative
+ * deepening alpha-beta (MGJAlphaBetaEngine), which stops early once the
+ * whole tree has been searched. When the clock runs out first, states
+ * beyond the deepest finished search count as draws, since this gamer
+ * uses no heuristic.
+ * Simultaneous moves are searched paranoid, each of our moves against the
+ * opponents' worst joint reply, as the full search before it did.
  */
 public final class MGJAlphaBetaGamer extends SampleGamer
 {
+	private MGJAlphaBetaEngine engine;
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		/*
+		 * Deliberately no heuristic: a state cut off by the clock scores the
+		 * midpoint of the goal range, so only outcomes proven within the
+		 * search depth tell moves apart. Exhaustive searches never use it
+		 */
+		engine = new MGJAlphaBetaEngine(getStateMachine(), getRole(), getTimeManager(), new MGJEvaluator() {
+			@Override
+			public double evaluate(MachineState state, Role role) {
+				return 50;
+			}
+		});
+	}
+
 	/*
 	 * This function is called whenever the gamer is queried
 	 * for a move at the beginning of each round. It returns
@@ -33,15 +57,13 @@ public final class MGJAlphaBetaGamer extends SampleGamer
 
 		// vars for role and state
 		Role role = getRole();
-		List<Role> roles = getStateMachine().findRoles();
-		int role_index = roles.indexOf(role);
 		MachineState currentState = getCurrentState();
 
 		// get the list of all possible moves
 		List<Move> moves = getStateMachine().findLegals(role, currentState);
 
 		// Use alpha-beta minimax to determine the best possible next move
-		Move selection = bestMove(role, currentState, moves, role_index);
+		Move selection = engine.search(currentState);
 
 		/*
 		 * get the final time after the move is chosen
@@ -54,70 +76,4 @@ public final class MGJAlphaBetaGamer extends SampleGamer
 		notifyObservers(new GamerSelectedMoveEvent(moves, selection, stop - start));
 		return selection;
 	}
-
-	/*
-	 * This function is called by stateMachineSelectMove. Given
-	 * a role, state, list of potential actions to choose from in the given
-	 * state, and index of the active role in the roles array,
-	 * it finds the moves of the opponents that returns the lowest possible score
-	 * (thereby populating the minnodes).
-	 */
-	private Move bestMove(Role role, MachineState state, List<Move> actions, int role_index) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		Move chosenMove = actions.get(0);
-		int score = 0;
-		// loop through all actions and find the best score and return this
-		for (int i = 0; i < actions.size(); i++) {
-			int result = minScore(role, actions.get(i), state, role_index, 0, 100);
-			if (result > score) {
-				score = result;
-				chosenMove = actions.get(i);
-			}
-		}
-		return chosenMove;
-	}
-
-	/*
-	 * This function is called by bestMove and maxScore. Given a role,
-	 * action chosen, state, index of the active role in the
-	 * roles array, alpha, and beta, calculates
-	 * the minimum score out of all possible joint actions
-	 * conducted by the opponents.
-	 */
-	private int minScore(Role role, Move move, MachineState state, int role_index, int alpha, int beta) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		List<List<Move>> allJointActions = getStateMachine().getLegalJointMoves(state, role, move);
-		// go through all possible combinations of actions for opponents and return worst outcome
-		for (int i = 0; i < allJointActions.size(); i++) {
-			MachineState updatedState = getStateMachine().findNext(allJointActions.get(i), state);
-			int result = maxScore(role, updatedState, role_index, alpha, beta);
-			beta = Math.min(beta, result);
-			if (beta <= alpha) {
-				return alpha;
-			}
-		}
-		return beta;
-	}
-
-	/*
-	 * This function is called by minScore. Given a role,
-	 * action chosen, state, index of the active role in the
-	 * roles array, alpha, and beta, finds the highest
-	 * scoring move and returns its score.
-	 */
-	private int maxScore(Role role, MachineState state, int role_index, int alpha, int beta) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		// if in a terminal state, return, otherwise recursively find all terminal results
-		if (getStateMachine().findTerminalp(state)) {
-			return getStateMachine().findReward(role, state);
-		} else {
-			// find actions in this case and return the highest score found amongst them
-			List<Move> actions = getStateMachine().findLegals(role, state);
-			for (int i = 0; i < actions.size(); i++) {
-				int result = minScore(role, actions.get(i), state, role_index, alpha, beta);
-				alpha = Math.max(alpha, result);
-				if (alpha >= beta) {
-					return beta;
-				}
-			}
-			return alpha;
-		}
-	}
-}
\ No newline at end of file
+}
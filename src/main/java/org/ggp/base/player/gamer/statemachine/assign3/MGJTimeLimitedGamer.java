@@ -26,8 +26,6 @@ public final class MGJTimeLimitedGamer extends SampleGamer
 	 * a move generated via time limited minimax search.
 	 */
 
-	private long limit = 3250;
-
 	@Override
 	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
@@ -109,7 +107,7 @@ public final class MGJTimeLimitedGamer extends SampleGamer
 		// if in a terminal state or exceeds the time limit, return, otherwise recursively find all terminal results
 		if (getStateMachine().findTerminalp(state)) {
 			return getStateMachine().findReward(role, state);
-		} else if (timeout - System.currentTimeMillis() < limit) return 0;
+		} else if (getTimeManager().shouldStop()) return 0;
 		else {
 			// find actions in this case and return the highest score found amongst them
 			List<Move> actions = getStateMachine().findLegals(role, state);
@@ -27,8 +27,6 @@ public final class MGJTimeLimitedKeepAliveGamer extends SampleGamer
 	 * a move generated via time-limited minimax.
 	 */
 
-	private long limit = 3250;
-
 	@Override
 	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
@@ -72,7 +70,7 @@ public final class MGJTimeLimitedKeepAliveGamer extends SampleGamer
 		boolean chosenTerminal = false;
 		int max_level = 1;
 		// loop through all actions and find the best score and return this
-		while (timeout - System.currentTimeMillis() >= limit) {
+		while (!getTimeManager().shouldStop()) {
 			for (Move action : actions) {
 				Boolean isTerminal = Boolean.FALSE;
 				double result = minScore(role, action, state, role_index, start, timeout, isTerminal, 0, max_level);
@@ -119,7 +117,7 @@ public final class MGJTimeLimitedKeepAliveGamer extends SampleGamer
 	private double maxScore(Role role, MachineState state, int role_index, long start, long timeout, Boolean terminal, int curr_level, int max_level) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
 		// if in a terminal state or exceeds the time limit, return, otherwise recursively find all terminal results
 		// note: the heuristic is integrated in this or statement because the helper function would be duplicate code
-		if (timeout - System.currentTimeMillis() < limit || getStateMachine().findTerminalp(state)) {
+		if (getTimeManager().shouldStop() || getStateMachine().findTerminalp(state)) {
 			terminal = getStateMachine().findTerminalp(state) ? Boolean.TRUE : terminal;
 			return getStateMachine().findReward(role, state);
 		}
@@ -3,6 +3,7 @@ package org.ggp.base.player.gamer.statemachine.assign3;
 import java.util.List;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.finalgamer.MGJWeightedEvaluator;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
@@ -18,17 +19,31 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  * It partially searches the game tree from the current state to generate
  * minimum and maximum nodes using minScore and maxScore and uses
  * this to make an informed decision.
+ * If MGJWeightTuner has fitted weights for the game, the heuristic is the
+ * tuned combination of features (MGJWeightedEvaluator) instead.
  */
 public final class MGJTimeLimitedMobilityGamer extends SampleGamer
 {
+	// Evaluation weights set by the tuner, or null to load the game's tuned weights
+	private double[] weights;
+	private MGJWeightedEvaluator evaluator;
+
+	public void setWeights(double[] weights) {
+		this.weights = weights;
+	}
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		evaluator = MGJWeightedEvaluator.forGame(getStateMachine(), getMatch().getGame().getRules(), weights, MGJWeightedEvaluator.Feature.MOBILITY);
+	}
+
 	/*
 	 * This function is called whenever the gamer is queried
 	 * for a move at the beginning of each round. It returns
 	 * a move generated via time-limited minimax.
 	 */
 
-	private long limit = 3250;
-
 	@Override
 	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
@@ -109,7 +124,7 @@ public final class MGJTimeLimitedMobilityGamer extends SampleGamer
 		// if in a terminal state or exceeds the time limit, return, otherwise recursively find all terminal results
 		if (getStateMachine().findTerminalp(state)) {
 			return getStateMachine().findReward(role, state);
-		} else if (timeout - System.currentTimeMillis() < limit) return mobility(role, state);
+		} else if (getTimeManager().shouldStop()) return evaluator.evaluate(state, role);
 		else {
 			// find actions in this case and return the highest score found amongst them
 			List<Move> actions = getStateMachine().findLegals(role, state);
@@ -123,15 +138,4 @@ public final class MGJTimeLimitedMobilityGamer extends SampleGamer
 			return score;
 		}
 	}
-
-	/*
-	 * This function is called by maxScore. Given a role
-	 * and a state, it calculates the mobility of the given
-	 * state and returns this mobility as a double decimal.
-	 */
-	private double mobility(Role role, MachineState state) throws MoveDefinitionException {
-		List<Move> actions = getStateMachine().findLegals(role, state);
-		List<Move> feasibles = getStateMachine().findActions(role);
-		return ((float)actions.size() / (float)(feasibles.size() * 100.0));
-	}
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package org.ggp.base.player.gamer.statemachine.assign3;
 import java.util.List;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.finalgamer.MGJWeightedEvaluator;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
@@ -18,17 +19,32 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  * It partially searches the game tree from the current state to generate
  * minimum and maximum nodes using minScore and maxScore and uses
  * this to make an informed decision.
+ * If MGJWeightTuner has fitted weights for the game, non-terminal states
+ * at the depth limit are scored by the tuned combination of features
+ * (MGJWeightedEvaluator) instead of the reward alone.
  */
 public final class MGJTimeLimitedRewardGamer extends SampleGamer
 {
+	// Evaluation weights set by the tuner, or null to load the game's tuned weights
+	private double[] weights;
+	private MGJWeightedEvaluator evaluator;
+
+	public void setWeights(double[] weights) {
+		this.weights = weights;
+	}
+
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		evaluator = MGJWeightedEvaluator.forGame(getStateMachine(), getMatch().getGame().getRules(), weights, MGJWeightedEvaluator.Feature.GOAL);
+	}
+
 	/*
 	 * This function is called whenever the gamer is queried
 	 * for a move at the beginning of each round. It returns
 	 * a move generated via time-limited minimax.
 	 */
 
-	private long limit = 3250;
-
 	@Override
 	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
@@ -71,7 +87,7 @@ public final class MGJTimeLimitedRewardGamer extends SampleGamer
 		double score = 0;
 		int max_level = 1;
 		// loop through all actions and find the best score and return this
-		while (timeout - System.currentTimeMillis() >= limit) {
+		while (!getTimeManager().shouldStop()) {
 			for (Move action : actions) {
 				double result = minScore(role, action, state, role_index, start, timeout, 0, max_level);
 				if (result > score) {
@@ -112,9 +128,10 @@ public final class MGJTimeLimitedRewardGamer extends SampleGamer
 	 */
 	private double maxScore(Role role, MachineState state, int role_index, long start, long timeout, int curr_level, int max_level) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
 		// if in a terminal state or exceeds the time limit, return, otherwise recursively find all terminal results
-		// note: the heuristic is integrated in this or statement because the helper function would be identical
-		if (timeout - System.currentTimeMillis() < limit || getStateMachine().findTerminalp(state) || curr_level >= max_level) {
+		if (getStateMachine().findTerminalp(state)) {
 			return getStateMachine().findReward(role, state);
+		} else if (getTimeManager().shouldStop() || curr_level >= max_level) {
+			return evaluator.evaluate(state, role);
 		}
 		else {
 			// find actions in this case and return the highest score found amongst them
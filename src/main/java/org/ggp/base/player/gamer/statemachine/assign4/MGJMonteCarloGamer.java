@@ -30,8 +30,6 @@ public final class MGJMonteCarloGamer extends SampleGamer
 
 	private int limit = 4; // level limit
 	private int count = 4; // number of depth charges
-	private long time_lim = 4000; // time limit
-	private long absolute_lim = 2500; // absolute time limit when you cancel monte carlo depth charges
 
 	@Override
 	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
@@ -85,7 +83,7 @@ public final class MGJMonteCarloGamer extends SampleGamer
 			}
 		}
 		// If time is still left, keep searching the tree until time expires
-		while (timeout - System.currentTimeMillis() >= time_lim && score != 100) {
+		while (!getTimeManager().shouldStop() && score != 100) {
 			limit += 1;
 			for (Move action : actions) {
 				int result = minScore(role, action, state, level, timeout);
@@ -130,7 +128,7 @@ public final class MGJMonteCarloGamer extends SampleGamer
 		// if in a terminal state or exceeds the level limit, return, otherwise recursively find all terminal results
 		if (getStateMachine().findTerminalp(state)) {
 			return getStateMachine().findReward(role, state);
-		} else if (level >= limit || timeout - System.currentTimeMillis() < time_lim) return montecarlo(role, state, timeout);
+		} else if (level >= limit || getTimeManager().shouldStop()) return montecarlo(role, state, timeout);
 		else {
 			// find actions in this case and return the highest score found amongst them
 			List<Move> actions = getStateMachine().findLegals(role, state);
@@ -172,7 +170,7 @@ public final class MGJMonteCarloGamer extends SampleGamer
 		while (!m.findTerminalp(current)) {
 			List<List<Move>> moves = m.getLegalJointMoves(current);
 			current = m.getNextState(current, moves.get(random.nextInt(moves.size())));
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+			if (getTimeManager().shouldStop()) return 0;
 		}
 		return m.findReward(role, current);
 	}
@@ -30,8 +30,6 @@ public final class MGJMonteCarloTreeSearchBenGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 5; //num depth charges
 	private int num_depth_charges = 0;
 
@@ -104,7 +102,7 @@ public final class MGJMonteCarloTreeSearchBenGamer extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx, StateMachine machine) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
+		while (!getTimeManager().shouldStop()) {
 			Node selNode = select(root, machine);
 			int score = 0;
 			if (machine.findTerminalp(selNode.currentState)) {
@@ -213,7 +211,7 @@ public final class MGJMonteCarloTreeSearchBenGamer extends SampleGamer
 		Random random = new Random();
 		MachineState curr_state = curr_node.currentState;
 		while (!m.findTerminalp(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+			if (getTimeManager().shouldStop()) return 0;
 			List<List<Move>> moves = m.getLegalJointMoves(curr_state);
 			curr_state = m.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
 		}
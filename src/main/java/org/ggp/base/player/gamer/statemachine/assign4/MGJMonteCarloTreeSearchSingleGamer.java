@@ -5,7 +5,9 @@ import java.util.List;
 import java.util.Random;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.finalgamer.MGJPuzzleSearch;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -20,6 +22,10 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  * It partially explores the game tree to a set depth, then uses depth charges
  * to simulate random game play in order to estimate the likelihood of any
  * particular move leading to a victory
+ * In games with one role (besides chance) it switches to puzzle mode, where the best line
+ * matters rather than the average, and searches with MGJPuzzleSearch
+ * (nested Monte Carlo search or NRPA). The best line found is remembered
+ * across turns, so a line reaching 100 is replayed without searching again.
  */
 public final class MGJMonteCarloTreeSearchSingleGamer extends SampleGamer
 {
@@ -30,10 +36,13 @@ public final class MGJMonteCarloTreeSearchSingleGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 6; //num depth charges
 	private Node root = new Node(null, null, null, true);
+	// Algorithm and nesting level used in puzzle mode
+	private MGJPuzzleSearch.Algorithm puzzle_algorithm = MGJPuzzleSearch.Algorithm.NRPA;
+	private int puzzle_level = 3;
+	// null unless the game has one role
+	private MGJPuzzleSearch puzzle;
 
 	// Class to represent Node in search tree
 	public class Node {
@@ -61,6 +70,25 @@ public final class MGJMonteCarloTreeSearchSingleGamer extends SampleGamer
 		}
 	}
 
+	/*
+	 * Turns on puzzle mode for games with one role, and spends the start
+	 * clock looking for the best line of the puzzle
+	 */
+	@Override
+	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		puzzle = null;
+		if (MGJPuzzleSearch.isPuzzle(getStateMachine(), getRole())) {
+			puzzle = new MGJPuzzleSearch(getStateMachine(), getRole(), getTimeManager(), puzzle_algorithm, puzzle_level);
+			puzzle.search(getCurrentState());
+			logPuzzleProgress();
+		}
+	}
+
+	private void logPuzzleProgress() {
+		GamerLogger.log("GamePlayer", "Puzzle mode: best score " + puzzle.getBestScore() + " after " + puzzle.getPlayouts() + " playouts");
+	}
+
 	@Override
 	public Move stateMachineSelectMove(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
@@ -76,12 +104,21 @@ public final class MGJMonteCarloTreeSearchSingleGamer extends SampleGamer
 		// get the list of all possible moves
 		List<Move> moves = getStateMachine().findLegals(role, currentState);
 
+		// in puzzle mode the best line is followed, even through forced moves
+		if (puzzle != null) {
+			Move selection = puzzle.nextMove(currentState);
+			logPuzzleProgress();
+			notifyObservers(new GamerSelectedMoveEvent(moves, selection, System.currentTimeMillis() - start));
+			return selection;
+		}
+
 		// if noop or only one possible move return immediately
 		if (moves.size() == 1) return moves.get(0);
 
 		List<List<Move>> jointMoves = getStateMachine().getLegalJointMoves(currentState);
 
 		// Initializes root children
+		root = new Node(null, null, currentState, true);
 		ArrayList<Node> parentChildren = new ArrayList<Node>();
 		for (List<Move> action : jointMoves) {
 			Node newAction = new Node(root, action, getStateMachine().getNextState(getCurrentState(), action), false);
@@ -108,7 +145,7 @@ public final class MGJMonteCarloTreeSearchSingleGamer extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
+		while (!getTimeManager().shouldStop()) {
 			Node selNode = select(root);
 			expand(selNode, role);
 			int score = montecarlo(role, selNode.currentState, timeout);
@@ -194,7 +231,7 @@ public final class MGJMonteCarloTreeSearchSingleGamer extends SampleGamer
 	 * the reward received at said terminal state
 	 */
 	private int depthcharge(Role role, MachineState state, long timeout, StateMachine m) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		if (timeout - System.currentTimeMillis() < absolute_lim) return 50;
+		if (getTimeManager().shouldStop()) return 50;
 		Random random = new Random();
 		MachineState current = state;
 		while (!m.findTerminalp(current)) {
@@ -1,17 +1,11 @@
 package org.ggp.base.player.gamer.statemachine.assign5;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
-import java.util.Set;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
-import org.ggp.base.util.gdl.grammar.Gdl;
-import org.ggp.base.util.gdl.grammar.GdlLiteral;
-import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -36,8 +30,6 @@ public final class MGJRedundantRuleRemovalGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 6; //num depth charges
 
 	// Class to represent Node in search tree
@@ -66,105 +58,13 @@ public final class MGJRedundantRuleRemovalGamer extends SampleGamer
 		}
 	}
 
+	/*
+	 * Rules that other rules subsume are removed by RedundancyRemover, which
+	 * the prover applies to every description it is given
+	 */
 	@Override
 	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
-		StateMachine newStateMachine = getInitialStateMachine();
-		List<Gdl> rules = pruneRules(getMatch().getGame().getRules(), timeout);
-		newStateMachine.initialize(rules);
-		switchStateMachine(newStateMachine);
-	}
-
-	private List<Gdl> pruneRules(List<Gdl> rules, long timeout) {
-		List<Gdl> newRules = new ArrayList<Gdl>();
-		for (int i = 0; i < rules.size(); i++) {
-			if (timeout - System.currentTimeMillis() < 3300) {
-				newRules.addAll(i, rules);
-			}
-			if (!subsumedp(rules.get(i), newRules) &&
-					!subsumedp(rules.get(i), new ArrayList<Gdl>(rules.subList(i + 1, rules.size())))) {
-					newRules.add(rules.get(i));
-			}
-		}
-		return newRules;
-	}
-
-	private boolean subsumedp(Gdl rule, List<Gdl> rules) {
-		for (int i = 0; i < rules.size(); i++) {
-			if (subsumesp(rules.get(i), rule)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	private boolean subsumesp(Gdl p, Gdl q) {
-		if (p == q) {
-			return true;
-		}
-		// if either is not a rule, return false
-		if (!(p instanceof GdlRule) || !(q instanceof GdlRule)) {
-			return false;
-		}
-		GdlRule pRule = (GdlRule) p;
-		GdlRule qRule = (GdlRule) q;
-		Map<String, String> al = new HashMap<String, String>();
-		boolean bindable = matcher(pRule.getHead().toString(), qRule.getHead().toString(), al);
-		if (bindable && subsumesexp(pRule.getBody(), qRule.getBody(), al)) {
-			return true;
-		}
-		return false;
-	}
-
-	private boolean subsumesexp(List<GdlLiteral> pl, List<GdlLiteral> ql, Map<String, String> al) {
-		if (pl.isEmpty()) {
-			return true;
-		}
-		for (int i = 0; i < ql.size(); i++) {
-			Map<String, String> bl = new HashMap<String, String>();
-			boolean bindable = match(pl.get(0), ql.get(i), al, bl);
-			if (bindable && subsumesexp(new ArrayList<GdlLiteral>(pl.subList(1, pl.size())),
-										   ql, al)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	// matcher and match are the only functions I'm too worried about here
-	private boolean matcher(String p, String q, Map<String, String> bindings) {
-		String[] pToks = p.split(" ");
-		String[] qToks = q.split(" ");
-		if (pToks.length != qToks.length) {
-			return false;
-		}
-		for (int i = 0; i < pToks.length; i++) {
-			if (pToks[i].equals(qToks[i])) {
-				continue;
-			} else if (pToks[i].charAt(0) == '?') {
-				bindings.put(qToks[i], pToks[i]);
-				qToks[i] = pToks[i];
-			} else {
-				bindings = new HashMap<String, String>();
-				return false;
-			}
-		}
-		return true;
-	}
-
-	private boolean match(GdlLiteral p, GdlLiteral q, Map<String, String> al,
-			                          Map<String, String> bindings) {
-		String pStr = p.toString();
-		String qStr = q.toString();
-		Set<String> bindingKeys = al.keySet();
-		for (String var : bindingKeys) {
-			qStr.replace(var, al.get(var));
-		}
-		bindings = new HashMap<String, String>(al);
-		if (pStr.equals(qStr)) {
-			return true;
-		}
-		return matcher(pStr, qStr, bindings);
 	}
 
 	@Override
@@ -205,7 +105,7 @@ public final class MGJRedundantRuleRemovalGamer extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
+		while (!getTimeManager().shouldStop()) {
 			Node selNode = select(root);
 			int score = 0;
 			if (getStateMachine().findTerminalp(selNode.currentState)) {
@@ -292,7 +192,7 @@ public final class MGJRedundantRuleRemovalGamer extends SampleGamer
 		Random random = new Random();
 		MachineState curr_state = curr_node.currentState;
 		while (!m.findTerminalp(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+			if (getTimeManager().shouldStop()) return 0;
 			List<List<Move>> moves = m.getLegalJointMoves(curr_state);
 			curr_state = m.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
 		}
@@ -325,7 +225,7 @@ public final class MGJRedundantRuleRemovalGamer extends SampleGamer
 //		while (!m.findTerminalp(current)) {
 //			List<List<Move>> moves = m.getLegalJointMoves(current);
 //			current = m.getNextState(current, moves.get(random.nextInt(moves.size())));
-//			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+//			if (getTimeManager().shouldStop()) return 0;
 //		}
 //		return m.findReward(role, current);
 //	}
@@ -1,17 +1,11 @@
 package org.ggp.base.player.gamer.statemachine.assign5;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
-import org.ggp.base.util.gdl.grammar.Gdl;
-import org.ggp.base.util.gdl.grammar.GdlLiteral;
-import org.ggp.base.util.gdl.grammar.GdlPool;
-import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -36,8 +30,6 @@ public final class MGJRedundantSubgoalRemovalGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 6; //num depth charges
 
 	// Class to represent Node in search tree
@@ -66,87 +58,13 @@ public final class MGJRedundantSubgoalRemovalGamer extends SampleGamer
 		}
 	}
 
+	/*
+	 * Redundant subgoals are removed by RedundancyRemover, which the prover
+	 * applies to every description it is given
+	 */
 	@Override
 	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
-		StateMachine newStateMachine = getInitialStateMachine();
-		List<Gdl> rules = getMatch().getGame().getRules();
-		for (int i = 0; i < rules.size(); i++) {
-			Gdl rule = rules.get(i);
-			if (timeout - System.currentTimeMillis() < 3300) {
-				break;
-			}
-			if (rule instanceof GdlRule) {
-				rules.set(i, prunesubgoals((GdlRule) rule));
-			}
-		}
-		newStateMachine.initialize(rules);
-		switchStateMachine(newStateMachine);
-	}
-
-	private Gdl prunesubgoals(GdlRule rule) {
-		List<String> vl = new ArrayList<String>();
-		varsexp(rule.getHead(), vl);
-		// really uncertain about this function
-		List<GdlLiteral> newBody = new ArrayList<GdlLiteral>();
-		for (int i = 0; i < rule.getBody().size(); i++) {
-			// the slicing and concat lines, v difficult, make sure these are good
-			List<GdlLiteral> slFirstHalf = new ArrayList<GdlLiteral>(newBody);
-			List<GdlLiteral> slSecondHalf = new ArrayList<GdlLiteral>(rule.getBody().subList(i + 1, newBody.size()));
-			List<GdlLiteral> sl = new ArrayList<GdlLiteral>(slFirstHalf);
-			sl.addAll(slSecondHalf);
-			if (!pruneworthyp(sl, rule.get(i), vl)) {
-
-			}
-		}
-		Gdl newRule = GdlPool.getRule(rule.getHead(), newBody);
-		return newRule;
-	}
-
-	// all really weird because I don't know if sl is a list of literals or a single
-	// literal, may need OH for this one
-	private boolean pruneworthyp(List<GdlLiteral> sl, GdlLiteral p, List<String> vl) {
-		List<String> vlCopy = vl;
-		for (int i = 0; i < sl.size(); i++) {
-			varsexp(sl.get(i), vlCopy);
-		}
-		Map<String, String> al = new HashMap<String, String>();
-		for (int i = 0; i < vl.size(); i++) {
-			al.put(vl.get(i), new StringBuilder("x").append(i).toString());
-		}
-		List<GdlLiteral> facts = new ArrayList<GdlLiteral>();
-		for (int i = 0; i < sl.size(); i++) {
-			facts.add(sublis(sl.get(i), al));
-		}
-		GdlLiteral goal = sublis(p, al);
-		return compfindp(goal, facts, new ArrayList<String>()); //no idea what this is
-	}
-
-	// arguments below may be wrong, don't know what this does either
-	private boolean compfindp(GdlLiteral goal, List<GdlLiteral> facts, ArrayList<String> res) {
-		return true;
-	}
-
-	private GdlLiteral sublis(GdlLiteral exp, Map<String, String> bindings) {
-		String newExp = exp.toString();
-		String[] splitExp = newExp.split(" ");
-		for (int i = 0; i < splitExp.length; i++) {
-			if (bindings.containsKey(splitExp[i])) {
-				splitExp[i] = bindings.get(splitExp[i]);
-			}
-		}
-		newExp = String.join(" ", splitExp);
-		return GdlPool.getConstant(newExp).toSentence(); //unsure here but this should work
-	}
-
-	private void varsexp(GdlLiteral ans, List<String> vl) {
-		String ansStr = ans.toString();
-		String[] splitStr = ansStr.split(" ");
-		for (String token : splitStr) {
-			if (token.charAt(0) == '?' && !vl.contains(token)) {
-				vl.add(token);
-			}
-		}
 	}
 
 	@Override
@@ -187,7 +105,7 @@ public final class MGJRedundantSubgoalRemovalGamer extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
+		while (!getTimeManager().shouldStop()) {
 			Node selNode = select(root);
 			int score = 0;
 			if (getStateMachine().findTerminalp(selNode.currentState)) {
@@ -274,7 +192,7 @@ public final class MGJRedundantSubgoalRemovalGamer extends SampleGamer
 		Random random = new Random();
 		MachineState curr_state = curr_node.currentState;
 		while (!m.findTerminalp(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+			if (getTimeManager().shouldStop()) return 0;
 			List<List<Move>> moves = m.getLegalJointMoves(curr_state);
 			curr_state = m.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
 		}
@@ -307,7 +225,7 @@ public final class MGJRedundantSubgoalRemovalGamer extends SampleGamer
 //		while (!m.findTerminalp(current)) {
 //			List<List<Move>> moves = m.getLegalJointMoves(current);
 //			current = m.getNextState(current, moves.get(random.nextInt(moves.size())));
-//			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+//			if (getTimeManager().shouldStop()) return 0;
 //		}
 //		return m.findReward(role, current);
 //	}
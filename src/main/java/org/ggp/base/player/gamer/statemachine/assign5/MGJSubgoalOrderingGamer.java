@@ -34,8 +34,6 @@ public final class MGJSubgoalOrderingGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 6; //num depth charges
 
 	// Class to represent Node in search tree
@@ -71,7 +69,7 @@ public final class MGJSubgoalOrderingGamer extends SampleGamer
 		List<Gdl> rules = getMatch().getGame().getRules();
 		for (int i = 0; i < rules.size(); i++) {
 			Gdl rule = rules.get(i);
-			if (timeout - System.currentTimeMillis() < 3300) {
+			if (getTimeManager().shouldStop()) {
 				break;
 			}
 			if (rule instanceof GdlRule) {
@@ -176,7 +174,7 @@ public final class MGJSubgoalOrderingGamer extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
+		while (!getTimeManager().shouldStop()) {
 			Node selNode = select(root);
 			int score = 0;
 			if (getStateMachine().findTerminalp(selNode.currentState)) {
@@ -263,7 +261,7 @@ public final class MGJSubgoalOrderingGamer extends SampleGamer
 		Random random = new Random();
 		MachineState curr_state = curr_node.currentState;
 		while (!m.findTerminalp(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+			if (getTimeManager().shouldStop()) return 0;
 			List<List<Move>> moves = m.getLegalJointMoves(curr_state);
 			curr_state = m.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
 		}
@@ -296,7 +294,7 @@ public final class MGJSubgoalOrderingGamer extends SampleGamer
 //		while (!m.findTerminalp(current)) {
 //			List<List<Move>> moves = m.getLegalJointMoves(current);
 //			current = m.getNextState(current, moves.get(random.nextInt(moves.size())));
-//			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+//			if (getTimeManager().shouldStop()) return 0;
 //		}
 //		return m.findReward(role, current);
 //	}
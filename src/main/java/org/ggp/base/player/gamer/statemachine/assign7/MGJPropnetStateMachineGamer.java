@@ -30,8 +30,6 @@ public final class MGJPropnetStateMachineGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 5; //num depth charges
 	private int num_depth_charges = 0;
 	private double est_utility = 0;
@@ -115,7 +113,7 @@ public final class MGJPropnetStateMachineGamer extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
+		while (!getTimeManager().shouldStop()) {
 			Node selNode = select(root);
 			int score = 0;
 			if (propNetMachine.isTerminal(selNode.currentState)) {
@@ -226,7 +224,7 @@ public final class MGJPropnetStateMachineGamer extends SampleGamer
 		Random random = new Random();
 		MachineState curr_state = curr_node.currentState;
 		while (!propNetMachine.isTerminal(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
+			if (getTimeManager().shouldStop()) return 0;
 			List<List<Move>> moves = propNetMachine.getLegalJointMoves(curr_state);
 			curr_state = propNetMachine.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
 		}
@@ -0,0 +1,381 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ggp.base.player.gamer.statemachine.TimeManager;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJAlphaBetaEngine is our iterative-deepening alpha-beta search. It
+ * deepens one ply at a time until the time manager says to stop, and plays
+ * the best move of the deepest iteration that finished. States at the depth
+ * limit are scored by a pluggable MGJEvaluator. Every other role is assumed
+ * to play against us, so games with more than two roles are searched
+ * paranoid. So are simultaneous moves: where we and others have a choice
+ * at once, we pick our move first and the others pick their joint reply
+ * knowing it, which makes each of our moves worth its worst reply.
+ * Searched states go into a transposition table keyed by a Zobrist hash of
+ * the state, holding the value with its bound type (exact, lower or upper)
+ * and the best move found. Moves are tried best move from the table first,
+ * which follows the principal variation of the previous iteration, then the
+ * killer moves that caused cutoffs at the same ply, then the rest. Where
+ * several opponents reply at once, their joint replies are tried in machine
+ * order and no move is stored.
+ */
+public final class MGJAlphaBetaEngine
+{
+	public static final int DEFAULT_TABLE_BITS = 18;
+	// Deepest ply searched, and depth stored for values that used no evaluation
+	private static final int MAX_DEPTH = 1000;
+	private static final byte EXACT = 0;
+	private static final byte LOWER = 1;
+	private static final byte UPPER = 2;
+
+	private final StateMachine machine;
+	private final Role role;
+	private final List<Role> roles;
+	private final int roleIdx;
+	private final TimeManager timeManager;
+	private MGJEvaluator evaluator;
+
+	// Random key of every sentence seen so far; a state's hash XORs its sentences' keys
+	private final Map<GdlSentence, Long> zobrist = new HashMap<GdlSentence, Long>();
+	private final Random random = new Random();
+
+	// Transposition table, one entry per slot, indexed by the low bits of the hash
+	private final int mask;
+	private final long[] tableKeys;
+	private final int[] tableDepth;
+	private final byte[] tableBound;
+	private final double[] tableValue;
+	private final Move[] tableMove;
+
+	// Two moves per ply that last caused a cutoff there
+	private Move[][] killers = new Move[64][2];
+
+	// Set when the time manager stops an iteration, whose results are then discarded
+	private boolean aborted;
+	// Set when a value below the current node depended on the evaluator
+	private boolean heuristic_used;
+	private long nodes = 0;
+	private int completed_depth = 0;
+	private double value = 0;
+
+	public MGJAlphaBetaEngine(StateMachine machine, Role role, TimeManager timeManager, MGJEvaluator evaluator) {
+		this(machine, role, timeManager, evaluator, DEFAULT_TABLE_BITS);
+	}
+
+	public MGJAlphaBetaEngine(StateMachine machine, Role role, TimeManager timeManager, MGJEvaluator evaluator, int table_bits) {
+		if (table_bits < 1 || table_bits > 28) {
+			throw new IllegalArgumentException("Transposition table bits must be between 1 and 28, got " + table_bits);
+		}
+		this.machine = machine;
+		this.role = role;
+		this.roles = machine.getRoles();
+		this.roleIdx = roles.indexOf(role);
+		this.timeManager = timeManager;
+		this.evaluator = evaluator;
+		int size = 1 << table_bits;
+		this.mask = size - 1;
+		this.tableKeys = new long[size];
+		this.tableDepth = new int[size];
+		this.tableBound = new byte[size];
+		this.tableValue = new double[size];
+		this.tableMove = new Move[size];
+		Arrays.fill(tableDepth, -1);
+	}
+
+	public void setEvaluator(MGJEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
+	/*
+	 * Searches deeper and deeper from the given state until time runs out or
+	 * the whole game tree has been searched, and returns our best move
+	 */
+	public Move search(MachineState state) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		List<List<Move>> legals = legalMoves(state);
+		List<Move> moves = legals.get(roleIdx);
+		nodes = 0;
+		completed_depth = 0;
+		value = 0;
+		if (moves.size() == 1) return moves.get(0);
+		List<List<Move>> replies = replies(legals);
+
+		Move best = moves.get(0);
+		for (int depth = 1; depth <= MAX_DEPTH && !timeManager.shouldStop(); depth++) {
+			aborted = false;
+			heuristic_used = false;
+			// the previous iteration's best move is searched first
+			List<Move> ordered = new ArrayList<Move>(moves);
+			ordered.remove(best);
+			ordered.add(0, best);
+			Move iteration_best = null;
+			double alpha = -1;
+			for (Move move : ordered) {
+				double result = minReply(state, replies, move, depth, alpha, 101, 0);
+				if (aborted) break;
+				if (result > alpha) {
+					alpha = result;
+					iteration_best = move;
+				}
+			}
+			if (aborted) break;
+			best = iteration_best;
+			value = alpha;
+			completed_depth = depth;
+			// nothing was left to the evaluator, so the value is exact and deeper search is pointless
+			if (!heuristic_used) break;
+		}
+		return best;
+	}
+
+	/*
+	 * Returns the value of a state for our role, searching depth more plies
+	 * within the window (alpha, beta). Values outside the window are bounds
+	 */
+	private double alphabeta(MachineState state, int depth, double alpha, double beta, int ply) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		nodes++;
+		if (timeManager.shouldStop()) {
+			aborted = true;
+			return 0;
+		}
+		if (machine.isTerminal(state)) return machine.getGoal(state, role);
+		if (depth <= 0) {
+			heuristic_used = true;
+			return evaluator.evaluate(state, role);
+		}
+
+		long key = hash(state);
+		int slot = (int) key & mask;
+		Move table_move = null;
+		if (tableDepth[slot] >= 0 && tableKeys[slot] == key) {
+			table_move = tableMove[slot];
+			if (tableDepth[slot] >= depth) {
+				double stored = tableValue[slot];
+				byte stored_bound = tableBound[slot];
+				if (stored_bound == EXACT || (stored_bound == LOWER && stored >= beta) || (stored_bound == UPPER && stored <= alpha)) {
+					// entries that relied on the evaluator are stored with their real depth
+					if (tableDepth[slot] < MAX_DEPTH) heuristic_used = true;
+					return stored;
+				}
+			}
+		}
+
+		List<List<Move>> legals = legalMoves(state);
+		List<List<Move>> replies = replies(legals);
+		boolean maximizing = legals.get(roleIdx).size() > 1;
+		if (!maximizing && replies.size() == 1) {
+			// nobody has a choice, so everyone plays their only move
+			return alphabeta(machine.getNextState(state, replies.get(0)), depth - 1, alpha, beta, ply + 1);
+		}
+
+		boolean outer_heuristic = heuristic_used;
+		heuristic_used = false;
+		double best;
+		Move best_move;
+		if (maximizing) {
+			// the others' replies to each of our moves are searched below it
+			List<Move> moves = orderMoves(legals.get(roleIdx), table_move, ply);
+			double a = alpha;
+			best = -1;
+			best_move = moves.get(0);
+			for (Move move : moves) {
+				double result = minReply(state, replies, move, depth, a, beta, ply);
+				if (aborted) return 0;
+				if (result > best) {
+					best = result;
+					best_move = move;
+				}
+				a = Math.max(a, result);
+				if (a >= beta) {
+					addKiller(ply, move);
+					break;
+				}
+			}
+		} else {
+			int mover = soleMover(legals);
+			if (mover >= 0) {
+				// one opponent moves, so its moves can be ordered like ours
+				replies = new ArrayList<List<Move>>();
+				for (Move move : orderMoves(legals.get(mover), table_move, ply)) {
+					replies.add(jointMove(legals, mover, move));
+				}
+			}
+			double b = beta;
+			best = 101;
+			best_move = null;
+			for (List<Move> reply : replies) {
+				double result = alphabeta(machine.getNextState(state, reply), depth - 1, alpha, b, ply + 1);
+				if (aborted) return 0;
+				if (result < best) {
+					best = result;
+					best_move = mover >= 0 ? reply.get(mover) : null;
+				}
+				b = Math.min(b, result);
+				if (alpha >= b) {
+					if (mover >= 0) addKiller(ply, reply.get(mover));
+					break;
+				}
+			}
+		}
+
+		byte bound = best <= alpha ? UPPER : best >= beta ? LOWER : EXACT;
+		store(slot, key, heuristic_used ? depth : MAX_DEPTH, bound, best, best_move);
+		heuristic_used = heuristic_used || outer_heuristic;
+		return best;
+	}
+
+	/*
+	 * Returns the value of our move in the state: its worst outcome over the
+	 * others' joint replies, each searched depth - 1 more plies. The replies
+	 * are searched as one node within (alpha, beta), without a table entry,
+	 * since they do not lead from a state of their own
+	 */
+	private double minReply(MachineState state, List<List<Move>> replies, Move move, int depth, double alpha, double beta, int ply) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		double best = 101;
+		for (List<Move> reply : replies) {
+			List<Move> jointMove = new ArrayList<Move>(reply);
+			jointMove.set(roleIdx, move);
+			double result = alphabeta(machine.getNextState(state, jointMove), depth - 1, alpha, beta, ply + 1);
+			if (aborted) return 0;
+			best = Math.min(best, result);
+			beta = Math.min(beta, result);
+			if (alpha >= beta) break;
+		}
+		return best;
+	}
+
+	/*
+	 * Every joint move of the other roles, with our first legal move in our
+	 * place for the caller to replace
+	 */
+	private List<List<Move>> replies(List<List<Move>> legals) {
+		List<List<Move>> replies = new ArrayList<List<Move>>();
+		replies.add(new ArrayList<Move>(roles.size()));
+		for (int r = 0; r < roles.size(); r++) {
+			List<Move> options = r == roleIdx ? legals.get(r).subList(0, 1) : legals.get(r);
+			List<List<Move>> extended = new ArrayList<List<Move>>(replies.size() * options.size());
+			for (List<Move> reply : replies) {
+				for (Move option : options) {
+					List<Move> longer = new ArrayList<Move>(reply);
+					longer.add(option);
+					extended.add(longer);
+				}
+			}
+			replies = extended;
+		}
+		return replies;
+	}
+
+	/*
+	 * The only role other than ours with a choice, or -1 if there are none
+	 * or several
+	 */
+	private int soleMover(List<List<Move>> legals) {
+		int mover = -1;
+		for (int r = 0; r < roles.size(); r++) {
+			if (r == roleIdx || legals.get(r).size() == 1) continue;
+			if (mover >= 0) return -1;
+			mover = r;
+		}
+		return mover;
+	}
+
+	/*
+	 * Puts the move from the transposition table first, then the killer moves
+	 * of this ply, then the remaining moves in machine order
+	 */
+	private List<Move> orderMoves(List<Move> moves, Move table_move, int ply) {
+		List<Move> ordered = new ArrayList<Move>(moves.size());
+		if (table_move != null && moves.contains(table_move)) ordered.add(table_move);
+		if (ply < killers.length && killers[ply] != null) {
+			for (Move killer : killers[ply]) {
+				if (killer != null && !ordered.contains(killer) && moves.contains(killer)) ordered.add(killer);
+			}
+		}
+		for (Move move : moves) {
+			if (!ordered.contains(move)) ordered.add(move);
+		}
+		return ordered;
+	}
+
+	private void addKiller(int ply, Move move) {
+		if (ply >= killers.length) killers = Arrays.copyOf(killers, 2 * ply);
+		if (killers[ply] == null) killers[ply] = new Move[2];
+		if (move.equals(killers[ply][0])) return;
+		killers[ply][1] = killers[ply][0];
+		killers[ply][0] = move;
+	}
+
+	/*
+	 * Replaces the entry in the slot unless it holds a deeper search of the same state
+	 */
+	private void store(int slot, long key, int depth, byte bound, double value, Move move) {
+		if (tableDepth[slot] > depth && tableKeys[slot] == key) return;
+		tableKeys[slot] = key;
+		tableDepth[slot] = depth;
+		tableBound[slot] = bound;
+		tableValue[slot] = value;
+		tableMove[slot] = move;
+	}
+
+	private long hash(MachineState state) {
+		long key = 0;
+		for (GdlSentence sentence : state.getContents()) {
+			Long sentence_key = zobrist.get(sentence);
+			if (sentence_key == null) {
+				sentence_key = random.nextLong();
+				zobrist.put(sentence, sentence_key);
+			}
+			key ^= sentence_key;
+		}
+		return key;
+	}
+
+	private List<List<Move>> legalMoves(MachineState state) throws MoveDefinitionException {
+		List<List<Move>> legals = new ArrayList<List<Move>>(roles.size());
+		for (Role r : roles) {
+			legals.add(machine.getLegalMoves(state, r));
+		}
+		return legals;
+	}
+
+	/*
+	 * The joint move in which the given role plays move and every other role
+	 * plays its first legal move, which is its only one where the role moves
+	 * alone
+	 */
+	private List<Move> jointMove(List<List<Move>> legals, int mover, Move move) {
+		List<Move> jointMove = new ArrayList<Move>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			jointMove.add(r == mover ? move : legals.get(r).get(0));
+		}
+		return jointMove;
+	}
+
+	public long getNodes() {
+		return nodes;
+	}
+
+	public int getCompletedDepth() {
+		return completed_depth;
+	}
+
+	public double getValue() {
+		return value;
+	}
+}
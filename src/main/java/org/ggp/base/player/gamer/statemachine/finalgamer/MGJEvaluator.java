@@ -0,0 +1,16 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJEvaluator scores the non-terminal states at the depth limit of a
+ * search for a given role, on the same 0 to 100 scale as goal values.
+ */
+public interface MGJEvaluator
+{
+	public double evaluate(MachineState state, Role role) throws MoveDefinitionException, GoalDefinitionException;
+}
@@ -1,25 +1,36 @@
 package org.ggp.base.player.gamer.statemachine.finalgamer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.StateMachineSelector;
+import org.ggp.base.player.gamer.statemachine.TimedStateMachine;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
 /*
  * Team: Michael Genesereth Junior
- * MGJMonteCarloTreeSearchGamer is our implementation of a Monte Carlo Tree gamer.
- * It partially explores the game tree to a set depth, then uses depth charges
- * to simulate random game play in order to estimate the likelihood of any
- * particular move leading to a victory
+ * MGJFinalGamer is our Monte Carlo Tree Search gamer. It searches a DAG of
+ * transpositions with UCT, RAVE and an MCTS-Solver, runs its depth charges
+ * from a learned playout policy, ponders between turns, and plays from a
+ * tablebase or opening book when one has been built for the game.
  */
 public final class MGJFinalGamer extends SampleGamer
 {
@@ -30,45 +41,249 @@ public final class MGJFinalGamer extends SampleGamer
 	 */
 
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
 	private int count = 5; //num depth charges
 	private int num_depth_charges = 0;
 	private double est_utility = 0;
-	private MGJPropNetStateMachine propNetMachine;
+	// Numbers the moves of every role, for statistics kept in arrays
+	private MGJMoveIndex moveIndex;
+	// State machine the search runs on, the one the selector picked at the start of
+	// the metagame, timed for the search metrics
+	private StateMachine machine;
+	// Fraction of the start clock given to measuring the game length and branching factor
+	private double metagame_slice = 0.1;
+	// Branching factor and game length seen in the metagame's depth charges
+	private double est_branching = 0;
+	private double est_game_length = 0;
+	private Random random = new Random();
+	// Solved values of the game's states, or null if the game has no tablebase
+	private MGJTablebase tablebase;
+	private int[] tablebase_goals;
+	// Moves of archived matches for the opening, or null if the game has no book
+	private MGJOpeningBook book;
+	// Plies for which the book is consulted
+	private int book_plies = 10;
+	// Times a book move must have been played before it is trusted
+	private int book_min_count = 3;
+	// Shared nodes for every state seen so far, kept across turns
+	private MGJTranspositionTable<Node> transpositions;
+	// Most nodes kept, or 0 to fit them in heap_fraction of the maximum heap
+	private int node_budget = 0;
+	private double heap_fraction = 0.5;
+	// Least recently used nodes among which the one with fewest visits is evicted
+	private int eviction_window = 16;
+	// Number of edge visits at which UCT and AMAF values get equal weight
+	private double rave_equivalence = 500;
+	// Scratch marks of the move indices played during one simulation
+	private boolean[] amaf_played;
+	// Chooses the moves of depth charges from move averages
+	private MGJPlayoutPolicy playoutPolicy;
+	// Fraction of the playout statistics carried over to the next turn
+	private double policy_decay = 0.5;
+	// Range of goal values, the bounds of a node nothing is proven about
+	private static final double MIN_GOAL = 0;
+	private static final double MAX_GOAL = 100;
 
-	// Class to represent Node in search tree
+	// Class to represent Node in search DAG; one node per distinct state
 	public class Node {
-		List<Move> move = null;
-		// Parent node of the current node
-		public Node parent = null;
-		// Array of all of the child nodes of the current node
-		public ArrayList<Node> children = new ArrayList<Node>();
 		// Represents the current state of the machine at that node (used to find current state of next nodes)
 		MachineState currentState = null;
-		// Is the root of the tree or not
-		boolean isRoot = false;
+		boolean isTerminal = false;
+		boolean isExpanded = false;
+
+		// Outgoing edges, one per joint move. Several joint moves may lead to the
+		// same state, in which case their edges share the child node's statistics
+		List<List<Move>> jointMoves = null;
+		MachineState[] childStates = null;
+		// Edge statistics survive eviction of the child node from the table
+		double[] edgeUtility = null;
+		double[] edgeVisits = null;
+		// Move index of each role's move in each edge's joint move
+		int[][] edgeMoves = null;
+
+		// All-moves-as-first statistics, with one slot per legal move of each role
+		// that has a choice here. amafIndex holds the sorted move index of each slot
+		int[] amafIndex = null;
+		double[] amafUtility = null;
+		double[] amafVisits = null;
+		// Slots of the moves that make up each edge's joint move
+		int[][] edgeSlots = null;
+		// Roles with more than one legal move here
+		int[] choosers = null;
+
+		// Proven bounds on the goal each role will get from this state
+		double[] lower = null;
+		double[] upper = null;
+		// Moves until the game ends under perfect play, known for terminal and
+		// tablebase states, otherwise -1
+		int distance = -1;
 
 		//CAN BE CHANGED
-		// Utility of the move
+		// Utility of the state, summed over every path through it
 		public double utility = 0.0;
 		// Number of visits for
 		public double visits = 0.0;
 
-		public Node(Node parent, List<Move> move, MachineState currentState, boolean isRoot) {
-			this.parent = parent;
-			this.move = move;
+		public Node(MachineState currentState, boolean isTerminal) {
 			this.currentState = currentState;
-			this.isRoot = isRoot;
+			this.isTerminal = isTerminal;
+			int numRoles = machine.getRoles().size();
+			this.lower = new double[numRoles];
+			this.upper = new double[numRoles];
+			Arrays.fill(lower, MIN_GOAL);
+			Arrays.fill(upper, MAX_GOAL);
 		}
 	}
 
+	/*
+	 * Races the propnet against the machines that do not ground the game,
+	 * so that games too big to ground still get the fastest machine that
+	 * can be built for them
+	 */
+	@Override
+	public StateMachineSelector getStateMachineSelector()
+	{
+		List<StateMachineSelector.Builder> builders = new ArrayList<StateMachineSelector.Builder>();
+		builders.add(new StateMachineSelector.Builder() {
+			@Override
+			public String getName() {
+				return "MGJPropNetStateMachine";
+			}
+			@Override
+			public StateMachine build(List<Gdl> description) {
+				StateMachine machine = new MGJPropNetStateMachine();
+				machine.initialize(description);
+				return machine;
+			}
+		});
+		builders.addAll(StateMachineSelector.getDefaultBuilders());
+		return new StateMachineSelector(builders);
+	}
+
+	/*
+	 * Takes the machine the selector picked, then runs sample depth charges
+	 * to estimate the game length and branching factor. The rest of the start
+	 * clock searches the tree of the initial state
+	 */
 	@Override
 	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
 		List<Gdl> rules = getMatch().getGame().getRules();
-		propNetMachine = new MGJPropNetStateMachine();
-		propNetMachine.initialize(rules);
+		moveIndex = new MGJMoveIndex(getStateMachine().getRoles().size());
+		amaf_played = new boolean[64];
+		setPondering(true);
+		tablebase = MGJTablebase.find(rules);
+		if (tablebase != null) {
+			GamerLogger.log("GamePlayer", "Loaded tablebase with " + tablebase.size() + " states");
+			tablebase_goals = new int[tablebase.getNumRoles()];
+		}
+		book = MGJOpeningBook.find(getCurrentState());
+		if (book != null) {
+			GamerLogger.log("GamePlayer", "Loaded opening book with " + book.size() + " positions");
+		}
+
+		long slice = (long) (getTimeManager().getTimeRemaining() * metagame_slice);
+		machine = getStateMachine();
+		double[] sample = sampleDepthCharges(machine, slice);
+		est_game_length = sample[1];
+		est_branching = sample[2];
+		GamerLogger.log("GamePlayer", "Selected state machine " + machine.getClass().getSimpleName()
+				+ ", estimated game length " + est_game_length + ", estimated branching factor " + est_branching);
+		machine = new TimedStateMachine(machine, getSearchMetrics());
+		playoutPolicy = new MGJPlayoutPolicy(moveIndex, machine, MGJPlayoutPolicy.Selection.GIBBS, 2);
+
+		int budget = node_budget;
+		if (budget <= 0) {
+			budget = MGJTranspositionTable.budgetFor(estimateNodeBytes(getCurrentState().getContents().size()), heap_fraction);
+		}
+		transpositions = new MGJTranspositionTable<Node>(budget, new MGJTranspositionTable.Weigher<Node>() {
+			@Override
+			public double visitsOf(Node node) {
+				return node.visits;
+			}
+		}, eviction_window);
+		GamerLogger.log("GamePlayer", "Node budget: " + budget);
+
+		num_depth_charges = 0;
+		Role role = getRole();
+		search(getNode(getCurrentState()), role, machine.getRoleIndices().get(role), null);
+		GamerLogger.log("GamePlayer", "Metagame depth charges: " + num_depth_charges, GamerLogger.LOG_LEVEL_DATA_DUMP);
+	}
+
+	/*
+	 * Caps the number of nodes kept in the transposition table. A budget of
+	 * 0 derives it from the maximum heap size in the next metagame
+	 */
+	public void setNodeBudget(int node_budget) {
+		this.node_budget = node_budget;
+	}
+
+	/*
+	 * Rough heap footprint of a node: its own fields and statistics, plus
+	 * a joint move and a child state of the given size for each estimated
+	 * edge. The child states dominate, since each holds a set of sentences
+	 */
+	private long estimateNodeBytes(int state_size) {
+		long state_bytes = 64 + 48L * state_size;
+		double edges = Math.max(1, est_branching);
+		return 256 + state_bytes + (long) (edges * (state_bytes + 160));
+	}
+
+	/*
+	 * Keeps searching the current state until the next request arrives,
+	 * only through the joint moves that contain the move we already sent,
+	 * since the next state is one of their children
+	 */
+	@Override
+	public void stateMachinePonder() throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+	{
+		num_depth_charges = 0;
+		Role role = getRole();
+		search(getNode(getCurrentState()), role, machine.getRoleIndices().get(role), getLastSelection());
+		GamerLogger.log("GamePlayer", "Pondering depth charges: " + num_depth_charges, GamerLogger.LOG_LEVEL_DATA_DUMP);
+	}
+
+	/*
+	 * Plays uniformly random depth charges from the current state on the given
+	 * machine for the given number of milliseconds. Returns the depth charges
+	 * finished per second, their average length and the average number of
+	 * joint moves available along them
+	 */
+	private double[] sampleDepthCharges(StateMachine candidate, long duration) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		long start = System.currentTimeMillis();
+		long stop = Math.min(start + duration, getTimeManager().getDeadline());
+		List<Role> roles = candidate.getRoles();
+		int charges = 0;
+		long steps = 0;
+		double branching = 0;
+		while (System.currentTimeMillis() < stop) {
+			MachineState state = getCurrentState();
+			long charge_steps = 0;
+			double charge_branching = 0;
+			while (!candidate.isTerminal(state) && System.currentTimeMillis() < stop) {
+				List<Move> jointMove = new ArrayList<Move>(roles.size());
+				double joint_moves = 1;
+				for (Role r : roles) {
+					List<Move> legals = candidate.getLegalMoves(state, r);
+					joint_moves *= legals.size();
+					jointMove.add(legals.get(random.nextInt(legals.size())));
+				}
+				charge_steps++;
+				charge_branching += joint_moves;
+				state = candidate.getNextState(state, jointMove);
+			}
+			// charges cut short by the time limit say nothing about the game length
+			if (!candidate.isTerminal(state)) break;
+			candidate.getGoals(state);
+			charges++;
+			steps += charge_steps;
+			branching += charge_branching;
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		return new double[] {
+			charges * 1000.0 / elapsed,
+			charges == 0 ? 0 : (double) steps / charges,
+			steps == 0 ? 0 : branching / steps
+		};
 	}
 
 	@Override
@@ -79,25 +294,39 @@ public final class MGJFinalGamer extends SampleGamer
 
 		// vars for role and state
 		Role role = getRole();
-		List<Role> roles = propNetMachine.findRoles();
+		List<Role> roles = machine.findRoles();
 		int roleIdx = roles.indexOf(role);
 		MachineState currentState = getCurrentState();
 
 		// get the list of all possible moves
-		List<Move> moves = propNetMachine.getLegalMoves(currentState, role);
+		List<Move> moves = machine.getLegalMoves(currentState, role);
 
 		// if noop or only one possible move return immediately
 		if (moves.size() == 1) return moves.get(0);
 
+		// in the opening, play the book move if there is one
+		if (book != null && getMatch().getMoveHistory().size() < book_plies) {
+			Move bookMove = book.probe(currentState, roleIdx, moves, book_min_count);
+			if (bookMove != null) {
+				GamerLogger.log("GamePlayer", "Book move: " + bookMove);
+				notifyObservers(new GamerSelectedMoveEvent(moves, bookMove, System.currentTimeMillis() - start));
+				return bookMove;
+			}
+		}
+
 		num_depth_charges = 0;
 		est_utility = 0;
+		playoutPolicy.decay(policy_decay);
 
-		Node root = new Node(null, null, getCurrentState(), true);
+		// Statistics gathered on earlier turns are reused when the state was already searched
+		Node root = getNode(currentState);
 		// Use Monte Carlo Tree Search to determine the best possible next move
 		Move selection = bestMove(root, role, start, timeout, roleIdx);
 
 		System.out.println("Estimated utility: " + est_utility);
 		System.out.println("Number of depth charges: " + num_depth_charges);
+		GamerLogger.log("GamePlayer", "Transposition table size: " + transpositions.size() + " (hits " + transpositions.getHits()
+				+ ", evictions " + transpositions.getEvictions() + ")", GamerLogger.LOG_LEVEL_DATA_DUMP);
 
 		/*
 		 * get the final time after the move is chosen
@@ -111,126 +340,472 @@ public final class MGJFinalGamer extends SampleGamer
 		return selection;
 	}
 
+	/*
+	 * Looks up the shared node for a state, creating and storing it if the
+	 * state is new or its node has been replaced
+	 */
+	private Node getNode(MachineState state) throws GoalDefinitionException {
+		Node node = transpositions.get(state);
+		if (node == null) {
+			node = new Node(state, machine.isTerminal(state));
+			if (node.isTerminal) {
+				// the value of a terminal state is proven by its goals
+				List<Role> roles = machine.getRoles();
+				for (int r = 0; r < roles.size(); r++) {
+					node.lower[r] = node.upper[r] = machine.getGoal(state, roles.get(r));
+				}
+				node.distance = 0;
+			} else if (tablebase != null) {
+				// a solved state's value is proven without searching below it
+				node.distance = tablebase.probe(state, tablebase_goals);
+				if (node.distance >= 0) {
+					for (int r = 0; r < tablebase_goals.length; r++) {
+						node.lower[r] = node.upper[r] = tablebase_goals[r];
+					}
+				}
+			}
+			transpositions.put(state, node);
+		}
+		return node;
+	}
+
+	/*
+	 * A node is solved once the goal of every role is proven
+	 */
+	private boolean isSolved(Node node) {
+		for (int r = 0; r < node.lower.length; r++) {
+			if (node.lower[r] < node.upper[r]) return false;
+		}
+		return true;
+	}
 
-	/* while still have time repeatedly update and search the tree
+	private double lowerOf(Node child, int r) {
+		return child == null ? MIN_GOAL : child.lower[r];
+	}
+
+	private double upperOf(Node child, int r) {
+		return child == null ? MAX_GOAL : child.upper[r];
+	}
+
+	/*
+	 * Recomputes the bounds of an expanded node from those of its children,
+	 * returning whether they changed. When one role has a choice it gets the
+	 * best lower bound among the children, and the other roles' bounds only
+	 * range over the children that role could still prefer. Otherwise no
+	 * child can be ruled out, so every bound ranges over all children.
+	 * Evicted children count as unknown
 	 */
-	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
-			Node selNode = select(root);
+	private boolean updateBounds(Node node) {
+		int numRoles = node.lower.length;
+		int n = node.childStates.length;
+		Node[] children = new Node[n];
+		for (int i = 0; i < n; i++) children[i] = transpositions.get(node.childStates[i]);
+		double[] lower = new double[numRoles];
+		double[] upper = new double[numRoles];
+		Arrays.fill(lower, MAX_GOAL);
+		Arrays.fill(upper, MIN_GOAL);
+		int chooser = node.choosers.length == 1 ? node.choosers[0] : -1;
+		double best = MIN_GOAL;
+		if (chooser >= 0) {
+			for (int i = 0; i < n; i++) best = Math.max(best, lowerOf(children[i], chooser));
+		}
+		for (int i = 0; i < n; i++) {
+			if (chooser >= 0 && upperOf(children[i], chooser) < best) continue;
+			for (int r = 0; r < numRoles; r++) {
+				lower[r] = Math.min(lower[r], lowerOf(children[i], r));
+				upper[r] = Math.max(upper[r], upperOf(children[i], r));
+			}
+		}
+		if (chooser >= 0) lower[chooser] = best;
+		boolean changed = !Arrays.equals(lower, node.lower) || !Arrays.equals(upper, node.upper);
+		node.lower = lower;
+		node.upper = upper;
+		return changed;
+	}
+
+	/*
+	 * Backs proven bounds up the selected path, stopping at the first node
+	 * whose bounds did not change. Other parents of a node pick the change
+	 * up the next time a path passes through them
+	 */
+	private void propagateBounds(List<Node> path) {
+		boolean changed = true;
+		for (int i = path.size() - 2; i >= 0 && changed; i--) {
+			changed = updateBounds(path.get(i));
+		}
+	}
+
+	/*
+	 * Edges into solved subtrees are not sampled any more, nor are edges the
+	 * only role with a choice is proven to do better than
+	 */
+	private boolean isExcluded(Node node, Node child) {
+		if (child == null) return false;
+		if (isSolved(child)) return true;
+		if (node.choosers.length != 1) return false;
+		int chooser = node.choosers[0];
+		return child.upper[chooser] < node.lower[chooser];
+	}
+
+	/* while still have time repeatedly update and search the tree. When our
+	 * move at the root is already committed, only the edges with it are searched
+	 */
+	private void search(Node root, Role role, int roleIdx, Move committed) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		if (root.isTerminal) return;
+		if (!root.isExpanded) expand(root);
+		List<Node> path = new ArrayList<Node>();
+		List<Integer> edges = new ArrayList<Integer>();
+		Set<Node> onPath = new HashSet<Node>();
+		// once our value at the root is proven, more search cannot change it
+		while (!getTimeManager().shouldStop() && root.lower[roleIdx] < root.upper[roleIdx]
+				&& (committed == null || !isCommittedSolved(root, roleIdx, committed))) {
+			path.clear();
+			edges.clear();
+			onPath.clear();
+			Node selNode = select(root, path, edges, onPath, roleIdx, committed);
 			int score = 0;
-			if (propNetMachine.isTerminal(selNode.currentState)) {
-				score = propNetMachine.getGoal(selNode.currentState, role);
+			if (selNode.isTerminal || isSolved(selNode)) {
+				score = (int) selNode.lower[roleIdx];
+				updateAmaf(path, edges, new ArrayList<Integer>(), score);
 			} else {
-				expand(selNode, role);
-				score = montecarlo(role, selNode, timeout);
+				expand(selNode);
+				score = montecarlo(role, selNode, path, edges);
+				// depth charges cut short by the deadline carry no information
+				if (getTimeManager().shouldStop()) break;
 			}
-			backpropagate(selNode, score);
+			backpropagate(path, edges, score);
+			propagateBounds(path);
 		}
+	}
 
-		// Parse through moves, find one with highest amount of utility, select it
-		Node bestMove = root.children.get(0);
-		double bestUtility =  root.children.get(0).utility;
-		for (Node child : root.children) {
-			if (propNetMachine.isTerminal(child.currentState)) {
-				if (propNetMachine.getGoal(child.currentState, role) == 100) {
-					est_utility = child.utility / child.visits;
-					return child.move.get(roleIdx);
-				}
+	/*
+	 * Whether every child of the root reached with the committed move is
+	 * solved, leaving nothing for a search restricted to them to find
+	 */
+	private boolean isCommittedSolved(Node root, int roleIdx, Move committed) {
+		for (int i = 0; i < root.jointMoves.size(); i++) {
+			if (!root.jointMoves.get(i).get(roleIdx).equals(committed)) continue;
+			Node child = transpositions.get(root.childStates[i]);
+			if (child == null || !isSolved(child)) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Searches from the root until time runs out, then picks our move
+	 */
+	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		search(root, role, roleIdx, null);
+
+		// Sum edge statistics for each of our moves, since many joint moves share our move.
+		// Also track the goal each move is proven to guarantee us whatever the others
+		// play, the most it could possibly get us, and the longest and shortest
+		// distance to the end among its children, unknown distances counting as longest
+		Map<Move, double[]> totals = new HashMap<Move, double[]>();
+		for (int i = 0; i < root.jointMoves.size(); i++) {
+			Move move = root.jointMoves.get(i).get(roleIdx);
+			// children are created here if needed, so that their tablebase values count
+			Node child = getNode(root.childStates[i]);
+			double[] total = totals.get(move);
+			if (total == null) {
+				total = new double[] {0, 0, MAX_GOAL, MIN_GOAL, 0, Double.MAX_VALUE};
+				totals.put(move, total);
 			}
-			if (child.utility >= bestUtility) {
-				bestUtility = child.utility;
-				bestMove = child;
+			total[0] += root.edgeUtility[i];
+			total[1] += root.edgeVisits[i];
+			total[2] = Math.min(total[2], lowerOf(child, roleIdx));
+			total[3] = Math.max(total[3], upperOf(child, roleIdx));
+			double distance = child.distance < 0 ? Double.MAX_VALUE : child.distance;
+			total[4] = Math.max(total[4], distance);
+			total[5] = Math.min(total[5], distance);
+		}
+		double guaranteed = MIN_GOAL;
+		for (double[] total : totals.values()) guaranteed = Math.max(guaranteed, total[2]);
+
+		// A move whose proven value is as good as anything could be wins outright.
+		// Among those, a win is taken by the shortest way whatever the others do,
+		// so that a game with cycles is not won over and over without ending it,
+		// and anything less is put off for as long as the others let it be
+		Move bestMove = null;
+		double[] best = null;
+		for (Entry<Move, double[]> entry : totals.entrySet()) {
+			double[] total = entry.getValue();
+			if (total[2] != guaranteed) continue;
+			if (best == null || total[3] > best[3]
+					|| (total[3] == best[3] && (guaranteed == MAX_GOAL ? total[4] < best[4] : total[5] > best[5]))) {
+				best = total;
+				bestMove = entry.getKey();
 			}
 		}
-		est_utility = bestMove.utility / bestMove.visits;
-		return bestMove.move.get(roleIdx);
-	}
+		boolean proven = true;
+		for (double[] total : totals.values()) {
+			if (total[3] > guaranteed) proven = false;
+		}
+		if (proven) {
+			est_utility = guaranteed;
+			return bestMove;
+		}
 
-	private Node select(Node node) {
-		if (propNetMachine.isTerminal(node.currentState)) {
-			return node;
+		// Otherwise find the move with highest amount of utility, leaving out moves
+		// proven to be worse than the guaranteed one
+		Move safeMove = bestMove;
+		double[] safe = best;
+		best = null;
+		for (Entry<Move, double[]> entry : totals.entrySet()) {
+			double[] total = entry.getValue();
+			if (total[3] <= guaranteed) continue;
+			if (best == null || total[0] >= best[0]) {
+				best = total;
+				bestMove = entry.getKey();
+			}
 		}
-		if (node.visits == 0) {
-			return node;
-		} else {
-			int score = 0;
-			Node result = node;
-			for (Node child : node.children) {
-				if (child.visits == 0) {
-					return child;
-				}
-				int child_score = selectfn(child);
-				if (child_score > score) {
-					score = child_score;
-					result = child;
+		est_utility = best[1] == 0 ? 0 : best[0] / best[1];
+		// decided moves are no longer sampled, so compare them by their proven value
+		if (guaranteed > MIN_GOAL && guaranteed >= est_utility) {
+			est_utility = guaranteed;
+			return safeMove;
+		}
+		return bestMove;
+	}
+
+	/*
+	 * Walks down the graph choosing edges with selectfn, recording the nodes
+	 * passed in path and the index of each edge taken in edges, and returns
+	 * the node to expand next. The path is needed for backpropagation since
+	 * a node may have several parents. Games without a step counter can
+	 * repeat a state; an edge back into a state already on the path ends the
+	 * walk there, with the edge recorded but the state not added again, so
+	 * that the playout starts from the repeated state and no node is
+	 * updated twice
+	 */
+	private Node select(Node root, List<Node> path, List<Integer> edges, Set<Node> onPath, int roleIdx, Move committed) throws GoalDefinitionException {
+		Node node = root;
+		path.add(node);
+		onPath.add(node);
+		while (!node.isTerminal && !isSolved(node) && node.visits != 0 && node.isExpanded) {
+			int edge = -1;
+			double score = Double.NEGATIVE_INFINITY;
+			boolean unvisited = false;
+			// Every edge may be excluded when a simultaneous choice between proven
+			// outcomes is left; choose among those in a second pass
+			for (int pass = 0; pass < 2 && edge < 0; pass++) {
+				for (int i = 0; i < node.jointMoves.size(); i++) {
+					if (node == root && committed != null && !node.jointMoves.get(i).get(roleIdx).equals(committed)) continue;
+					Node child = transpositions.get(node.childStates[i]);
+					if (pass == 0 && isExcluded(node, child)) continue;
+					// Every edge is tried once before UCT applies, most promising by AMAF first
+					if (node.edgeVisits[i] == 0) {
+						double amaf = amafValue(node, i);
+						double edge_score = amaf < 0 ? Double.MAX_VALUE : amaf;
+						if (!unvisited || edge_score > score) {
+							unvisited = true;
+							score = edge_score;
+							edge = i;
+						}
+						continue;
+					}
+					if (unvisited) continue;
+					double edge_score = selectfn(node, i, child);
+					if (edge_score > score) {
+						score = edge_score;
+						edge = i;
+					}
 				}
 			}
-			return select(result);
+			Node child = getNode(node.childStates[edge]);
+			edges.add(edge);
+			if (!onPath.add(child)) {
+				node = child;
+				break;
+			}
+			path.add(child);
+			node = child;
 		}
+		getSearchMetrics().observeDepth(edges.size());
+		return node;
 	}
 
-	private int selectfn(Node node) {
-		return (int) (node.utility / node.visits + Math.sqrt(2 * Math.log(node.parent.visits) / node.visits));
+	/*
+	 * Exploits the child's shared statistics, which merge every transposition
+	 * into the state, but explores by how often this particular edge was tried.
+	 * While the edge has few visits its value leans on the AMAF estimate, with
+	 * weight sqrt(k / (3n + k)) for n edge visits and equivalence parameter k
+	 */
+	private double selectfn(Node node, int edge, Node child) {
+		double mean;
+		if (child != null && child.visits > 0) {
+			mean = child.utility / child.visits;
+		} else {
+			mean = node.edgeUtility[edge] / node.edgeVisits[edge];
+		}
+		double amaf = amafValue(node, edge);
+		if (amaf >= 0) {
+			double beta = Math.sqrt(rave_equivalence / (3 * node.edgeVisits[edge] + rave_equivalence));
+			mean = (1 - beta) * mean + beta * amaf;
+		}
+		return mean + Math.sqrt(2 * Math.log(node.visits) / node.edgeVisits[edge]);
+	}
+
+	/*
+	 * Averages the AMAF values of the moves making up an edge's joint move,
+	 * returning -1 if none of them has been played below this node yet
+	 */
+	private double amafValue(Node node, int edge) {
+		double total = 0;
+		int known = 0;
+		for (int slot : node.edgeSlots[edge]) {
+			if (node.amafVisits[slot] > 0) {
+				total += node.amafUtility[slot] / node.amafVisits[slot];
+				known++;
+			}
+		}
+		return known == 0 ? -1 : total / known;
 	}
 
-	private void expand(Node node, Role role) throws MoveDefinitionException, TransitionDefinitionException {
-		List<Move> actions = propNetMachine.getLegalMoves(node.currentState, role);
-		for (Move action : actions) {
-			List<List<Move>> allJointActions = propNetMachine.getLegalJointMoves(node.currentState, role, action);
-			for (List<Move> jointActions : allJointActions) {
-				MachineState newState = propNetMachine.findNext(jointActions, node.currentState);
-				Node newnode = new Node(node, jointActions, newState, false);
-				node.children.add(newnode);
+	private void expand(Node node) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		if (node.isExpanded) return;
+		List<List<Move>> allJointActions = machine.getLegalJointMoves(node.currentState);
+		int n = allJointActions.size();
+		node.jointMoves = allJointActions;
+		node.childStates = new MachineState[n];
+		node.edgeUtility = new double[n];
+		node.edgeVisits = new double[n];
+		node.edgeMoves = new int[n][];
+		boolean terminalChild = false;
+		for (int i = 0; i < n; i++) {
+			node.childStates[i] = machine.findNext(allJointActions.get(i), node.currentState);
+			node.edgeMoves[i] = toMoveIndices(allJointActions.get(i));
+			// terminal children are stored right away, so their goals bound this node
+			if (machine.isTerminal(node.childStates[i])) {
+				getNode(node.childStates[i]);
+				terminalChild = true;
+			}
+		}
+
+		// Only the moves of roles with more than one option tell edges apart
+		int numRoles = machine.getRoles().size();
+		List<Integer> choosers = new ArrayList<Integer>();
+		Set<Integer> slotMoves = new TreeSet<Integer>();
+		for (int r = 0; r < numRoles; r++) {
+			Set<Integer> options = new HashSet<Integer>();
+			for (int i = 0; i < n; i++) options.add(node.edgeMoves[i][r]);
+			if (options.size() > 1) {
+				choosers.add(r);
+				slotMoves.addAll(options);
 			}
 		}
+		node.amafIndex = new int[slotMoves.size()];
+		int slot = 0;
+		for (int moveIdx : slotMoves) node.amafIndex[slot++] = moveIdx;
+		node.amafUtility = new double[slot];
+		node.amafVisits = new double[slot];
+		node.edgeSlots = new int[n][choosers.size()];
+		for (int i = 0; i < n; i++) {
+			for (int c = 0; c < choosers.size(); c++) {
+				node.edgeSlots[i][c] = Arrays.binarySearch(node.amafIndex, node.edgeMoves[i][choosers.get(c)]);
+			}
+		}
+		node.choosers = new int[choosers.size()];
+		for (int c = 0; c < choosers.size(); c++) node.choosers[c] = choosers.get(c);
+		node.isExpanded = true;
+		getSearchMetrics().addNodesExpanded(1);
+		if (terminalChild) updateBounds(node);
 	}
 
-//	private void backpropagate(Node node, int score) {
-//		node.visits++;
-//		node.utility = node.utility + score;
-//		if (node.parent != null) {
-//			backpropagate(node.parent, score);
-//		}
-//	}
+	private int[] toMoveIndices(List<Move> jointMove) {
+		int[] indices = new int[jointMove.size()];
+		for (int r = 0; r < jointMove.size(); r++) {
+			indices[r] = moveIndex.getMoveIndex(r, jointMove.get(r));
+		}
+		return indices;
+	}
 
 	/*
-	 * Backpropogates a found score to parent nodes until the root is reached
+	 * Backpropogates a found score along the path that was selected, updating
+	 * both the shared node statistics and the edge taken out of each node
 	 */
-	private void backpropagate(Node node, int score) {
-		Node curr_node = node;
-		node.visits += 1;
-		node.utility = node.utility + score;
-		while (curr_node.parent != null) {
-			curr_node = curr_node.parent;
+	private void backpropagate(List<Node> path, List<Integer> edges, int score) {
+		for (int i = 0; i < path.size(); i++) {
+			Node curr_node = path.get(i);
 			curr_node.visits += 1;
 			curr_node.utility += score;
+			if (i < edges.size()) {
+				int edge = edges.get(i);
+				curr_node.edgeVisits[edge] += 1;
+				curr_node.edgeUtility[edge] += score;
+			}
 		}
 	}
 
 	/*
-	 * Manages depth charges for a monte carlo search
+	 * Updates the AMAF statistics of every node on the path with the moves
+	 * played at or below it, both the edges taken in the tree and the moves
+	 * of the depth charge. Moves are told apart by role since move indices
+	 * are distinct across roles
 	 */
-	private int montecarlo(Role role, Node curr_node, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+	private void updateAmaf(List<Node> path, List<Integer> edges, List<Integer> playout, int score) {
+		// moves are numbered as they are first seen, so there may be new ones
+		if (moveIndex.getNumMoveIndices() > amaf_played.length) {
+			amaf_played = new boolean[Math.max(2 * amaf_played.length, moveIndex.getNumMoveIndices())];
+		}
+		for (int moveIdx : playout) amaf_played[moveIdx] = true;
+		for (int d = path.size() - 1; d >= 0; d--) {
+			Node node = path.get(d);
+			if (d < edges.size()) {
+				for (int moveIdx : node.edgeMoves[edges.get(d)]) amaf_played[moveIdx] = true;
+			}
+			if (node.amafIndex == null) continue;
+			for (int slot = 0; slot < node.amafIndex.length; slot++) {
+				if (amaf_played[node.amafIndex[slot]]) {
+					node.amafVisits[slot] += 1;
+					node.amafUtility[slot] += score;
+				}
+			}
+		}
+		Arrays.fill(amaf_played, false);
+	}
+
+	/*
+	 * Manages depth charges for a monte carlo search from the selected node,
+	 * feeding each finished charge into the AMAF statistics
+	 */
+	private int montecarlo(Role role, Node curr_node, List<Node> path, List<Integer> edges) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		List<Integer> playout = new ArrayList<Integer>();
 		int total = 0;
 		for (int i = 0; i < count; i++) {
-			total = total + depthcharge(role, curr_node, timeout);
+			playout.clear();
+			int score = depthcharge(role, curr_node, playout);
 			num_depth_charges += 1;
+			if (getTimeManager().shouldStop()) break;
+			updateAmaf(path, edges, playout, score);
+			total = total + score;
 		}
 		return total / count;
 	}
 
 	/*
-	 * Performs a depth charge by searching for a terminal state
+	 * Performs a depth charge by searching for a terminal state, with moves
+	 * chosen by the playout policy, recording the move index of every move
+	 * played and teaching the policy the goals that were reached
 	 */
-	private int depthcharge(Role role, Node curr_node, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		Random random = new Random();
+	private int depthcharge(Role role, Node curr_node, List<Integer> playout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
 		MachineState curr_state = curr_node.currentState;
-		while (!propNetMachine.isTerminal(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) return 0;
-			List<List<Move>> moves = propNetMachine.getLegalJointMoves(curr_state);
-			curr_state = propNetMachine.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
+		int length = 0;
+		playoutPolicy.startPlayout();
+		while (!machine.isTerminal(curr_state)) {
+			if (getTimeManager().shouldStop()) return 0;
+			List<Move> jointMove = playoutPolicy.selectJointMove(curr_state, playout);
+			curr_state = machine.getNextState(curr_state, jointMove);
+			length++;
+		}
+		getSearchMetrics().addSimulation(length);
+		List<Role> roles = machine.getRoles();
+		int[] goals = new int[roles.size()];
+		for (int r = 0; r < roles.size(); r++) {
+			goals[r] = machine.getGoal(curr_state, roles.get(r));
 		}
-		return propNetMachine.getGoal(curr_state, role);
+		playoutPolicy.update(playout, goals);
+		return goals[machine.getRoleIndices().get(role)];
 	}
 
 
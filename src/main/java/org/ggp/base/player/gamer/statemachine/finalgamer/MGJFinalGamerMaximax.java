@@ -1,25 +1,45 @@
 package org.ggp.base.player.gamer.statemachine.finalgamer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.ggp.base.player.gamer.event.GamerSelectedMoveEvent;
+import org.ggp.base.player.gamer.statemachine.TimedStateMachine;
 import org.ggp.base.player.gamer.statemachine.sample.SampleGamer;
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
 /*
  * Team: Michael Genesereth Junior
- * MGJMonteCarloTreeSearchGamer is our implementation of a Monte Carlo Tree gamer.
- * It partially explores the game tree to a set depth, then uses depth charges
- * to simulate random game play in order to estimate the likelihood of any
- * particular move leading to a victory
+ * MGJFinalGamerMaximax is our implementation of a Monte Carlo Tree gamer
+ * for simultaneous-move games, in which every role maximizes its own utility.
+ * Each node keeps separate statistics for every role's moves, and each role
+ * picks its move independently of the others (decoupled UCT, or EXP3 when
+ * mixed strategies matter). A node's children are only created for the joint
+ * moves that actually get sampled, so the branching factor seen by each role
+ * is the sum rather than the product of the roles' move counts.
+ * Depth charges from the newly added node estimate the value of the game
+ * to every role, which is then backed up along the sampled path.
+ * The tree holds a fixed budget of nodes, derived from the maximum heap
+ * unless set. The nodes are kept on a list in the order they were last on
+ * a sampled path, deepest first among the nodes of one path. When the tree
+ * is full, the subtrees of the nodes at the old end of the list are cut off
+ * until a quarter of the budget is free, which costs time in proportion to
+ * the nodes removed. Nodes with many visits are passed over once, so that
+ * the cut weighs how often a line was explored as well as how recently. The parent's per-move statistics already include
+ * everything a removed subtree saw, so only its detail is lost.
+ * The search reports its depth charges, new nodes and tree depth to the
+ * gamer's SearchMetrics, and times its propnet queries.
  */
 public final class MGJFinalGamerMaximax extends SampleGamer
 {
@@ -29,52 +49,96 @@ public final class MGJFinalGamerMaximax extends SampleGamer
 	 * a move generated via Monte Carlo Tree Search
 	 */
 
+	public enum SelectionMode { DECOUPLED_UCT, EXP3 }
 
-	private long time_lim = 3000; // time limit
-	private long absolute_lim = 2500;
+	private SelectionMode mode = SelectionMode.DECOUPLED_UCT;
 	private int count = 5; //num depth charges
 	private int num_depth_charges = 0;
 	private double est_utility = 0;
 	private double opponent_est_utility = 0;
-	private MGJPropNetStateMachine propNetMachine;
+	// Exploration rate of EXP3, the fraction of choices made uniformly at random
+	private double exp3_gamma = 0.1;
+	// The propnet, timed for the search metrics
+	private StateMachine machine;
 	private List<Role> roles;
 	private int roleIdx;
+	private Random random = new Random();
+	// Most nodes in the tree, or 0 to fit them in heap_fraction of the maximum heap
+	private int node_budget = 0;
+	private double heap_fraction = 0.5;
+	// Fraction of the budget the tree is cut back to when it fills up
+	private double prune_target = 0.75;
+	// Nodes with at least this fraction of the root's visits are passed over once when pruning
+	private double protect_fraction = 0.01;
+	private int budget;
+	private int num_nodes = 0;
+	// Ends of the list of nodes in the tree, from least to most recently visited
+	private Node lru_oldest = null;
+	private Node lru_newest = null;
 
 	// Class to represent Node in search tree
 	public class Node {
-		Move move = null;
 		// Parent node of the current node
 		public Node parent = null;
-		// Array of all of the child nodes of the current node
-		public ArrayList<Node> children = new ArrayList<Node>();
+		// Children for the joint moves sampled so far, keyed by jointKey
+		public Map<Long, Node> children = new HashMap<Long, Node>();
 		// Represents the current state of the machine at that node (used to find current state of next nodes)
 		MachineState currentState = null;
-		// Is the root of the tree or not
-		boolean isRoot = false;
-		boolean isPlayerMove = false;
+		boolean isTerminal = false;
+
+		// Legal moves of each role, filled in the first time the node is selected through
+		List<List<Move>> legalMoves = null;
+		// Per role, per move statistics. For EXP3 utility holds the cumulative
+		// importance-weighted reward instead of the sum of goals
+		double[][] moveUtility = null;
+		double[][] moveVisits = null;
 
 		//CAN BE CHANGED
-		// Utility of the move
-		public double utility = 0.0;
-		public double opponent_utility = 0.0;
+		// Utility of the state for each role
+		public double[] utility;
 		// Number of visits for
 		public double visits = 0.0;
 
-		public Node(Node parent, Move move, MachineState currentState, boolean isRoot, boolean isPlayerMove) {
+		// Key of this node in its parent's children
+		long key;
+		// Neighbours on the list of nodes by last visit
+		Node lru_older = null;
+		Node lru_newer = null;
+
+		public Node(Node parent, MachineState currentState, boolean isTerminal) {
 			this.parent = parent;
-			this.move = move;
 			this.currentState = currentState;
-			this.isRoot = isRoot;
-			this.isPlayerMove = isPlayerMove;
+			this.isTerminal = isTerminal;
+			this.utility = new double[roles.size()];
 		}
 	}
 
+	public void setSelectionMode(SelectionMode mode) {
+		this.mode = mode;
+	}
+
+	/*
+	 * Caps the number of nodes in the tree. A budget of 0 derives it from
+	 * the maximum heap size in the next metagame
+	 */
+	public void setNodeBudget(int node_budget) {
+		this.node_budget = node_budget;
+	}
+
 	@Override
 	public void stateMachineMetaGame(long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
 	{
 		List<Gdl> rules = getMatch().getGame().getRules();
-		propNetMachine = new MGJPropNetStateMachine();
+		MGJPropNetStateMachine propNetMachine = new MGJPropNetStateMachine();
 		propNetMachine.initialize(rules);
+		machine = new TimedStateMachine(propNetMachine, getSearchMetrics());
+		budget = node_budget;
+		if (budget <= 0) {
+			// a node holds its state, a map of children and the statistics of every legal move
+			long node_bytes = 512 + 48L * getCurrentState().getContents().size();
+			budget = MGJTranspositionTable.budgetFor(node_bytes, heap_fraction);
+		}
+		GamerLogger.log("GamePlayer", "Node budget: " + budget);
 	}
 
 	@Override
@@ -85,15 +149,12 @@ public final class MGJFinalGamerMaximax extends SampleGamer
 
 		// vars for role and state
 		Role role = getRole();
-		roles = propNetMachine.findRoles();
+		roles = machine.findRoles();
 		roleIdx = roles.indexOf(role);
 		MachineState currentState = getCurrentState();
 
-//		System.out.println(roles);
-//		System.out.println(roleIdx);
-
 		// get the list of all possible moves
-		List<Move> moves = propNetMachine.getLegalMoves(currentState, role);
+		List<Move> moves = machine.getLegalMoves(currentState, role);
 
 		// if noop or only one possible move return immediately
 		if (moves.size() == 1) return moves.get(0);
@@ -102,23 +163,25 @@ public final class MGJFinalGamerMaximax extends SampleGamer
 		est_utility = 0;
 		opponent_est_utility = 0;
 
-		Node root = new Node(null, null, getCurrentState(), true, false);
+		Node root = new Node(null, getCurrentState(), false);
+		lru_oldest = null;
+		lru_newest = null;
+		append(root);
+		num_nodes = 1;
 		// Use Monte Carlo Tree Search to determine the best possible next move
 		Move selection = bestMove(root, role, start, timeout, roleIdx);
 
-		// Print child moves, utilities, visits
-		// Print joint moves, opponent utilites, visits
-		for (Node child : root.children) {
-			System.out.println("Child move: " + child.move);
-			System.out.println("Child utility: " + child.utility/child.visits);
-			System.out.println("Child opponent utility: " + child.opponent_utility/child.visits);
-			System.out.println("Child visits: " + child.visits);
-			for (Node grandchild : child.children) {
-				System.out.println("Grandchild utility: " + grandchild.utility/grandchild.visits);
-				System.out.println("Grandchild opponent utility: " + grandchild.opponent_utility/grandchild.visits);
-				System.out.println("Grandchild visits: " + grandchild.visits);
+		// Log our moves with their visits and utilities
+		List<Move> rootMoves = root.legalMoves.get(roleIdx);
+		for (int i = 0; i < rootMoves.size(); i++) {
+			double visits = root.moveVisits[roleIdx][i];
+			String stats = "Child move " + rootMoves.get(i) + ": visits " + visits;
+			if (mode == SelectionMode.DECOUPLED_UCT) {
+				stats += ", utility " + root.moveUtility[roleIdx][i] / visits;
 			}
+			GamerLogger.log("GamePlayer", stats, GamerLogger.LOG_LEVEL_DATA_DUMP);
 		}
+		GamerLogger.log("GamePlayer", "Sampled joint moves at root: " + root.children.size(), GamerLogger.LOG_LEVEL_DATA_DUMP);
 
 		System.out.println("Estimated utility: " + est_utility);
 		System.out.println("Estimated opponent utility: " + opponent_est_utility);
@@ -140,168 +203,304 @@ public final class MGJFinalGamerMaximax extends SampleGamer
 	/* while still have time repeatedly update and search the tree
 	 */
 	private Move bestMove(Node root, Role role, long start, long timeout, int roleIdx) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		while (timeout - System.currentTimeMillis() >= time_lim) {
-			Node selNode = select(root);
-			double scores[] = {0, 0};
-			if (propNetMachine.isTerminal(selNode.currentState)) {
-				scores[0] = propNetMachine.getGoal(selNode.currentState, role);
-				for (int i = 0; i < roles.size(); i++) {
-					if (i == roleIdx) continue;
-					int opponent_goal = propNetMachine.getGoal(selNode.currentState, roles.get(i));
-					if (opponent_goal > scores[1]) scores[1] = opponent_goal;
-				}
+		expand(root);
+		List<Node> path = new ArrayList<Node>();
+		List<int[]> choices = new ArrayList<int[]>();
+		List<double[]> probabilities = new ArrayList<double[]>();
+		while (!getTimeManager().shouldStop()) {
+			path.clear();
+			choices.clear();
+			probabilities.clear();
+			Node selNode = select(root, path, choices, probabilities);
+			double scores[];
+			if (selNode.isTerminal) {
+				scores = goals(selNode.currentState);
 			} else {
-				expand(selNode, role);
-				scores = montecarlo(role, selNode, timeout);
+				scores = montecarlo(selNode, timeout);
+				// depth charges cut short by the deadline carry no information
+				if (getTimeManager().shouldStop()) break;
+			}
+			backpropagate(path, choices, probabilities, scores);
+			if (num_nodes >= budget) {
+				prune(root);
 			}
-			backpropagate(selNode, scores[0], scores[1]);
 		}
 
-		// Parse through moves, find one with highest amount of utility, select it
-		Node bestMove = root.children.get(0);
-		double bestUtility =  root.children.get(0).utility;
-		for (Node child : root.children) {
-			if (child.utility >= bestUtility) {
-				bestUtility = child.utility;
-				bestMove = child;
+		// Our move with the most visits; under EXP3 this follows the mixed strategy
+		List<Move> rootMoves = root.legalMoves.get(roleIdx);
+		int best = 0;
+		for (int i = 0; i < rootMoves.size(); i++) {
+			if (root.moveVisits[roleIdx][i] > root.moveVisits[roleIdx][best]) best = i;
+		}
+		if (root.visits > 0) {
+			est_utility = root.utility[roleIdx] / root.visits;
+			for (int r = 0; r < roles.size(); r++) {
+				if (r == roleIdx) continue;
+				opponent_est_utility = Math.max(opponent_est_utility, root.utility[r] / root.visits);
 			}
 		}
-		est_utility = bestMove.utility/bestMove.visits;
-		opponent_est_utility = bestMove.opponent_utility/bestMove.visits;
-		return bestMove.move;
+		return rootMoves.get(best);
 	}
 
-	private Node select(Node node) throws MoveDefinitionException {
-		if (propNetMachine.isTerminal(node.currentState)) {
-			return node;
-		}
-		if (node.visits == 0) {
-			return node;
-		}
-		if (node.isPlayerMove && roles.size() > 1) {
-			double max_opponent_score = 0.0;
-			Node result = node.children.get(0);
-			for (Node child : node.children) {
-				if (child.visits == 0) return child;
-				int child_score = selectfn(child.opponent_utility, child.visits, child.parent.visits);
-				if (child_score > max_opponent_score) {
-					max_opponent_score = child_score;
-					result = child;
+	/*
+	 * Walks down the tree letting every role choose its own move, and stops
+	 * at the first node that is terminal, has not been simulated from yet,
+	 * or was just created for a newly sampled joint move
+	 */
+	private Node select(Node root, List<Node> path, List<int[]> choices, List<double[]> probabilities) throws MoveDefinitionException, TransitionDefinitionException {
+		Node node = root;
+		path.add(node);
+		while (!node.isTerminal && node.visits > 0) {
+			expand(node);
+			int[] choice = new int[roles.size()];
+			double[] probability = new double[roles.size()];
+			long key = 0;
+			for (int r = 0; r < roles.size(); r++) {
+				int numMoves = node.legalMoves.get(r).size();
+				if (mode == SelectionMode.EXP3) {
+					choice[r] = selectExp3(node, r, probability);
+				} else {
+					choice[r] = selectUct(node, r);
 				}
+				key = key * numMoves + choice[r];
 			}
-			return select(result);
-		} else {
-			int score = 0;
-			Node result = node.children.get(0);
-			for (Node child : node.children) {
-				if (child.visits == 0) {
-					return child;
-				}
-				int child_score = selectfn(child.utility, child.visits, child.parent.visits);
-				if (child_score > score) {
-					score = child_score;
-					result = child;
+			choices.add(choice);
+			probabilities.add(probability);
+
+			Node child = node.children.get(key);
+			if (child == null) {
+				List<Move> jointMove = new ArrayList<Move>(roles.size());
+				for (int r = 0; r < roles.size(); r++) {
+					jointMove.add(node.legalMoves.get(r).get(choice[r]));
 				}
+				MachineState newState = machine.findNext(jointMove, node.currentState);
+				child = new Node(node, newState, machine.isTerminal(newState));
+				child.key = key;
+				node.children.put(key, child);
+				append(child);
+				num_nodes++;
+				getSearchMetrics().addNodesExpanded(1);
+				path.add(child);
+				getSearchMetrics().observeDepth(path.size() - 1);
+				return child;
 			}
-			return select(result);
+			path.add(child);
+			node = child;
 		}
+		getSearchMetrics().observeDepth(path.size() - 1);
+		return node;
 	}
 
-	private int selectfn(double utility, double visits, double parent_visits) {
-		return (int) (utility / visits + Math.sqrt(2 * Math.log(parent_visits) / visits));
+	/*
+	 * Decoupled UCT: the role picks the move with the best UCT value over
+	 * its own statistics, trying every move once first
+	 */
+	private int selectUct(Node node, int r) {
+		double[] visits = node.moveVisits[r];
+		double[] utility = node.moveUtility[r];
+		int result = 0;
+		double score = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < visits.length; i++) {
+			if (visits[i] == 0) return i;
+			double move_score = selectfn(utility[i], visits[i], node.visits);
+			if (move_score > score) {
+				score = move_score;
+				result = i;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Goals run from 0 to 100, so the mean is scaled to [0, 1] to keep the
+	 * exploration term from being swamped
+	 */
+	private double selectfn(double utility, double visits, double parent_visits) {
+		return utility / visits / 100 + Math.sqrt(2 * Math.log(parent_visits) / visits);
 	}
 
-	private void expand(Node node, Role role) throws MoveDefinitionException, TransitionDefinitionException {
-		if (node.isPlayerMove && roles.size() > 1) {
-			List<List<Move>> allJointActions = propNetMachine.getLegalJointMoves(node.currentState, role, node.move);
-			for (List<Move> jointActions : allJointActions) {
-				MachineState newState = propNetMachine.findNext(jointActions, node.currentState);
-				Node new_opponent_node = new Node(node, null, newState, false, false);
-				node.children.add(new_opponent_node);
+	/*
+	 * EXP3: the role samples a move from a softmax over its cumulative
+	 * importance-weighted rewards, mixed with a uniform choice. The sampling
+	 * probability is recorded, since the update divides the reward by it
+	 */
+	private int selectExp3(Node node, int r, double[] probability) {
+		double[] rewards = node.moveUtility[r];
+		int k = rewards.length;
+		if (k == 1) {
+			probability[r] = 1;
+			return 0;
+		}
+		double eta = exp3_gamma / k;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < k; i++) max = Math.max(max, rewards[i]);
+		double[] weights = new double[k];
+		double total = 0;
+		for (int i = 0; i < k; i++) {
+			weights[i] = Math.exp(eta * (rewards[i] - max));
+			total += weights[i];
+		}
+		double pick = random.nextDouble();
+		int result = k - 1;
+		for (int i = 0; i < k; i++) {
+			double p = (1 - exp3_gamma) * weights[i] / total + exp3_gamma / k;
+			pick -= p;
+			if (pick <= 0) {
+				result = i;
+				probability[r] = p;
+				return result;
 			}
-		} else {
-			List<Move> actions = propNetMachine.getLegalMoves(node.currentState, role);
-			for (Move action : actions) {
-				Node player_node = new Node(node, action, node.currentState, false, true);
-				if (propNetMachine.findRoles().size() == 1) {
-					List<Move> moves = new ArrayList<Move>();
-					moves.add(action);
-					player_node.currentState = propNetMachine.findNext(moves, node.currentState);
+		}
+		probability[r] = (1 - exp3_gamma) * weights[result] / total + exp3_gamma / k;
+		return result;
+	}
+
+	private void expand(Node node) throws MoveDefinitionException {
+		if (node.legalMoves != null) return;
+		node.legalMoves = new ArrayList<List<Move>>(roles.size());
+		node.moveUtility = new double[roles.size()][];
+		node.moveVisits = new double[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			List<Move> legals = machine.getLegalMoves(node.currentState, roles.get(r));
+			node.legalMoves.add(legals);
+			node.moveUtility[r] = new double[legals.size()];
+			node.moveVisits[r] = new double[legals.size()];
+		}
+	}
+
+	/*
+	 * Backpropogates the scores of every role along the sampled path. Each
+	 * role's move statistics are updated with that role's own score
+	 */
+	private void backpropagate(List<Node> path, List<int[]> choices, List<double[]> probabilities, double[] scores) {
+		// the path goes to the new end of the list leaf first, so that a parent outlives its children
+		for (int i = path.size() - 1; i >= 0; i--) {
+			unlink(path.get(i));
+			append(path.get(i));
+		}
+		for (int i = 0; i < path.size(); i++) {
+			Node curr_node = path.get(i);
+			curr_node.visits += 1;
+			for (int r = 0; r < roles.size(); r++) {
+				curr_node.utility[r] += scores[r];
+			}
+			if (i >= choices.size()) continue;
+			int[] choice = choices.get(i);
+			for (int r = 0; r < roles.size(); r++) {
+				curr_node.moveVisits[r][choice[r]] += 1;
+				if (mode == SelectionMode.EXP3) {
+					curr_node.moveUtility[r][choice[r]] += scores[r] / 100 / probabilities.get(i)[r];
+				} else {
+					curr_node.moveUtility[r][choice[r]] += scores[r];
 				}
-				node.children.add(player_node);
 			}
 		}
 	}
 
 	/*
-	 * Backpropogates a found score to parent nodes until the root is reached
+	 * Cuts off the subtrees of the least recently visited nodes until the
+	 * tree is back to prune_target of the budget. A node with at least
+	 * protect_fraction of the root's visits is moved to the new end of the
+	 * list instead, once per pruning, so that well explored lines outlast
+	 * ones that were merely sampled more recently. The root is never cut
 	 */
-	private void backpropagate(Node node, double score, double opponent_score) {
-		Node curr_node = node;
-		node.visits += 1;
-		node.utility = node.utility + score;
-		while (curr_node.parent != null) {
-			curr_node = curr_node.parent;
-			curr_node.visits += 1;
-			curr_node.utility += score;
-			curr_node.opponent_utility += opponent_score;
+	private void prune(Node root) {
+		int target = (int) (budget * prune_target);
+		double protect_visits = root.visits * protect_fraction;
+		// Once every node could have been passed over, recency alone decides
+		int deferrals = num_nodes;
+		while (num_nodes > target && num_nodes > 1) {
+			Node node = lru_oldest;
+			if (node == root || (deferrals > 0 && node.visits >= protect_visits)) {
+				unlink(node);
+				append(node);
+				deferrals--;
+				continue;
+			}
+			node.parent.children.remove(node.key);
+			num_nodes -= detach(node);
+		}
+	}
+
+	/*
+	 * Takes every node of the subtree off the list, returning how many there were
+	 */
+	private int detach(Node node) {
+		unlink(node);
+		int size = 1;
+		for (Node child : node.children.values()) {
+			size += detach(child);
+		}
+		return size;
+	}
+
+	private void append(Node node) {
+		node.lru_older = lru_newest;
+		node.lru_newer = null;
+		if (lru_newest != null) {
+			lru_newest.lru_newer = node;
+		} else {
+			lru_oldest = node;
 		}
+		lru_newest = node;
+	}
+
+	private void unlink(Node node) {
+		if (node.lru_older != null) {
+			node.lru_older.lru_newer = node.lru_newer;
+		} else {
+			lru_oldest = node.lru_newer;
+		}
+		if (node.lru_newer != null) {
+			node.lru_newer.lru_older = node.lru_older;
+		} else {
+			lru_newest = node.lru_older;
+		}
+		node.lru_older = null;
+		node.lru_newer = null;
 	}
 
 	/*
 	 * Manages depth charges for a monte carlo search
 	 */
-	private double[] montecarlo(Role role, Node curr_node, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		double averages[] = {0,0};
+	private double[] montecarlo(Node curr_node, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		double averages[] = new double[roles.size()];
 		for (int i = 0; i < count; i++) {
-			double scores[] = depthcharge(role, curr_node, timeout);
+			double scores[] = depthcharge(curr_node, timeout);
 			num_depth_charges += 1;
-			averages[0] += scores[0];
-			averages[1] += scores[1];
+			for (int r = 0; r < roles.size(); r++) {
+				averages[r] += scores[r];
+			}
+		}
+		for (int r = 0; r < roles.size(); r++) {
+			averages[r] = averages[r] / count;
 		}
-		averages[0] = averages[0] / count;
-		averages[1] = averages[1] / count;
-//		System.out.println("Average player depthcharge: " + averages[0]);
-//		System.out.println("Average opponent depthcharge: " + averages[1]);
 		return averages;
 	}
 
 	/*
 	 * Performs a depth charge by searching for a terminal state
 	 */
-	private double[] depthcharge(Role role, Node curr_node, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
-		Random random = new Random();
+	private double[] depthcharge(Node curr_node, long timeout) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
 		MachineState curr_state = curr_node.currentState;
-		if (curr_node.isPlayerMove && roles.size() > 1) {
-			List<List<Move>> moves = propNetMachine.getLegalJointMoves(curr_node.currentState, role, curr_node.move);
-			curr_state = propNetMachine.getNextState(curr_node.currentState, moves.get(random.nextInt(moves.size())));
-		}
-		while (!propNetMachine.isTerminal(curr_state)) {
-			if (timeout - System.currentTimeMillis() < absolute_lim) {
-				double scores[] = {0, 0};
-				return scores;
+		int length = 0;
+		while (!machine.isTerminal(curr_state)) {
+			if (getTimeManager().shouldStop()) {
+				return new double[roles.size()];
 			}
-			List<List<Move>> moves = propNetMachine.getLegalJointMoves(curr_state);
-			curr_state = propNetMachine.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
-		}
-		double scores[] = {0, 0};
-		if (roles.size() == 1) {
-			scores[0] = propNetMachine.getGoal(curr_state, role);
-			return scores;
+			List<List<Move>> moves = machine.getLegalJointMoves(curr_state);
+			curr_state = machine.getNextState(curr_state, moves.get(random.nextInt(moves.size())));
+			length++;
 		}
-		int max_opponent_goal = 0;
-		scores[0] = propNetMachine.getGoal(curr_state, role);
-		for (int i = 0; i < roles.size(); i++) {
-			if (i == roleIdx) {
-				continue;
-			} else {
-				int opponent_goal = propNetMachine.getGoal(curr_state, roles.get(i));
-				if (opponent_goal > max_opponent_goal) max_opponent_goal = opponent_goal;
-			}
+		getSearchMetrics().addSimulation(length);
+		return goals(curr_state);
+	}
+
+	private double[] goals(MachineState state) throws GoalDefinitionException {
+		double scores[] = new double[roles.size()];
+		for (int r = 0; r < roles.size(); r++) {
+			scores[r] = machine.getGoal(state, roles.get(r));
 		}
-		scores[1] = max_opponent_goal;
 		return scores;
 	}
-
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJMobilityEvaluator scores a state by the role's mobility: the number of
+ * moves it has there as a percentage of all the moves it could ever make.
+ * Games without input relations do not list those moves, so there the most
+ * moves the role has been seen to have stands in for them.
+ */
+public final class MGJMobilityEvaluator implements MGJEvaluator
+{
+	private final StateMachine machine;
+	// Number of feasible moves of each role, which never changes
+	private final Map<Role, Integer> feasibles = new HashMap<Role, Integer>();
+	// Roles whose feasible moves are unknown, with the most legal moves seen for them
+	private final Map<Role, Integer> most_legals = new HashMap<Role, Integer>();
+
+	public MGJMobilityEvaluator(StateMachine machine) {
+		this.machine = machine;
+	}
+
+	@Override
+	public double evaluate(MachineState state, Role role) throws MoveDefinitionException {
+		int legals = machine.getLegalMoves(state, role).size();
+		Integer feasible = feasibles.get(role);
+		if (feasible == null) {
+			if (!most_legals.containsKey(role)) {
+				try {
+					feasibles.put(role, machine.findActions(role).size());
+					return evaluate(state, role);
+				} catch (MoveDefinitionException e) {
+					most_legals.put(role, legals);
+				}
+			}
+			feasible = Math.max(legals, most_legals.get(role));
+			most_legals.put(role, feasible);
+		}
+		return (double) legals / (double) feasible * 100.0;
+	}
+}
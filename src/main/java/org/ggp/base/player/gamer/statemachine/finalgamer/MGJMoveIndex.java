@@ -0,0 +1,54 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.statemachine.Move;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJMoveIndex numbers the moves of every role as they are first seen, so
+ * that search statistics can be kept in arrays indexed by move whatever
+ * state machine produced the moves. Indices run from 0 to
+ * getNumMoveIndices() - 1 and are distinct across roles; the number grows
+ * as new moves turn up, so arrays indexed by move must grow with it.
+ */
+public final class MGJMoveIndex
+{
+	private final List<Map<Move, Integer>> indices;
+	// Role index of each move index
+	private int[] move_roles = new int[64];
+	private int num_moves = 0;
+
+	public MGJMoveIndex(int numRoles) {
+		indices = new ArrayList<Map<Move, Integer>>(numRoles);
+		for (int r = 0; r < numRoles; r++) {
+			indices.add(new HashMap<Move, Integer>());
+		}
+	}
+
+	/*
+	 * Returns the index of the role's move, numbering it if it is new
+	 */
+	public int getMoveIndex(int roleIdx, Move move) {
+		Integer index = indices.get(roleIdx).get(move);
+		if (index == null) {
+			if (num_moves == move_roles.length) move_roles = Arrays.copyOf(move_roles, 2 * num_moves);
+			move_roles[num_moves] = roleIdx;
+			index = num_moves++;
+			indices.get(roleIdx).put(move, index);
+		}
+		return index;
+	}
+
+	public int getRoleOfMoveIndex(int moveIdx) {
+		return move_roles[moveIdx];
+	}
+
+	public int getNumMoveIndices() {
+		return num_moves;
+	}
+}
@@ -0,0 +1,209 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJOpeningBook holds the moves played from the opening states of a game
+ * in archived matches, with how often each was played and the average goal
+ * its player got, read from a file written by MGJOpeningBookBuilder.
+ * Archived matches name their game by URL rather than by rules, so a book
+ * is identified by its game's initial state, which the gamer also knows.
+ * The file is memory-mapped, like MGJTablebase.
+ * File layout: magic, version, initial state fingerprint, number of roles,
+ * number of positions, a table of (state fingerprint, record offset) pairs
+ * sorted by fingerprint, then the records. A record is the number of moves
+ * followed by (role, times played, average goal, move) for each.
+ */
+public final class MGJOpeningBook
+{
+	public static final int MAGIC = 0x4D474A42;
+	public static final int VERSION = 1;
+	// Directory searched by find
+	public static final String DEFAULT_DIRECTORY = "books";
+
+	private final MappedByteBuffer buffer;
+	private final int numRoles;
+	private final int positions;
+	private final int index_start;
+
+	private MGJOpeningBook(MappedByteBuffer buffer, long fingerprint) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not an opening book file of version " + VERSION);
+		}
+		if (buffer.getLong() != fingerprint) {
+			throw new IOException("Opening book was built for a different game");
+		}
+		numRoles = buffer.getInt();
+		positions = buffer.getInt();
+		index_start = buffer.position();
+	}
+
+	/*
+	 * Maps the book file, checking that it was built for the game starting
+	 * from this state
+	 */
+	public static MGJOpeningBook open(File file, MachineState initialState) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new MGJOpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fingerprint(initialState));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * Opens the book for the game starting from this state from the default
+	 * directory, or returns null if there is none
+	 */
+	public static MGJOpeningBook find(MachineState initialState) {
+		File file = new File(DEFAULT_DIRECTORY, fileName(initialState));
+		if (!file.exists()) return null;
+		try {
+			return open(file, initialState);
+		} catch (IOException e) {
+			GamerLogger.logError("GamePlayer", "Could not open opening book " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/*
+	 * Returns the legal move for the role with the best average goal among
+	 * those played at least minCount times from the state, or null if the
+	 * book has none
+	 */
+	public Move probe(MachineState state, int roleIdx, List<Move> legals, int minCount) {
+		int offset = find(fingerprint(state));
+		if (offset < 0) return null;
+		Move best = null;
+		float best_mean = -1;
+		int best_count = 0;
+		int position = offset;
+		int numMoves = buffer.getInt(position);
+		position += 4;
+		for (int i = 0; i < numMoves; i++) {
+			int role = buffer.get(position);
+			int count = buffer.getInt(position + 1);
+			float mean = buffer.getFloat(position + 5);
+			int length = buffer.getInt(position + 9);
+			position += 13;
+			if (role == roleIdx && count >= minCount
+					&& (mean > best_mean || (mean == best_mean && count > best_count))) {
+				byte[] bytes = new byte[length];
+				for (int b = 0; b < length; b++) bytes[b] = buffer.get(position + b);
+				String move = new String(bytes, MGJTablebase.UTF8);
+				// a colliding fingerprint or a changed game can name moves that are not legal here
+				for (Move legal : legals) {
+					if (legal.toString().equals(move)) {
+						best = legal;
+						best_mean = mean;
+						best_count = count;
+						break;
+					}
+				}
+			}
+			position += length;
+		}
+		return best;
+	}
+
+	/*
+	 * Binary search of the index, returning the record offset or -1
+	 */
+	private int find(long key) {
+		int low = 0;
+		int high = positions - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long found = buffer.getLong(index_start + 12 * mid);
+			if (found < key) {
+				low = mid + 1;
+			} else if (found > key) {
+				high = mid - 1;
+			} else {
+				return buffer.getInt(index_start + 12 * mid + 8);
+			}
+		}
+		return -1;
+	}
+
+	public int getNumRoles() {
+		return numRoles;
+	}
+
+	public int size() {
+		return positions;
+	}
+
+	/*
+	 * The sentences of a state in sorted order, so that equal states give
+	 * equal strings whatever machine produced them
+	 */
+	public static String canonical(List<String> sentences) {
+		List<String> sorted = new ArrayList<String>(sentences);
+		Collections.sort(sorted);
+		StringBuilder s = new StringBuilder();
+		for (String sentence : sorted) {
+			s.append(sentence).append(' ');
+		}
+		return s.toString();
+	}
+
+	public static long fingerprint(MachineState state) {
+		List<String> sentences = new ArrayList<String>();
+		for (GdlSentence sentence : state.getContents()) {
+			sentences.add(sentence.toString());
+		}
+		return fingerprint(canonical(sentences));
+	}
+
+	/*
+	 * 64-bit FNV-1a hash of a canonical state
+	 */
+	public static long fingerprint(String canonical) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : canonical.getBytes(MGJTablebase.UTF8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	public static String fileName(MachineState initialState) {
+		return fileName(fingerprint(initialState));
+	}
+
+	static String fileName(long fingerprint) {
+		return String.format("%016x.book", fingerprint);
+	}
+
+	/*
+	 * Writes the header that the constructor reads back
+	 */
+	static void writeHeader(ByteBuffer out, long fingerprint, int numRoles, int positions) {
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putLong(fingerprint);
+		out.putInt(numRoles);
+		out.putInt(positions);
+	}
+
+	static int headerSize() {
+		return 4 + 4 + 8 + 4 + 4;
+	}
+}
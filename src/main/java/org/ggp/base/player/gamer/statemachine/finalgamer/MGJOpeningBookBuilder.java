@@ -0,0 +1,214 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.ggp.base.apps.research.MatchArchiveProcessor;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.factory.exceptions.GdlFormatException;
+import org.ggp.base.util.symbol.factory.SymbolFactory;
+import org.ggp.base.util.symbol.factory.exceptions.SymbolFormatException;
+import org.ggp.base.util.symbol.grammar.SymbolList;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJOpeningBookBuilder reads a match archive in the format read by
+ * MatchArchiveProcessor and writes an MGJOpeningBook for every game in it.
+ * For each completed match it takes the states of the first few plies and,
+ * for every role, the move the role played there and the goal it got at
+ * the end. Moves are tallied per game, state and role, so the book holds
+ * how often each move was played and how well it did on average.
+ * States and moves are rewritten through the GDL factory so that they print
+ * the same way as the states and moves of a state machine.
+ * Usage: MGJOpeningBookBuilder [archive file] [output directory] [max plies]
+ */
+public final class MGJOpeningBookBuilder
+{
+	public static final int DEFAULT_MAX_PLIES = 10;
+
+	// Tally of one game: state fingerprint -> "role move" -> {times played, total goal}
+	private static final class GameTally {
+		private final int numRoles;
+		private final Map<Long, Map<String, long[]>> positions = new TreeMap<Long, Map<String, long[]>>();
+		private int matches = 0;
+
+		private GameTally(int numRoles) {
+			this.numRoles = numRoles;
+		}
+	}
+
+	private final int maxPlies;
+	private final Map<Long, GameTally> games = new HashMap<Long, GameTally>();
+	private int matches = 0;
+	private int skipped = 0;
+
+	public MGJOpeningBookBuilder(int maxPlies) {
+		this.maxPlies = maxPlies;
+	}
+
+	/*
+	 * Adds the opening of a completed match with goal values to the tally
+	 * of its game, skipping any other match
+	 */
+	public void addMatch(JSONObject matchJSON) {
+		try {
+			if (!matchJSON.has("isCompleted") || !matchJSON.getBoolean("isCompleted") || !matchJSON.has("goalValues")) {
+				return;
+			}
+			JSONArray states = matchJSON.getJSONArray("states");
+			JSONArray moves = matchJSON.getJSONArray("moves");
+			JSONArray goalValues = matchJSON.getJSONArray("goalValues");
+			if (states.length() == 0) return;
+			int numRoles = goalValues.length();
+			long game = MGJOpeningBook.fingerprint(canonicalState(states.getString(0)));
+			GameTally tally = games.get(game);
+			if (tally == null) {
+				tally = new GameTally(numRoles);
+				games.put(game, tally);
+			} else if (tally.numRoles != numRoles) {
+				skipped++;
+				return;
+			}
+			int plies = Math.min(maxPlies, Math.min(moves.length(), states.length()));
+			for (int ply = 0; ply < plies; ply++) {
+				JSONArray jointMove = moves.getJSONArray(ply);
+				if (jointMove.length() != numRoles) break;
+				long position = MGJOpeningBook.fingerprint(canonicalState(states.getString(ply)));
+				Map<String, long[]> tallies = tally.positions.get(position);
+				if (tallies == null) {
+					tallies = new HashMap<String, long[]>();
+					tally.positions.put(position, tallies);
+				}
+				for (int r = 0; r < numRoles; r++) {
+					String key = r + " " + GdlFactory.createTerm(jointMove.getString(r)).toString();
+					long[] counts = tallies.get(key);
+					if (counts == null) {
+						counts = new long[2];
+						tallies.put(key, counts);
+					}
+					counts[0]++;
+					counts[1] += goalValues.getInt(r);
+				}
+			}
+			tally.matches++;
+			matches++;
+		} catch (JSONException | SymbolFormatException | GdlFormatException e) {
+			skipped++;
+		}
+	}
+
+	/*
+	 * Rewrites an archived state, a list of sentences without their true,
+	 * the way MGJOpeningBook.fingerprint sees a machine state
+	 */
+	private static String canonicalState(String archived) throws SymbolFormatException, GdlFormatException {
+		SymbolList elements = (SymbolList) SymbolFactory.create(archived);
+		List<String> sentences = new ArrayList<String>(elements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			sentences.add(GdlFactory.create("( true " + elements.get(i).toString() + " )").toString());
+		}
+		return MGJOpeningBook.canonical(sentences);
+	}
+
+	/*
+	 * Writes one book per game into the directory. Returns the number of books
+	 */
+	public int export(File directory) throws IOException {
+		directory.mkdirs();
+		for (Entry<Long, GameTally> game : games.entrySet()) {
+			GameTally tally = game.getValue();
+			List<byte[]> records = new ArrayList<byte[]>(tally.positions.size());
+			int size = MGJOpeningBook.headerSize() + 12 * tally.positions.size();
+			for (Map<String, long[]> tallies : tally.positions.values()) {
+				byte[] record = record(tallies);
+				records.add(record);
+				size += record.length;
+			}
+			ByteBuffer out = ByteBuffer.allocate(size);
+			MGJOpeningBook.writeHeader(out, game.getKey(), tally.numRoles, tally.positions.size());
+			int offset = out.position() + 12 * tally.positions.size();
+			int i = 0;
+			for (Long position : tally.positions.keySet()) {
+				out.putLong(position);
+				out.putInt(offset);
+				offset += records.get(i++).length;
+			}
+			for (byte[] record : records) {
+				out.put(record);
+			}
+			File file = new File(directory, MGJOpeningBook.fileName(game.getKey()));
+			FileOutputStream stream = new FileOutputStream(file);
+			try {
+				stream.write(out.array());
+			} finally {
+				stream.close();
+			}
+			System.out.println("Wrote " + file + ": " + tally.matches + " matches, " + tally.positions.size() + " positions");
+		}
+		return games.size();
+	}
+
+	private static byte[] record(Map<String, long[]> tallies) {
+		List<byte[]> moves = new ArrayList<byte[]>(tallies.size());
+		int size = 4;
+		for (String key : tallies.keySet()) {
+			byte[] move = key.substring(key.indexOf(' ') + 1).getBytes(MGJTablebase.UTF8);
+			moves.add(move);
+			size += 13 + move.length;
+		}
+		ByteBuffer out = ByteBuffer.allocate(size);
+		out.putInt(tallies.size());
+		int i = 0;
+		for (Entry<String, long[]> entry : tallies.entrySet()) {
+			byte[] move = moves.get(i++);
+			long[] counts = entry.getValue();
+			out.put((byte) Integer.parseInt(entry.getKey().substring(0, entry.getKey().indexOf(' '))));
+			out.putInt((int) Math.min(Integer.MAX_VALUE, counts[0]));
+			out.putFloat((float) counts[1] / counts[0]);
+			out.putInt(move.length);
+			out.put(move);
+		}
+		return out.array();
+	}
+
+	public static void main(String[] args) throws IOException, JSONException {
+		File archive = args.length > 0 ? new File(args[0]) : MatchArchiveProcessor.ARCHIVE_FILE;
+		File directory = new File(args.length > 1 ? args[1] : MGJOpeningBook.DEFAULT_DIRECTORY);
+		int maxPlies = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_PLIES;
+
+		long start = System.currentTimeMillis();
+		MGJOpeningBookBuilder builder = new MGJOpeningBookBuilder(maxPlies);
+		String line;
+		int nCount = 0;
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(archive), MGJTablebase.UTF8));
+		try {
+			while ((line = br.readLine()) != null) {
+				builder.addMatch(new JSONObject(line).getJSONObject("data"));
+				nCount++;
+				if (nCount % 1000 == 0) {
+					System.out.println("Processed " + nCount + " matches.");
+				}
+			}
+		} finally {
+			br.close();
+		}
+		int books = builder.export(directory);
+		System.out.println("Wrote " + books + " books from " + builder.matches + " matches (" + builder.skipped
+				+ " skipped) in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
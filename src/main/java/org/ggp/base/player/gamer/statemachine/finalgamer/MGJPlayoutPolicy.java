@@ -0,0 +1,339 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJPlayoutPolicy chooses the moves made during depth charges. Instead of
+ * picking uniformly at random it can favour moves that did well in earlier
+ * depth charges, using Move-Average Sampling (MAST): the average goal each
+ * move led to for the role that made it, over every depth charge so far.
+ * With an n-gram length above 1 it also keeps averages for short sequences
+ * of consecutive moves (N-gram selection), so a move can be judged in the
+ * context of the moves just before it.
+ * Moves are chosen from those averages either epsilon-greedily or by Gibbs
+ * sampling. All statistics are kept in primitive arrays and maps keyed by
+ * the move index from MGJMoveIndex, which grow as new moves are numbered,
+ * and decay() shrinks them between turns so that newer depth charges count
+ * more.
+ */
+public final class MGJPlayoutPolicy
+{
+	public enum Selection { UNIFORM, EPSILON_GREEDY, GIBBS }
+
+	// Value given to moves with no statistics yet, so that they get tried
+	private static final double UNSEEN_VALUE = 100;
+
+	private final MGJMoveIndex moveIndex;
+	private final StateMachine stateMachine;
+	private final List<Role> roles;
+	private final Selection selection;
+	private final int ngram_length;
+	private final Random random = new Random();
+
+	private double epsilon = 0.4;
+	private double temperature = 10;
+	// Visits an n-gram longer than one move needs before its average is used
+	private int min_ngram_visits = 7;
+
+	// MAST statistics, indexed by move index
+	private double[] move_utility = new double[64];
+	private double[] move_visits = new double[64];
+	// Statistics of move sequences of length 2 to ngram_length
+	private final NGramTable ngrams = new NGramTable();
+
+	// Move indices of the moves chosen by a role with a choice, one per step
+	// of the current depth charge
+	private int[] history = new int[64];
+	private int history_length = 0;
+
+	// Scratch space reused for every choice
+	private double[] values = new double[16];
+	private int[] indices = new int[16];
+
+	/*
+	 * Chooses moves among the legal moves given by stateMachine, numbering
+	 * them with moveIndex
+	 */
+	public MGJPlayoutPolicy(MGJMoveIndex moveIndex, StateMachine stateMachine, Selection selection, int ngram_length) {
+		if (ngram_length < 1) {
+			throw new IllegalArgumentException("N-gram length must be at least 1, got " + ngram_length);
+		}
+		this.moveIndex = moveIndex;
+		this.stateMachine = stateMachine;
+		this.roles = stateMachine.getRoles();
+		this.selection = selection;
+		this.ngram_length = ngram_length;
+	}
+
+	public void setEpsilon(double epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public void setTemperature(double temperature) {
+		this.temperature = temperature;
+	}
+
+	public void setMinNGramVisits(int min_ngram_visits) {
+		this.min_ngram_visits = min_ngram_visits;
+	}
+
+	/*
+	 * Starts a new depth charge, forgetting the move history of the last one
+	 */
+	public void startPlayout() {
+		history_length = 0;
+	}
+
+	/*
+	 * Chooses a joint move in the given state, appending the move index of
+	 * every role's move to playout. The move of the first role with more
+	 * than one legal move is also remembered as the context for n-grams
+	 */
+	public List<Move> selectJointMove(MachineState state, List<Integer> playout) throws MoveDefinitionException {
+		List<Move> jointMove = new ArrayList<Move>(roles.size());
+		boolean moverFound = false;
+		for (int r = 0; r < roles.size(); r++) {
+			List<Move> legals = stateMachine.getLegalMoves(state, roles.get(r));
+			int choice = legals.size() == 1 ? 0 : choose(r, legals);
+			Move move = legals.get(choice);
+			int moveIdx = indexOf(r, move);
+			jointMove.add(move);
+			playout.add(moveIdx);
+			if (!moverFound && legals.size() > 1) {
+				moverFound = true;
+				if (history_length == history.length) history = Arrays.copyOf(history, 2 * history.length);
+				history[history_length++] = moveIdx;
+			}
+		}
+		return jointMove;
+	}
+
+	/*
+	 * Credits every move of a finished depth charge with the goal of the role
+	 * that made it, along with every n-gram ending in a move of the history
+	 */
+	public void update(List<Integer> playout, int[] goals) {
+		for (int moveIdx : playout) {
+			move_visits[moveIdx] += 1;
+			move_utility[moveIdx] += goals[moveIndex.getRoleOfMoveIndex(moveIdx)];
+		}
+		for (int end = 0; end < history_length; end++) {
+			double goal = goals[moveIndex.getRoleOfMoveIndex(history[end])];
+			for (int length = 2; length <= ngram_length && end - length + 1 >= 0; length++) {
+				ngrams.add(ngramKey(end, length), goal);
+			}
+		}
+	}
+
+	/*
+	 * Multiplies every statistic by factor, so that statistics from earlier
+	 * turns count for less than those gathered from the new position
+	 */
+	public void decay(double factor) {
+		for (int i = 0; i < move_visits.length; i++) {
+			move_visits[i] *= factor;
+			move_utility[i] *= factor;
+		}
+		ngrams.scale(factor);
+	}
+
+	/*
+	 * Returns the MAST average of a move, or -1 if it has never been played
+	 */
+	public double getMoveAverage(int moveIdx) {
+		return moveIdx >= move_visits.length || move_visits[moveIdx] < 1e-9 ? -1 : move_utility[moveIdx] / move_visits[moveIdx];
+	}
+
+	/*
+	 * Numbers the move, making room for the statistics of moves seen for
+	 * the first time
+	 */
+	private int indexOf(int roleIdx, Move move) {
+		int moveIdx = moveIndex.getMoveIndex(roleIdx, move);
+		if (moveIdx >= move_visits.length) {
+			int length = Math.max(2 * move_visits.length, moveIdx + 1);
+			move_visits = Arrays.copyOf(move_visits, length);
+			move_utility = Arrays.copyOf(move_utility, length);
+		}
+		return moveIdx;
+	}
+
+	private int choose(int roleIdx, List<Move> legals) {
+		int n = legals.size();
+		if (selection == Selection.UNIFORM) return random.nextInt(n);
+		if (selection == Selection.EPSILON_GREEDY && random.nextDouble() < epsilon) return random.nextInt(n);
+		if (values.length < n) {
+			values = new double[2 * n];
+			indices = new int[2 * n];
+		}
+		for (int i = 0; i < n; i++) {
+			values[i] = value(indexOf(roleIdx, legals.get(i)));
+		}
+		if (selection == Selection.EPSILON_GREEDY) {
+			// break ties at random
+			int ties = 0;
+			double best = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < n; i++) {
+				if (values[i] > best) {
+					best = values[i];
+					ties = 0;
+				}
+				if (values[i] == best) indices[ties++] = i;
+			}
+			return indices[random.nextInt(ties)];
+		}
+		// Gibbs sampling, shifted by the best value to keep exp() in range
+		double best = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) best = Math.max(best, values[i]);
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			values[i] = Math.exp((values[i] - best) / temperature);
+			total += values[i];
+		}
+		double pick = random.nextDouble() * total;
+		for (int i = 0; i < n; i++) {
+			pick -= values[i];
+			if (pick <= 0) return i;
+		}
+		return n - 1;
+	}
+
+	/*
+	 * Averages the MAST value of a move with the averages of the n-grams
+	 * that end in it and have been seen often enough
+	 */
+	private double value(int moveIdx) {
+		if (move_visits[moveIdx] < 1e-9) return UNSEEN_VALUE;
+		double total = move_utility[moveIdx] / move_visits[moveIdx];
+		int known = 1;
+		if (ngram_length > 1) {
+			// treat the candidate as the next entry of the history
+			if (history_length == history.length) history = Arrays.copyOf(history, 2 * history.length);
+			history[history_length] = moveIdx;
+			for (int length = 2; length <= ngram_length && history_length - length + 1 >= 0; length++) {
+				int slot = ngrams.find(ngramKey(history_length, length));
+				if (slot < 0 || ngrams.visits[slot] < min_ngram_visits) break;
+				total += ngrams.utility[slot] / ngrams.visits[slot];
+				known++;
+			}
+		}
+		return total / known;
+	}
+
+	/*
+	 * Packs the move indices of the n-gram of the given length ending at
+	 * position end of the history into one key
+	 */
+	private long ngramKey(int end, int length) {
+		long key = length;
+		for (int i = end - length + 1; i <= end; i++) {
+			key = key * 1000003L + history[i];
+		}
+		return key;
+	}
+
+	/*
+	 * Open-addressing hash map from n-gram keys to their statistics
+	 */
+	private static final class NGramTable
+	{
+		private static final int INITIAL_CAPACITY = 1024;
+		// Entries decayed below this many visits carry too little to keep
+		private static final double MIN_KEPT_VISITS = 1;
+
+		private long[] keys = new long[INITIAL_CAPACITY];
+		private boolean[] used = new boolean[INITIAL_CAPACITY];
+		double[] utility = new double[INITIAL_CAPACITY];
+		double[] visits = new double[INITIAL_CAPACITY];
+		private int size = 0;
+
+		int find(long key) {
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (used[slot]) {
+				if (keys[slot] == key) return slot;
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+
+		void add(long key, double goal) {
+			if (2 * (size + 1) > keys.length) grow();
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+			if (!used[slot]) {
+				used[slot] = true;
+				keys[slot] = key;
+				size++;
+			}
+			visits[slot] += 1;
+			utility[slot] += goal;
+		}
+
+		/*
+		 * Scales every entry by factor and drops those left with fewer than
+		 * MIN_KEPT_VISITS visits, shrinking the table to fit what remains, so
+		 * that n-grams from positions no longer reached do not pile up
+		 */
+		void scale(double factor) {
+			int kept = 0;
+			for (int i = 0; i < keys.length; i++) {
+				visits[i] *= factor;
+				utility[i] *= factor;
+				if (used[i] && visits[i] >= MIN_KEPT_VISITS) kept++;
+			}
+			int capacity = INITIAL_CAPACITY;
+			while (2 * kept > capacity) capacity *= 2;
+			rehash(capacity);
+		}
+
+		private void grow() {
+			rehash(2 * keys.length);
+		}
+
+		/*
+		 * Moves the entries with at least MIN_KEPT_VISITS visits into a
+		 * table with the given capacity, which must be a power of two
+		 */
+		private void rehash(int capacity) {
+			long[] old_keys = keys;
+			boolean[] old_used = used;
+			double[] old_utility = utility;
+			double[] old_visits = visits;
+			keys = new long[capacity];
+			used = new boolean[capacity];
+			utility = new double[capacity];
+			visits = new double[capacity];
+			size = 0;
+			int mask = capacity - 1;
+			for (int i = 0; i < old_keys.length; i++) {
+				if (!old_used[i] || old_visits[i] < MIN_KEPT_VISITS) continue;
+				int slot = hash(old_keys[i]) & mask;
+				while (used[slot]) slot = (slot + 1) & mask;
+				used[slot] = true;
+				keys[slot] = old_keys[i];
+				utility[slot] = old_utility[i];
+				visits[slot] = old_visits[i];
+				size++;
+			}
+		}
+
+		private static int hash(long key) {
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			return (int) key;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package org.ggp.base.player.gamer.statemachine.finalgamer;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -208,7 +209,65 @@ public class MGJPropNetStateMachine extends StateMachine {
     @Override
     public int getGoal(MachineState state, Role role)
             throws GoalDefinitionException {
-        return getGoalValue(propreward(role, state));
+        Proposition reward = propreward(role, state);
+        if (reward == null) {
+            throw new GoalDefinitionException(state, role);
+        }
+        return getGoalValue(reward);
+    }
+
+    /**
+     * Measures how close the state is to satisfying the role's best goal,
+     * from 0 to 1, by evaluating the goal's cone of the propnet with fuzzy
+     * logic: base propositions are 1 when true in the state and 0 otherwise,
+     * an AND is the fraction of its inputs satisfied, an OR its best input
+     * and a NOT one minus its input. Moves, which are not part of the state,
+     * count as one half.
+     */
+    public double getGoalSatisfaction(MachineState state, Role role) {
+        Proposition best = null;
+        for (Proposition goal : propNet.getGoalPropositions().get(role)) {
+            if (best == null || getGoalValue(goal) > getGoalValue(best)) {
+                best = goal;
+            }
+        }
+        if (best == null) return 0;
+        return satisfaction(best, state.getContents(), new HashMap<Component, Double>());
+    }
+
+    private double satisfaction(Component c, Set<GdlSentence> contents, Map<Component, Double> memo) {
+        Double known = memo.get(c);
+        if (known != null) return known;
+        // cuts off any cycle through the component
+        memo.put(c, 0.0);
+        double value;
+        if (c instanceof Proposition && propNet.getBasePropositions().get(((Proposition) c).getName()) == c) {
+            value = contents.contains(((Proposition) c).getName()) ? 1 : 0;
+        } else if (c instanceof Proposition && propNet.getInputPropositions().get(((Proposition) c).getName()) == c) {
+            value = 0.5;
+        } else if (c instanceof Constant) {
+            value = c.getValue() ? 1 : 0;
+        } else if (c instanceof Not) {
+            value = 1 - satisfaction(c.getSingleInput(), contents, memo);
+        } else if (c instanceof And) {
+            value = 0;
+            for (Component input : c.getInputs()) {
+                value += satisfaction(input, contents, memo);
+            }
+            value = c.getInputs().isEmpty() ? 1 : value / c.getInputs().size();
+        } else if (c instanceof Or) {
+            value = 0;
+            for (Component input : c.getInputs()) {
+                value = Math.max(value, satisfaction(input, contents, memo));
+            }
+        } else if (c instanceof Proposition && c.getInputs().size() == 1) {
+            value = satisfaction(c.getSingleInput(), contents, memo);
+        } else {
+            // the init proposition and anything else outside the state
+            value = 0;
+        }
+        memo.put(c, value);
+        return value;
     }
 
     /**
@@ -218,8 +277,20 @@ public class MGJPropNetStateMachine extends StateMachine {
      */
     @Override
     public MachineState getInitialState() {
-        // TODO: Compute the initial state.
-        return null;
+		clearPropNet();
+		for (Proposition input : propNet.getInputPropositions().values()) {
+			input.setValue(false);
+		}
+		Proposition init = propNet.getInitProposition();
+		init.setValue(true);
+		Set<GdlSentence> inits = new HashSet<GdlSentence>();
+		for (Entry<GdlSentence, Proposition> base_pair : propNet.getBasePropositions().entrySet()) {
+			if (propmarkp(base_pair.getValue().getSingleInput().getSingleInput())) {
+				inits.add(base_pair.getKey());
+			}
+		}
+		init.setValue(false);
+		return new MachineState(inits);
     }
 
     /**
@@ -286,6 +357,14 @@ public class MGJPropNetStateMachine extends StateMachine {
         return order;
     }
 
+    /**
+     * Returns the sentences of all base propositions. Every state's contents
+     * are a subset of these.
+     */
+    public List<GdlSentence> getBaseSentences() {
+        return new ArrayList<GdlSentence>(propNet.getBasePropositions().keySet());
+    }
+
     /* Already implemented for you */
     @Override
     public List<Role> getRoles() {
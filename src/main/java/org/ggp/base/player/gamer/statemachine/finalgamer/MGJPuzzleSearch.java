@@ -0,0 +1,317 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ggp.base.player.gamer.statemachine.TimeManager;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJPuzzleSearch searches single-player games, where only the best line
+ * matters and not the average outcome of a move, since nobody can stop us
+ * from playing it.
+ * Nested Monte Carlo search (NESTED) plays a game in which every move is
+ * chosen by trying each legal move with a search one level lower (random
+ * playouts at level 1) and following the best line found so far.
+ * Nested rollout policy adaptation (NRPA) plays playouts from a softmax
+ * policy over moves at each ply and, at each level, adapts the policy towards the best
+ * line of the level below.
+ * Every complete line either algorithm plays is offered to a memory of the
+ * best line from the current state. Once that line reaches the maximum
+ * goal there is nothing left to search, and nextMove just replays it, one
+ * move per turn, for the rest of the game.
+ * Besides true puzzles, games whose only other role is the chance role
+ * "random" are searched too, with chance moves sampled uniformly. A line
+ * is only replayed while chance had no choice; after a chance move the
+ * memory is cleared and the new state is searched.
+ */
+public final class MGJPuzzleSearch
+{
+	public enum Algorithm { NESTED, NRPA }
+
+	public static final int MAX_SCORE = 100;
+	// Name of the role that plays chance moves by GGP convention
+	public static final String CHANCE_ROLE = "random";
+
+	private final StateMachine machine;
+	private final Role role;
+	private final List<Role> roles;
+	private final TimeManager timeManager;
+	private final Algorithm algorithm;
+	private final int level;
+	private final Random random = new Random();
+	// Iterations per NRPA level, and how far each adaptation moves the policy
+	private int nrpa_iterations = 100;
+	private double nrpa_alpha = 1.0;
+
+	// Best complete line known from memory_state, and the goal it reaches
+	private MachineState memory_state;
+	private List<Move> best_line = new ArrayList<Move>();
+	private int best_score = -1;
+	private long playouts = 0;
+
+	// A complete line of play and the goal at its end
+	private static final class Line {
+		private final int score;
+		private final List<Move> moves;
+
+		private Line(int score, List<Move> moves) {
+			this.score = score;
+			this.moves = moves;
+		}
+	}
+
+	public MGJPuzzleSearch(StateMachine machine, Role role, TimeManager timeManager, Algorithm algorithm, int level) {
+		if (!isPuzzle(machine, role)) {
+			throw new IllegalArgumentException("Puzzle search needs a game with one role besides chance");
+		}
+		this.machine = machine;
+		this.role = role;
+		this.roles = machine.getRoles();
+		this.timeManager = timeManager;
+		this.algorithm = algorithm;
+		this.level = level;
+	}
+
+	/*
+	 * Whether every role other than ours is the chance role
+	 */
+	public static boolean isPuzzle(StateMachine machine, Role role) {
+		for (Role other : machine.getRoles()) {
+			if (!other.equals(role) && !other.getName().getValue().equals(CHANCE_ROLE)) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Searches until the time manager says to stop or a line reaching the
+	 * maximum goal is known, then plays the first move of the best line
+	 */
+	public Move nextMove(MachineState state) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		search(state);
+		Move move;
+		if (best_line.isEmpty()) {
+			// no line was completed in time
+			move = machine.getRandomMove(state, role);
+		} else {
+			move = best_line.remove(0);
+		}
+		// the rest of the line still holds unless chance has a choice now
+		memory_state = isForced(state) ? next(state, move) : null;
+		return move;
+	}
+
+	/*
+	 * Improves the best line from the state until the time manager says to
+	 * stop. Lines found for an earlier state carry over if the game followed
+	 * them to this state
+	 */
+	public void search(MachineState state) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		if (!state.equals(memory_state)) {
+			memory_state = state;
+			best_line = new ArrayList<Move>();
+			best_score = -1;
+		}
+		while (best_score < MAX_SCORE && !timeManager.shouldStop()) {
+			Line line;
+			if (algorithm == Algorithm.NESTED) {
+				line = nested(state, level, new ArrayList<Move>());
+			} else {
+				line = nrpa(state, level, new HashMap<String, Double>());
+			}
+			if (line == null) break;
+		}
+	}
+
+	/*
+	 * Nested Monte Carlo search from a state reached by prefix. Returns the
+	 * best line from the state, or null if time ran out
+	 */
+	private Line nested(MachineState state, int lvl, List<Move> prefix) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		List<Move> played = new ArrayList<Move>();
+		Line best = null;
+		while (!machine.isTerminal(state)) {
+			for (Move move : machine.getLegalMoves(state, role)) {
+				List<Move> line_prefix = new ArrayList<Move>(prefix);
+				line_prefix.addAll(played);
+				line_prefix.add(move);
+				MachineState next = next(state, move);
+				Line line = lvl <= 1 ? playout(next, null, line_prefix) : nested(next, lvl - 1, line_prefix);
+				if (line == null) return null;
+				if (best == null || line.score > best.score) {
+					List<Move> moves = new ArrayList<Move>(played);
+					moves.add(move);
+					moves.addAll(line.moves);
+					best = new Line(line.score, moves);
+				}
+			}
+			// follow the best line found so far, which may end early after a chance move
+			if (played.size() >= best.moves.size()) break;
+			Move move = best.moves.get(played.size());
+			played.add(move);
+			state = next(state, move);
+		}
+		if (best == null) {
+			best = new Line(machine.getGoal(state, role), played);
+		}
+		return best;
+	}
+
+	/*
+	 * One level of NRPA from the state. Returns the best line from the
+	 * state, or null if time ran out
+	 */
+	private Line nrpa(MachineState state, int lvl, Map<String, Double> policy) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		if (lvl == 0) {
+			return playout(state, policy, Collections.<Move>emptyList());
+		}
+		Line best = null;
+		for (int i = 0; i < nrpa_iterations; i++) {
+			Line line = nrpa(state, lvl - 1, new HashMap<String, Double>(policy));
+			if (line == null) return null;
+			if (best == null || line.score >= best.score) {
+				best = line;
+			}
+			if (best.score >= MAX_SCORE) break;
+			policy = adapt(state, policy, best);
+		}
+		return best;
+	}
+
+	/*
+	 * Moves the policy towards the moves of the line: each move played gains
+	 * alpha and every legal alternative loses its share of it. Chance is
+	 * sampled afresh while the line is replayed, so adaptation stops where
+	 * the replay ends the game early or reaches a state where the line's
+	 * next move is not legal
+	 */
+	private Map<String, Double> adapt(MachineState state, Map<String, Double> policy, Line line) throws TransitionDefinitionException, MoveDefinitionException {
+		Map<String, Double> adapted = new HashMap<String, Double>(policy);
+		for (int ply = 0; ply < line.moves.size(); ply++) {
+			if (machine.isTerminal(state)) break;
+			Move played = line.moves.get(ply);
+			List<Move> legals = machine.getLegalMoves(state, role);
+			if (!legals.contains(played)) break;
+			double z = 0;
+			for (Move move : legals) {
+				z += Math.exp(weight(policy, ply, move));
+			}
+			adapted.put(code(ply, played), weight(adapted, ply, played) + nrpa_alpha);
+			for (Move move : legals) {
+				adapted.put(code(ply, move), weight(adapted, ply, move) - nrpa_alpha * Math.exp(weight(policy, ply, move)) / z);
+			}
+			state = next(state, played);
+		}
+		return adapted;
+	}
+
+	/*
+	 * Plays our move with a uniformly random move for chance
+	 */
+	private MachineState next(MachineState state, Move move) throws TransitionDefinitionException, MoveDefinitionException {
+		if (roles.size() == 1) {
+			return machine.getNextState(state, Collections.singletonList(move));
+		}
+		List<Move> jointMove = new ArrayList<Move>(roles.size());
+		for (Role r : roles) {
+			jointMove.add(r.equals(role) ? move : machine.getRandomMove(state, r));
+		}
+		return machine.getNextState(state, jointMove);
+	}
+
+	/*
+	 * Whether chance has at most one move in the state
+	 */
+	private boolean isForced(MachineState state) throws MoveDefinitionException {
+		for (Role r : roles) {
+			if (!r.equals(role) && machine.getLegalMoves(state, r).size() > 1) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Policy code of a move, which tells the same move apart at different
+	 * plies since puzzle moves often take no arguments
+	 */
+	private static String code(int ply, Move move) {
+		return ply + " " + move;
+	}
+
+	private static double weight(Map<String, Double> policy, int ply, Move move) {
+		Double weight = policy.get(code(ply, move));
+		return weight == null ? 0 : weight;
+	}
+
+	/*
+	 * Plays to the end of the game, uniformly at random or from the softmax
+	 * of the policy if there is one, and offers the line to the memory.
+	 * Returns null if time ran out first
+	 */
+	private Line playout(MachineState state, Map<String, Double> policy, List<Move> prefix) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		List<Move> moves = new ArrayList<Move>();
+		while (!machine.isTerminal(state)) {
+			if (timeManager.shouldStop()) return null;
+			List<Move> legals = machine.getLegalMoves(state, role);
+			Move move;
+			if (policy == null) {
+				move = legals.get(random.nextInt(legals.size()));
+			} else {
+				double[] weights = new double[legals.size()];
+				double z = 0;
+				for (int i = 0; i < weights.length; i++) {
+					weights[i] = Math.exp(weight(policy, moves.size(), legals.get(i)));
+					z += weights[i];
+				}
+				double r = random.nextDouble() * z;
+				int i = 0;
+				while (i < weights.length - 1 && r >= weights[i]) {
+					r -= weights[i];
+					i++;
+				}
+				move = legals.get(i);
+			}
+			moves.add(move);
+			state = next(state, move);
+		}
+		playouts++;
+		Line line = new Line(machine.getGoal(state, role), moves);
+		offer(prefix, line);
+		return line;
+	}
+
+	/*
+	 * Keeps the line, reached from memory_state through prefix, if it beats
+	 * the best line known
+	 */
+	private void offer(List<Move> prefix, Line line) {
+		if (line.score > best_score) {
+			best_score = line.score;
+			best_line = new ArrayList<Move>(prefix);
+			best_line.addAll(line.moves);
+		}
+	}
+
+	public int getBestScore() {
+		return best_score;
+	}
+
+	public long getPlayouts() {
+		return playouts;
+	}
+
+	public void setNrpaParameters(int iterations, double alpha) {
+		this.nrpa_iterations = iterations;
+		this.nrpa_alpha = alpha;
+	}
+}
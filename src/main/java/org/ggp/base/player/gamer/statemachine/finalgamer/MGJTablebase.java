@@ -0,0 +1,199 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJTablebase is a solved game, read from a file written by
+ * MGJTablebaseBuilder. The file is memory-mapped, so probing a state costs
+ * a hash and a few reads from the page cache, and nothing is loaded onto
+ * the heap beyond the list of base sentences.
+ * A state is keyed by a bit vector with one bit per base sentence. Each
+ * entry holds the goal every role gets from the state under perfect play
+ * and the number of moves left until the game ends.
+ * File layout: magic, version, rules fingerprint, number of roles, the base
+ * sentences, key length in longs, table capacity and number of entries,
+ * followed by an open-addressing table of (key, goals, distance + 1) slots
+ * in which a distance of 0 marks an empty slot.
+ */
+public final class MGJTablebase
+{
+	public static final int MAGIC = 0x4D474A54;
+	public static final int VERSION = 1;
+	// Directory searched by find
+	public static final String DEFAULT_DIRECTORY = "tablebases";
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedByteBuffer buffer;
+	private final int numRoles;
+	private final Map<String, Integer> sentence_bits = new HashMap<String, Integer>();
+	private final int words;
+	private final int capacity;
+	private final int entries;
+	private final int slot_size;
+	private final int table_start;
+
+	private MGJTablebase(MappedByteBuffer buffer, long fingerprint) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a tablebase file of version " + VERSION);
+		}
+		if (buffer.getLong() != fingerprint) {
+			throw new IOException("Tablebase was built for different rules");
+		}
+		numRoles = buffer.getInt();
+		int numSentences = buffer.getInt();
+		for (int i = 0; i < numSentences; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			sentence_bits.put(new String(bytes, UTF8), i);
+		}
+		words = buffer.getInt();
+		capacity = buffer.getInt();
+		entries = buffer.getInt();
+		slot_size = slotSize(words, numRoles);
+		table_start = buffer.position();
+	}
+
+	/*
+	 * Maps the tablebase file, checking that it was built for these rules
+	 */
+	public static MGJTablebase open(File file, List<Gdl> rules) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new MGJTablebase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fingerprint(rules));
+		} finally {
+			raf.close();
+		}
+	}
+
+	/*
+	 * Opens the tablebase for these rules from the default directory, or
+	 * returns null if there is none
+	 */
+	public static MGJTablebase find(List<Gdl> rules) {
+		File file = new File(DEFAULT_DIRECTORY, fileName(rules));
+		if (!file.exists()) return null;
+		try {
+			return open(file, rules);
+		} catch (IOException e) {
+			GamerLogger.logError("GamePlayer", "Could not open tablebase " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/*
+	 * Looks the state up, filling goals with each role's goal under perfect
+	 * play. Returns the number of moves until the game ends, or -1 if the
+	 * state is not in the table
+	 */
+	public int probe(MachineState state, int[] goals) {
+		long[] key = new long[words];
+		for (GdlSentence sentence : state.getContents()) {
+			Integer bit = sentence_bits.get(sentence.toString());
+			if (bit == null) return -1;
+			key[bit >> 6] |= 1L << (bit & 63);
+		}
+		int mask = capacity - 1;
+		int slot = hash(key) & mask;
+		while (true) {
+			int position = table_start + slot * slot_size;
+			int distance = buffer.getShort(position + 8 * words + numRoles);
+			if (distance == 0) return -1;
+			boolean match = true;
+			for (int w = 0; w < words && match; w++) {
+				match = buffer.getLong(position + 8 * w) == key[w];
+			}
+			if (match) {
+				for (int r = 0; r < numRoles; r++) {
+					goals[r] = buffer.get(position + 8 * words + r);
+				}
+				return distance - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public int getNumRoles() {
+		return numRoles;
+	}
+
+	public int size() {
+		return entries;
+	}
+
+	static int slotSize(int words, int numRoles) {
+		return 8 * words + numRoles + 2;
+	}
+
+	static int hash(long[] key) {
+		long h = 0;
+		for (long word : key) {
+			h = (h ^ word) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/*
+	 * 64-bit FNV-1a hash of the rules, which names the file and guards
+	 * against probing a tablebase built for another game
+	 */
+	public static long fingerprint(List<Gdl> rules) {
+		long h = 0xcbf29ce484222325L;
+		for (Gdl rule : rules) {
+			for (byte b : (rule.toString() + "\n").getBytes(UTF8)) {
+				h ^= b & 0xff;
+				h *= 0x100000001b3L;
+			}
+		}
+		return h;
+	}
+
+	public static String fileName(List<Gdl> rules) {
+		return String.format("%016x.tb", fingerprint(rules));
+	}
+
+	/*
+	 * Writes the header that the constructor reads back
+	 */
+	static void writeHeader(ByteBuffer out, long fingerprint, int numRoles, List<GdlSentence> sentences, int words, int capacity, int entries) {
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putLong(fingerprint);
+		out.putInt(numRoles);
+		out.putInt(sentences.size());
+		for (GdlSentence sentence : sentences) {
+			byte[] bytes = sentence.toString().getBytes(UTF8);
+			out.putInt(bytes.length);
+			out.put(bytes);
+		}
+		out.putInt(words);
+		out.putInt(capacity);
+		out.putInt(entries);
+	}
+
+	static int headerSize(List<GdlSentence> sentences) {
+		int size = 4 + 4 + 8 + 4 + 4 + 4 + 4 + 4;
+		for (GdlSentence sentence : sentences) {
+			size += 4 + sentence.toString().getBytes(UTF8).length;
+		}
+		return size;
+	}
+}
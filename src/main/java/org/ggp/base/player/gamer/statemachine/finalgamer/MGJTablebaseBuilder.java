@@ -0,0 +1,424 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJTablebaseBuilder solves a small game by retrograde analysis and
+ * writes the result as an MGJTablebase file.
+ * It first enumerates every reachable state breadth first with the propnet
+ * machine. States are kept as bit-vector keys in an off-heap hash table,
+ * and the successors of each state as state ids in an off-heap edge list,
+ * so the heap only holds the frontier state being expanded. The tables
+ * start small and double as states are found, up to the maximum.
+ * Values are then computed backwards from the terminal states, with a
+ * queue of solved states and a count of unsolved successors per state.
+ * When a state is solved, each predecessor whose mover gets the best goal
+ * it can get anywhere in the game from it is solved at once, even if some
+ * of its other successors lie on cycles. A predecessor whose successors
+ * are all solved takes the one with the mover's best goal (and the fewest
+ * moves left among those). States that can neither force their best goal
+ * nor avoid a cycle stay unsolved and are left out.
+ * Only games in which at most one role has a choice in any state can be
+ * solved this way.
+ * Usage: MGJTablebaseBuilder <game.kif> [output directory] [max states]
+ */
+public final class MGJTablebaseBuilder
+{
+	public static final int DEFAULT_MAX_STATES = 1 << 20;
+	// States the tables have room for before they first grow
+	private static final int INITIAL_STATES = 1 << 12;
+	// Chooser value of terminal states and of states where nobody has a choice
+	private static final byte TERMINAL = -2;
+	private static final byte NOBODY = -1;
+
+	private final MGJPropNetStateMachine machine;
+	private final List<Gdl> rules;
+	private final List<Role> roles;
+	private final List<GdlSentence> sentences;
+	private final Map<GdlSentence, Integer> sentence_bits = new HashMap<GdlSentence, Integer>();
+	private final int numRoles;
+	private final int words;
+	private final int maxStates;
+
+	// Number of states the tables below have room for
+	private int stateCapacity;
+	// Off-heap visited set: slots of (key words, id + 1), with 0 marking an empty slot
+	private ByteBuffer visited;
+	private int visited_mask;
+	private final int visited_slot;
+	// Off-heap key of each state id, for turning ids back into states
+	private ByteBuffer keys;
+	// Off-heap successor lists; the successors of id are edges[offsets[id]..offsets[id + 1])
+	private IntBuffer offsets;
+	private IntBuffer edges;
+	private int numEdges = 0;
+	private int numStates = 0;
+
+	private byte[] chooser;
+	private byte[] goals;
+	private short[] distance;
+	private boolean[] solved;
+
+	public MGJTablebaseBuilder(List<Gdl> rules, int maxStates) {
+		if (maxStates < 1) {
+			throw new IllegalArgumentException("Maximum number of states must be positive, got " + maxStates);
+		}
+		this.rules = rules;
+		this.machine = new MGJPropNetStateMachine();
+		machine.initialize(rules);
+		this.roles = machine.getRoles();
+		this.numRoles = roles.size();
+		this.sentences = machine.getBaseSentences();
+		for (int i = 0; i < sentences.size(); i++) sentence_bits.put(sentences.get(i), i);
+		this.words = Math.max(1, (sentences.size() + 63) / 64);
+		this.maxStates = maxStates;
+
+		this.visited_slot = 8 * words + 4;
+		this.stateCapacity = Math.min(maxStates, INITIAL_STATES);
+		this.visited = allocate(visitedCapacity(stateCapacity) * visited_slot, "visited set");
+		this.visited_mask = visitedCapacity(stateCapacity) - 1;
+		this.keys = allocate((long) stateCapacity * 8 * words, "state keys");
+		this.offsets = allocate((stateCapacity + 1L) * 4, "edge offsets").asIntBuffer();
+		this.edges = allocate((long) stateCapacity * 4, "edges").asIntBuffer();
+		this.chooser = new byte[stateCapacity];
+		this.goals = new byte[stateCapacity * numRoles];
+		this.distance = new short[stateCapacity];
+	}
+
+	/*
+	 * Allocates a direct buffer, rejecting sizes a buffer cannot index
+	 */
+	private static ByteBuffer allocate(long bytes, String what) {
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalStateException("The " + what + " would take " + bytes + " bytes, more than a buffer can hold; lower the maximum number of states");
+		}
+		return ByteBuffer.allocateDirect((int) bytes);
+	}
+
+	/*
+	 * Slots in a visited set for the given number of states, a power of two
+	 * at least twice as large
+	 */
+	private static int visitedCapacity(int states) {
+		long capacity = Long.highestOneBit(Math.max(2, 2L * states - 1)) << 1;
+		if (capacity > Integer.MAX_VALUE) {
+			throw new IllegalStateException("A visited set for " + states + " states has too many slots");
+		}
+		return (int) capacity;
+	}
+
+	/*
+	 * Doubles the room for states, up to the maximum, rehashing the visited
+	 * set from the stored keys
+	 */
+	private void grow() {
+		int capacity = (int) Math.min(maxStates, 2L * stateCapacity);
+		ByteBuffer bigger_keys = allocate((long) capacity * 8 * words, "state keys");
+		keys.rewind();
+		bigger_keys.put(keys);
+		keys = bigger_keys;
+		IntBuffer bigger_offsets = allocate((capacity + 1L) * 4, "edge offsets").asIntBuffer();
+		offsets.rewind();
+		bigger_offsets.put(offsets);
+		offsets = bigger_offsets;
+		chooser = Arrays.copyOf(chooser, capacity);
+		goals = Arrays.copyOf(goals, capacity * numRoles);
+		distance = Arrays.copyOf(distance, capacity);
+
+		int slots = visitedCapacity(capacity);
+		visited = allocate((long) slots * visited_slot, "visited set");
+		visited_mask = slots - 1;
+		long[] key = new long[words];
+		for (int id = 0; id < numStates; id++) {
+			for (int w = 0; w < words; w++) key[w] = keys.getLong((id * words + w) * 8);
+			int slot = MGJTablebase.hash(key) & visited_mask;
+			while (visited.getInt(slot * visited_slot + 8 * words) != 0) {
+				slot = (slot + 1) & visited_mask;
+			}
+			int position = slot * visited_slot;
+			for (int w = 0; w < words; w++) visited.putLong(position + 8 * w, key[w]);
+			visited.putInt(position + 8 * words, id + 1);
+		}
+		stateCapacity = capacity;
+	}
+
+	/*
+	 * Enumerates the reachable states and solves them, returning the number
+	 * of solved states
+	 */
+	public int solve() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		enumerate();
+		return retrograde();
+	}
+
+	private void enumerate() throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		insert(encode(machine.getInitialState()));
+		offsets.put(0, 0);
+		for (int id = 0; id < numStates; id++) {
+			MachineState state = decode(id);
+			if (machine.isTerminal(state)) {
+				chooser[id] = TERMINAL;
+				for (int r = 0; r < numRoles; r++) {
+					goals[id * numRoles + r] = (byte) machine.getGoal(state, roles.get(r));
+				}
+			} else {
+				List<List<Move>> legals = new ArrayList<List<Move>>(numRoles);
+				int mover = NOBODY;
+				for (int r = 0; r < numRoles; r++) {
+					List<Move> moves = machine.getLegalMoves(state, roles.get(r));
+					legals.add(moves);
+					if (moves.size() > 1) {
+						if (mover != NOBODY) {
+							throw new IllegalStateException("More than one role has a choice in " + state + "; only alternating games can be solved");
+						}
+						mover = r;
+					}
+				}
+				chooser[id] = (byte) mover;
+				List<Move> choices = legals.get(mover == NOBODY ? 0 : mover);
+				for (Move move : choices) {
+					List<Move> jointMove = new ArrayList<Move>(numRoles);
+					for (int r = 0; r < numRoles; r++) {
+						jointMove.add(r == mover ? move : legals.get(r).get(0));
+					}
+					addEdge(insert(encode(machine.getNextState(state, jointMove))));
+				}
+			}
+			offsets.put(id + 1, numEdges);
+			if (id % 100000 == 0 && id > 0) {
+				System.out.println("Expanded " + id + " of " + numStates + " states");
+			}
+		}
+		System.out.println("Reachable states: " + numStates + ", edges: " + numEdges);
+	}
+
+	private int retrograde() {
+		// the best goal each role gets in any terminal state
+		int[] best_goal = new int[numRoles];
+		Arrays.fill(best_goal, -1);
+		// predecessors of child are predecessors[first[child]..first[child + 1]), one per edge
+		int[] first = new int[numStates + 1];
+		int[] unsolved = new int[numStates];
+		for (int id = 0; id < numStates; id++) {
+			if (chooser[id] == TERMINAL) {
+				for (int r = 0; r < numRoles; r++) best_goal[r] = Math.max(best_goal[r], goals[id * numRoles + r]);
+			}
+			unsolved[id] = offsets.get(id + 1) - offsets.get(id);
+			for (int e = offsets.get(id); e < offsets.get(id + 1); e++) first[edges.get(e) + 1]++;
+		}
+		for (int id = 0; id < numStates; id++) first[id + 1] += first[id];
+		IntBuffer predecessors = allocate(4L * numEdges, "predecessor lists").asIntBuffer();
+		int[] filled = Arrays.copyOf(first, numStates);
+		for (int id = 0; id < numStates; id++) {
+			for (int e = offsets.get(id); e < offsets.get(id + 1); e++) predecessors.put(filled[edges.get(e)]++, id);
+		}
+
+		solved = new boolean[numStates];
+		// states are solved in queue order, so each is taken from the earliest solved child
+		int[] queue = new int[numStates];
+		int tail = 0;
+		for (int id = 0; id < numStates; id++) {
+			if (chooser[id] == TERMINAL) {
+				solved[id] = true;
+				queue[tail++] = id;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			int child = queue[head];
+			for (int p = first[child]; p < first[child + 1]; p++) {
+				int parent = predecessors.get(p);
+				if (solved[parent]) continue;
+				unsolved[parent]--;
+				int mover = chooser[parent] == NOBODY ? 0 : chooser[parent];
+				if (goals[child * numRoles + mover] == best_goal[mover]) {
+					solveFrom(parent, child);
+				} else if (unsolved[parent] == 0) {
+					solveFrom(parent, bestChild(parent, mover));
+				} else {
+					continue;
+				}
+				queue[tail++] = parent;
+			}
+		}
+		System.out.println("Solved " + tail + " of " + numStates + " states");
+		return tail;
+	}
+
+	/*
+	 * The successor with the mover's best goal, and the fewest moves left
+	 * among those, once all successors are solved
+	 */
+	private int bestChild(int id, int mover) {
+		int best = -1;
+		for (int e = offsets.get(id); e < offsets.get(id + 1); e++) {
+			int child = edges.get(e);
+			if (best < 0) {
+				best = child;
+				continue;
+			}
+			int goal = goals[child * numRoles + mover];
+			int best_goal = goals[best * numRoles + mover];
+			if (goal > best_goal || (goal == best_goal && distance[child] < distance[best])) best = child;
+		}
+		return best;
+	}
+
+	private void solveFrom(int id, int child) {
+		System.arraycopy(goals, child * numRoles, goals, id * numRoles, numRoles);
+		distance[id] = (short) Math.min(Short.MAX_VALUE - 1, distance[child] + 1);
+		solved[id] = true;
+	}
+
+	/*
+	 * Writes the solved states to a memory-mapped MGJTablebase file
+	 */
+	public void export(File file, int count) throws IOException {
+		int capacity = visitedCapacity(count);
+		int slot_size = MGJTablebase.slotSize(words, numRoles);
+		long size = MGJTablebase.headerSize(sentences) + (long) capacity * slot_size;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Tablebase of " + size + " bytes is too large to map");
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.setLength(size);
+			MappedByteBuffer out = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			MGJTablebase.writeHeader(out, MGJTablebase.fingerprint(rules), numRoles, sentences, words, capacity, count);
+			int table_start = out.position();
+			long[] key = new long[words];
+			for (int id = 0; id < numStates; id++) {
+				if (!solved[id]) continue;
+				for (int w = 0; w < words; w++) key[w] = keys.getLong((id * words + w) * 8);
+				int slot = MGJTablebase.hash(key) & (capacity - 1);
+				while (out.getShort(table_start + slot * slot_size + 8 * words + numRoles) != 0) {
+					slot = (slot + 1) & (capacity - 1);
+				}
+				int position = table_start + slot * slot_size;
+				for (int w = 0; w < words; w++) out.putLong(position + 8 * w, key[w]);
+				for (int r = 0; r < numRoles; r++) out.put(position + 8 * words + r, goals[id * numRoles + r]);
+				out.putShort(position + 8 * words + numRoles, (short) (distance[id] + 1));
+			}
+			out.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	private long[] encode(MachineState state) {
+		long[] key = new long[words];
+		for (GdlSentence sentence : state.getContents()) {
+			int bit = sentenceIndex(sentence);
+			key[bit >> 6] |= 1L << (bit & 63);
+		}
+		return key;
+	}
+
+	private int sentenceIndex(GdlSentence sentence) {
+		Integer bit = sentence_bits.get(sentence);
+		if (bit == null) throw new IllegalStateException(sentence + " is not a base proposition");
+		return bit;
+	}
+
+	private MachineState decode(int id) {
+		Set<GdlSentence> contents = new HashSet<GdlSentence>();
+		for (int w = 0; w < words; w++) {
+			long word = keys.getLong((id * words + w) * 8);
+			while (word != 0) {
+				int bit = Long.numberOfTrailingZeros(word);
+				contents.add(sentences.get(w * 64 + bit));
+				word &= word - 1;
+			}
+		}
+		return new MachineState(contents);
+	}
+
+	/*
+	 * Returns the id of the state with this key, giving it the next id if it is new
+	 */
+	private int insert(long[] key) {
+		int slot = MGJTablebase.hash(key) & visited_mask;
+		while (true) {
+			int position = slot * visited_slot;
+			int stored = visited.getInt(position + 8 * words);
+			if (stored == 0) break;
+			boolean match = true;
+			for (int w = 0; w < words && match; w++) {
+				match = visited.getLong(position + 8 * w) == key[w];
+			}
+			if (match) return stored - 1;
+			slot = (slot + 1) & visited_mask;
+		}
+		if (numStates == maxStates) {
+			throw new IllegalStateException("Game has more than " + maxStates + " reachable states");
+		}
+		if (numStates == stateCapacity) {
+			grow();
+			slot = MGJTablebase.hash(key) & visited_mask;
+			while (visited.getInt(slot * visited_slot + 8 * words) != 0) {
+				slot = (slot + 1) & visited_mask;
+			}
+		}
+		int id = numStates++;
+		int position = slot * visited_slot;
+		for (int w = 0; w < words; w++) {
+			visited.putLong(position + 8 * w, key[w]);
+			keys.putLong((id * words + w) * 8, key[w]);
+		}
+		visited.putInt(position + 8 * words, id + 1);
+		return id;
+	}
+
+	private void addEdge(int child) {
+		if (numEdges == edges.capacity()) {
+			IntBuffer bigger = allocate(edges.capacity() * 8L, "edges").asIntBuffer();
+			edges.rewind();
+			bigger.put(edges);
+			edges = bigger;
+		}
+		edges.put(numEdges++, child);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: MGJTablebaseBuilder <game.kif> [output directory] [max states]");
+			System.exit(1);
+		}
+		Game game = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(new File(args[0]))));
+		File directory = new File(args.length > 1 ? args[1] : MGJTablebase.DEFAULT_DIRECTORY);
+		int maxStates = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_STATES;
+		directory.mkdirs();
+
+		long start = System.currentTimeMillis();
+		MGJTablebaseBuilder builder = new MGJTablebaseBuilder(game.getRules(), maxStates);
+		int count = builder.solve();
+		File file = new File(directory, MGJTablebase.fileName(game.getRules()));
+		builder.export(file, count);
+		System.out.println("Wrote " + file + " (" + file.length() + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
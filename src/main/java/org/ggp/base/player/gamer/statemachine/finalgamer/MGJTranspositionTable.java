@@ -0,0 +1,157 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ggp.base.util.statemachine.MachineState;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJTranspositionTable maps each machine state to the one search node
+ * that holds its statistics. Every move order that reaches the same state
+ * shares that node, so the search tree becomes a DAG.
+ * The table holds at most capacity nodes. When it is full, the least
+ * recently used node is replaced; parents keep their own edge statistics,
+ * so an evicted child only loses the detail below it.
+ * Given a Weigher, the table instead replaces the node with the fewest
+ * visits among the window least recently used ones, so that old nodes
+ * which gathered many samples outlive the fringe that was only tried once.
+ * budgetFor turns a share of the JVM's maximum heap into a capacity, so the
+ * table's memory stays predictable whatever the play clock.
+ */
+public final class MGJTranspositionTable<N>
+{
+	public static final int DEFAULT_CAPACITY = 100000;
+
+	/*
+	 * Tells the table how many visits a node has had
+	 */
+	public interface Weigher<N> {
+		double visitsOf(N node);
+	}
+
+	private final int capacity;
+	private final Weigher<N> weigher;
+	private final int window;
+	private final LinkedHashMap<MachineState, N> table;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public MGJTranspositionTable() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public MGJTranspositionTable(int capacity) {
+		this(capacity, null, 1);
+	}
+
+	public MGJTranspositionTable(int capacity, Weigher<N> weigher, int window) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Transposition table capacity must be positive, got " + capacity);
+		}
+		if (window < 1) {
+			throw new IllegalArgumentException("Eviction window must be positive, got " + window);
+		}
+		this.capacity = capacity;
+		this.weigher = weigher;
+		this.window = window;
+		// access order makes iteration order least-recently-used first
+		this.table = new LinkedHashMap<MachineState, N>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<MachineState, N> eldest) {
+				if (MGJTranspositionTable.this.weigher == null && size() > MGJTranspositionTable.this.capacity) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/*
+	 * Returns the node stored for the given state, or null if the state
+	 * has never been stored or has since been replaced
+	 */
+	public N get(MachineState state) {
+		N node = table.get(state);
+		if (node == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return node;
+	}
+
+	/*
+	 * Stores the node for the given state, replacing the least recently
+	 * used node if the table is full
+	 */
+	public void put(MachineState state, N node) {
+		if (weigher != null && table.size() >= capacity && !table.containsKey(state)) {
+			evictLightest();
+		}
+		table.put(state, node);
+	}
+
+	/*
+	 * Removes the node with the fewest visits among the window least
+	 * recently used ones. Iterating does not count as access
+	 */
+	private void evictLightest() {
+		Iterator<Map.Entry<MachineState, N>> entries = table.entrySet().iterator();
+		MachineState lightest = null;
+		double fewest = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < window && entries.hasNext(); i++) {
+			Map.Entry<MachineState, N> entry = entries.next();
+			double visits = weigher.visitsOf(entry.getValue());
+			if (visits < fewest) {
+				fewest = visits;
+				lightest = entry.getKey();
+			}
+		}
+		if (lightest != null) {
+			table.remove(lightest);
+			evictions++;
+		}
+	}
+
+	/*
+	 * Number of nodes of the given size that fit in the given fraction of
+	 * the JVM's maximum heap
+	 */
+	public static int budgetFor(long bytesPerNode, double heapFraction) {
+		long budget = (long) (Runtime.getRuntime().maxMemory() * heapFraction / Math.max(1, bytesPerNode));
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget));
+	}
+
+	public void clear() {
+		table.clear();
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public int size() {
+		return table.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+}
@@ -0,0 +1,183 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.apps.benchmark.PlayerTester;
+import org.ggp.base.apps.benchmark.PlayerTesterCases;
+import org.ggp.base.player.GamePlayer;
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.server.GameServer;
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.statemachine.Role;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJWeightTuner fits the MGJWeightedEvaluator weights of a time-limited
+ * gamer to one game by self-play, and saves them where the gamer loads
+ * them from.
+ * Each generation perturbs the current weights and plays the candidate
+ * against them in matches on a local GameServer, the candidate taking each
+ * role in turn. If the game has PlayerTester cases (matched by the name of
+ * the directory holding the rulesheet, as in the game repository), both
+ * weightings also take those tests on the local rules, and each test
+ * passed counts as a won match. The candidate replaces the current weights
+ * when it scores better, and the weights are saved after every improvement.
+ * Usage: MGJWeightTuner <game.kif> [generations] [matches per generation]
+ *        [play clock seconds] [gamer class]
+ * The gamer class must have a setWeights(double[]) method, and defaults to
+ * MGJTimeLimitedMobilityGamerIterative.
+ */
+public final class MGJWeightTuner
+{
+	public static final String DEFAULT_GAMER = "org.ggp.base.player.gamer.statemachine.assign3.MGJTimeLimitedMobilityGamerIterative";
+	private static final int START_CLOCK = 10;
+	// Ports tried first for the local players
+	private static final int BASE_PORT = 9200;
+
+	private final Game game;
+	private final String gameKey;
+	private final Class<? extends Gamer> gamerClass;
+	private final int numRoles;
+	private final int playClock;
+	private final Random random = new Random();
+	// Standard deviation of the perturbation of each weight
+	private double step = 0.3;
+
+	public MGJWeightTuner(Game game, String gameKey, Class<? extends Gamer> gamerClass, int playClock) {
+		this.game = game;
+		this.gameKey = gameKey;
+		this.gamerClass = gamerClass;
+		this.numRoles = Role.computeRoles(game.getRules()).size();
+		this.playClock = playClock;
+	}
+
+	/*
+	 * Runs the given number of generations from the saved weights, or from
+	 * mobility alone, and returns the best weights found
+	 */
+	public double[] tune(int generations, int matches) throws Exception {
+		double[] incumbent = MGJWeightedEvaluator.loadWeights(game.getRules());
+		if (incumbent == null) {
+			incumbent = MGJWeightedEvaluator.only(MGJWeightedEvaluator.Feature.MOBILITY);
+		}
+		for (int generation = 0; generation < generations; generation++) {
+			double[] candidate = perturb(incumbent);
+			double margin = 0;
+			for (int m = 0; m < matches; m++) {
+				int seat = m % numRoles;
+				List<Integer> goals = playMatch(candidate, incumbent, seat);
+				double others = 0;
+				for (int r = 0; r < numRoles; r++) {
+					if (r != seat) others += goals.get(r);
+				}
+				margin += goals.get(seat) - (numRoles > 1 ? others / (numRoles - 1) : 0);
+			}
+			margin += 100 * (passedTests(candidate) - passedTests(incumbent));
+			GamerLogger.log("WeightTuner", "Generation " + generation + ": " + Arrays.toString(candidate) + " vs " + Arrays.toString(incumbent) + ", margin " + margin);
+			if (margin > 0) {
+				incumbent = candidate;
+				MGJWeightedEvaluator.saveWeights(game.getRules(), incumbent, "Tuned for " + gameKey + " after " + (generation + 1) + " generations");
+			}
+		}
+		return incumbent;
+	}
+
+	/*
+	 * Gaussian step on every weight, clamped at zero and normalized to sum
+	 * to one
+	 */
+	private double[] perturb(double[] weights) {
+		double[] perturbed = new double[weights.length];
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			perturbed[i] = Math.max(0, weights[i] + step * random.nextGaussian());
+			total += perturbed[i];
+		}
+		if (total == 0) return weights.clone();
+		for (int i = 0; i < weights.length; i++) {
+			perturbed[i] /= total;
+		}
+		return perturbed;
+	}
+
+	private Gamer newGamer(double[] weights) throws Exception {
+		Gamer gamer = gamerClass.newInstance();
+		gamerClass.getMethod("setWeights", double[].class).invoke(gamer, (Object) weights);
+		return gamer;
+	}
+
+	/*
+	 * Plays one match on a local server, the candidate weights taking the
+	 * given role and the incumbent weights all the others
+	 */
+	private List<Integer> playMatch(double[] candidate, double[] incumbent, int seat) throws Exception {
+		List<GamePlayer> players = new ArrayList<GamePlayer>();
+		List<String> hosts = new ArrayList<String>();
+		List<Integer> ports = new ArrayList<Integer>();
+		try {
+			for (int r = 0; r < numRoles; r++) {
+				GamePlayer player = new GamePlayer(BASE_PORT + r, newGamer(r == seat ? candidate : incumbent));
+				player.start();
+				players.add(player);
+				hosts.add("127.0.0.1");
+				ports.add(player.getGamerPort());
+			}
+			Match match = new Match("tuner." + Match.getRandomString(5), -1, START_CLOCK, playClock, game, "");
+			GameServer server = new GameServer(match, hosts, ports);
+			server.start();
+			server.join();
+			return server.getGoals();
+		} finally {
+			for (GamePlayer player : players) {
+				player.shutdown();
+			}
+		}
+	}
+
+	/*
+	 * Number of the game's PlayerTester cases passed with these weights
+	 */
+	private int passedTests(double[] weights) throws Exception {
+		int passed = 0;
+		for (PlayerTester.TestCase testCase : PlayerTesterCases.TEST_CASES) {
+			if (!testCase.gameKey.equals(gameKey)) continue;
+			GamePlayer player = new GamePlayer(BASE_PORT + numRoles, newGamer(weights));
+			player.start();
+			try {
+				if (PlayerTester.passesTest("127.0.0.1:" + player.getGamerPort(), testCase, game)) {
+					passed++;
+				}
+			} finally {
+				player.shutdown();
+			}
+		}
+		return passed;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: MGJWeightTuner <game.kif> [generations] [matches per generation] [play clock seconds] [gamer class]");
+			System.exit(1);
+		}
+		File rulesheet = new File(args[0]);
+		Game game = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(rulesheet)));
+		int generations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int matches = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int playClock = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+		Class<? extends Gamer> gamerClass = (Class<? extends Gamer>) Class.forName(args.length > 4 ? args[4] : DEFAULT_GAMER);
+		String gameKey = rulesheet.getAbsoluteFile().getParentFile().getName();
+
+		MGJWeightTuner tuner = new MGJWeightTuner(game, gameKey, gamerClass, playClock);
+		double[] weights = tuner.tune(generations, matches);
+		System.out.println("Weights for " + gameKey + ": " + Arrays.toString(weights));
+		System.exit(0);
+	}
+}
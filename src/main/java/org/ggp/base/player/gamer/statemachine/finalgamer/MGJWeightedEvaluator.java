@@ -0,0 +1,182 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/*
+ * Team: Michael Genesereth Junior
+ * MGJWeightedEvaluator scores a state by a weighted average of features,
+ * each on the 0 to 100 scale of goal values:
+ *   MOBILITY           our mobility, as in MGJMobilityEvaluator
+ *   OPPONENT_MOBILITY  100 minus the average mobility of the other roles
+ *   GOAL               our goal in the state, where the game defines one
+ *   GOAL_CONE          how nearly the state satisfies our best goal in the
+ *                      propnet (MGJPropNetStateMachine.getGoalSatisfaction)
+ * Weights are fitted per game by MGJWeightTuner and stored in a properties
+ * file named after the rules fingerprint, which gamers load in the metagame.
+ */
+public final class MGJWeightedEvaluator implements MGJEvaluator
+{
+	public enum Feature { MOBILITY, OPPONENT_MOBILITY, GOAL, GOAL_CONE }
+
+	// Directory searched by loadWeights
+	public static final String DEFAULT_DIRECTORY = "weights";
+
+	private final StateMachine machine;
+	// Only needed when GOAL_CONE has weight
+	private final MGJPropNetStateMachine propNetMachine;
+	private final MGJMobilityEvaluator mobility;
+	private final double[] weights;
+
+	public MGJWeightedEvaluator(StateMachine machine, MGJPropNetStateMachine propNetMachine, double[] weights) {
+		if (weights.length != Feature.values().length) {
+			throw new IllegalArgumentException("Expected " + Feature.values().length + " weights");
+		}
+		if (weights[Feature.GOAL_CONE.ordinal()] > 0 && propNetMachine == null) {
+			throw new IllegalArgumentException("The goal cone feature needs a propnet");
+		}
+		this.machine = machine;
+		this.propNetMachine = propNetMachine;
+		this.mobility = new MGJMobilityEvaluator(machine);
+		this.weights = weights.clone();
+	}
+
+	/*
+	 * The evaluator a gamer uses for these rules: the given weights if any,
+	 * else the tuned weights from the default directory, else the fallback
+	 * feature alone. The propnet is only built when the goal cone is weighted
+	 */
+	public static MGJWeightedEvaluator forGame(StateMachine machine, List<Gdl> rules, double[] weights, Feature fallback) {
+		if (weights == null) {
+			weights = loadWeights(rules);
+			if (weights != null) {
+				GamerLogger.log("GamePlayer", "Loaded tuned weights " + Arrays.toString(weights));
+			}
+		}
+		if (weights == null) {
+			weights = only(fallback);
+		}
+		MGJPropNetStateMachine propNetMachine = null;
+		if (weights[Feature.GOAL_CONE.ordinal()] > 0) {
+			propNetMachine = new MGJPropNetStateMachine();
+			propNetMachine.initialize(rules);
+		}
+		return new MGJWeightedEvaluator(machine, propNetMachine, weights);
+	}
+
+	@Override
+	public double evaluate(MachineState state, Role role) throws MoveDefinitionException, GoalDefinitionException {
+		double value = 0;
+		double total = 0;
+		for (Feature feature : Feature.values()) {
+			double weight = weights[feature.ordinal()];
+			if (weight <= 0) continue;
+			value += weight * feature(feature, state, role);
+			total += weight;
+		}
+		return total == 0 ? 50 : value / total;
+	}
+
+	/*
+	 * Value of one feature for the role in the state
+	 */
+	public double feature(Feature feature, MachineState state, Role role) throws MoveDefinitionException, GoalDefinitionException {
+		switch (feature) {
+		case MOBILITY:
+			return mobility.evaluate(state, role);
+		case OPPONENT_MOBILITY:
+			double sum = 0;
+			int opponents = 0;
+			for (Role other : machine.getRoles()) {
+				if (other.equals(role)) continue;
+				sum += mobility.evaluate(state, other);
+				opponents++;
+			}
+			return opponents == 0 ? 50 : 100 - sum / opponents;
+		case GOAL:
+			try {
+				return machine.getGoal(state, role);
+			} catch (GoalDefinitionException e) {
+				// many games only define goals in terminal states
+				return 0;
+			}
+		case GOAL_CONE:
+			return 100 * propNetMachine.getGoalSatisfaction(state, role);
+		default:
+			throw new IllegalArgumentException("Unknown feature " + feature);
+		}
+	}
+
+	public double[] getWeights() {
+		return weights.clone();
+	}
+
+	/*
+	 * Weights that use a single feature
+	 */
+	public static double[] only(Feature feature) {
+		double[] weights = new double[Feature.values().length];
+		weights[feature.ordinal()] = 1;
+		return weights;
+	}
+
+	public static String fileName(List<Gdl> rules) {
+		return String.format("%016x.weights", MGJTablebase.fingerprint(rules));
+	}
+
+	/*
+	 * Reads the tuned weights for these rules from the default directory,
+	 * or returns null if there are none
+	 */
+	public static double[] loadWeights(List<Gdl> rules) {
+		File file = new File(DEFAULT_DIRECTORY, fileName(rules));
+		if (!file.exists()) return null;
+		Properties properties = new Properties();
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+			double[] weights = new double[Feature.values().length];
+			for (Feature feature : Feature.values()) {
+				weights[feature.ordinal()] = Double.parseDouble(properties.getProperty(feature.name(), "0"));
+			}
+			return weights;
+		} catch (IOException | NumberFormatException e) {
+			GamerLogger.logError("GamePlayer", "Could not read weights " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public static void saveWeights(List<Gdl> rules, double[] weights, String comment) throws IOException {
+		File directory = new File(DEFAULT_DIRECTORY);
+		directory.mkdirs();
+		Properties properties = new Properties();
+		for (Feature feature : Feature.values()) {
+			properties.setProperty(feature.name(), Double.toString(weights[feature.ordinal()]));
+		}
+		OutputStream out = new FileOutputStream(new File(directory, fileName(rules)));
+		try {
+			properties.store(out, comment);
+		} finally {
+			out.close();
+		}
+	}
+}
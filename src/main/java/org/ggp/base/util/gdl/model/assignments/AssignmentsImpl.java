@@ -84,42 +84,39 @@ public class AssignmentsImpl implements Assignments {
 			GdlRule rule, Map<GdlVariable, Set<GdlConstant>> varDomains,
 			Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
 			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
-		empty = false;
-		this.headAssignment = headAssignment;
-
-		//We first have to find the remaining variables in the body
-		varsToAssign = GdlUtils.getVariables(rule);
-		//Remove all the duplicates; we do, however, want to keep the ordering
-		List<GdlVariable> newVarsToAssign = new ArrayList<GdlVariable>();
-		for(GdlVariable v : varsToAssign)
-			if(!newVarsToAssign.contains(v))
-				newVarsToAssign.add(v);
-		varsToAssign = newVarsToAssign;
-		varsToAssign.removeAll(headAssignment.keySet());
-		//varsToAssign is set at this point
-
 		//We see if iterating over entire tuples will give us a
 		//better result, and we look for the best way of doing that.
+		this(headAssignment, rule, varDomains, functionInfoMap, completedSentenceFormValues,
+				getBestIterationOrderCandidate(rule, varDomains,/*model,*/ functionInfoMap,
+						getCompletedSentenceFormSizes(completedSentenceFormValues), headAssignment, false)); //TODO: True here?
+	}
 
-		//Let's get the domains of the variables
-		//Map<GdlVariable, Set<GdlConstant>> varDomains = model.getVarDomains(rule);
-		//Since we're looking at a particular rule, we can do this one step better
-		//by looking at the domain of the head, which may be more restrictive
-		//and taking the intersections of the two domains where applicable
-		//Map<GdlVariable, Set<GdlConstant>> headVarDomains = model.getVarDomainsInSentence(rule.getHead());
-
-		//We can run the A* search for a good set of source conjuncts
-		//at this point, then use the result to build the rest.
-		Map<SentenceForm, Integer> completedSentenceFormSizes = new HashMap<SentenceForm, Integer>();
-		if(completedSentenceFormValues != null)
-			for(SentenceForm form : completedSentenceFormValues.keySet())
-				completedSentenceFormSizes.put(form, completedSentenceFormValues.get(form).size());
-		Map<GdlVariable, Integer> varDomainSizes = new HashMap<GdlVariable, Integer>();
-		for(GdlVariable var : varDomains.keySet())
-			varDomainSizes.put(var, varDomains.get(var).size());
+	/**
+	 * Creates an Assignments object that iterates in the given order, as
+	 * returned by {@link #getBestIterationOrdering(GdlRule, Map, Map, Map)},
+	 * instead of searching for the best order itself. An order found for
+	 * one set of sentences is still correct for another, though it may no
+	 * longer be the fastest, so it can be reused when the same rule is
+	 * applied to many similar sets of sentences.
+	 *
+	 * The ordering must have been found with no variables fixed by a
+	 * head assignment.
+	 */
+	@SuppressWarnings("unchecked")
+	public AssignmentsImpl(GdlRule rule, IterationOrderCandidate ordering,
+			Map<GdlVariable, Set<GdlConstant>> varDomains,
+			Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
+		this(Collections.EMPTY_MAP, rule, varDomains, functionInfoMap, completedSentenceFormValues, ordering);
+	}
 
-		IterationOrderCandidate bestOrdering;
-		bestOrdering = getBestIterationOrderCandidate(rule, varDomains,/*model,*/ functionInfoMap, completedSentenceFormSizes, headAssignment, false); //TODO: True here?
+	private AssignmentsImpl(Map<GdlVariable, GdlConstant> headAssignment,
+			GdlRule rule, Map<GdlVariable, Set<GdlConstant>> varDomains,
+			Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues,
+			IterationOrderCandidate bestOrdering) {
+		empty = false;
+		this.headAssignment = headAssignment;
 
 		//Want to replace next few things with order
 		//Need a few extra things to handle the use of iteration over existing tuples
@@ -192,6 +189,10 @@ public class AssignmentsImpl implements Assignments {
 			//We use constraintSlots and constraintValues to check that the
 			//tuples have compatible values
 			Collection<GdlSentence> sentences = completedSentenceFormValues.get(form);
+			if (sentences == null) {
+				//A reused ordering may name a source with no sentences this time
+				sentences = Collections.emptySet();
+			}
 			List<ImmutableList<GdlConstant>> tuples = Lists.newArrayList();
 			byTuple: for(GdlSentence sentence : sentences) {
 				//Check that it doesn't conflict with our headAssignment
@@ -438,6 +439,47 @@ public class AssignmentsImpl implements Assignments {
 	}
 
 
+	/**
+	 * Finds the iteration order that {@link #AssignmentsImpl(GdlRule, Map, Map, Map)}
+	 * would use for the given rule and sentences, so that it can be passed to
+	 * {@link #AssignmentsImpl(GdlRule, IterationOrderCandidate, Map, Map, Map)}
+	 * later on.
+	 */
+	public static IterationOrderCandidate getBestIterationOrdering(GdlRule rule,
+			Map<GdlVariable, Set<GdlConstant>> varDomains,
+			Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
+		return getBestIterationOrderCandidate(rule, varDomains, functionInfoMap,
+				getCompletedSentenceFormSizes(completedSentenceFormValues), Collections.<GdlVariable, GdlConstant>emptyMap(), false);
+	}
+
+	/**
+	 * Finds the best iteration order for the given rule when only the number
+	 * of sentences of each form is known, or estimated. Forms left out of the
+	 * map are never used as source conjuncts.
+	 *
+	 * Unlike the orderings of {@link #getBestIterationOrdering(GdlRule, Map, Map, Map)},
+	 * the result may name source conjuncts whose sentences are not known yet,
+	 * so it is meant for callers that find the sentences matching each source
+	 * conjunct themselves.
+	 */
+	public static IterationOrderCandidate getBestIterationOrderingForSizes(GdlRule rule,
+			Map<GdlVariable, Set<GdlConstant>> varDomains,
+			Map<SentenceForm, ? extends FunctionInfo> functionInfoMap,
+			Map<SentenceForm, Integer> sentenceFormSizes) {
+		return getBestIterationOrderCandidate(rule, varDomains, functionInfoMap,
+				sentenceFormSizes, Collections.<GdlVariable, GdlConstant>emptyMap(), false);
+	}
+
+	private static Map<SentenceForm, Integer> getCompletedSentenceFormSizes(
+			Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues) {
+		Map<SentenceForm, Integer> completedSentenceFormSizes = new HashMap<SentenceForm, Integer>();
+		if(completedSentenceFormValues != null)
+			for(SentenceForm form : completedSentenceFormValues.keySet())
+				completedSentenceFormSizes.put(form, completedSentenceFormValues.get(form).size());
+		return completedSentenceFormSizes;
+	}
+
 	/**
 	 * Finds the iteration order (including variables, functions, and
 	 * source conjuncts) that is expected to result in the fastest iteration.
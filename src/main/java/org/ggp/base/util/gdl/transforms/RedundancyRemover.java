@@ -0,0 +1,337 @@
+package org.ggp.base.util.gdl.transforms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlOr;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+
+/**
+ * As a GDL transformer, this class takes in a GDL description of a game,
+ * transforms it in some way, and outputs a new GDL descriptions of a game
+ * which is functionally equivalent to the original game.
+ *
+ * RedundancyRemover removes rules and literals that cannot change what is
+ * true, so that every reasoner downstream has less to do:
+ * <ul>
+ * <li>a literal that appears earlier in the same rule body,</li>
+ * <li>a sentence literal whose variables that appear nowhere else in the
+ * rule can be bound to make it another sentence literal of the body, such
+ * as (cell ?x ?y ?z) next to (cell ?x 1 b), and</li>
+ * <li>a rule or fact that another theta-subsumes, that is, one whose head and
+ * body are what the other's become under some substitution of its
+ * variables, such as (<= (p ?x) (q ?x a) (r ?x)) next to (<= (p ?y) (q ?y ?z)).
+ * Of two rules that subsume each other, the later is removed.</li>
+ * </ul>
+ * Rules are compared only with rules whose heads have the same relation and
+ * could have the same first argument, rather than with every other rule.
+ *
+ * The description is DeORed first. Removing a literal can leave a
+ * "distinct" or "not" literal ahead of the sentence that binds its
+ * variables, so this should be applied before {@link DistinctAndNotMover}.
+ */
+public class RedundancyRemover {
+    public static List<Gdl> run(List<Gdl> description)
+    {
+        description = DeORer.run(description);
+        List<Gdl> newDescription = new ArrayList<Gdl>(description.size());
+        for (Gdl gdl : description) {
+            if (gdl instanceof GdlRule) {
+                newDescription.add(removeRedundantLiterals((GdlRule) gdl));
+            } else {
+                newDescription.add(gdl);
+            }
+        }
+        return removeSubsumedRules(newDescription);
+    }
+
+    /**
+     * Removes literals that repeat earlier ones, and sentence literals that
+     * other sentence literals of the body imply.
+     */
+    private static GdlRule removeRedundantLiterals(GdlRule rule)
+    {
+        List<GdlLiteral> body = new ArrayList<GdlLiteral>(new LinkedHashSet<GdlLiteral>(rule.getBody()));
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            for (int i = 0; i < body.size(); i++) {
+                if (isImpliedByRest(rule.getHead(), body, i)) {
+                    body.remove(i);
+                    removed = true;
+                    break;
+                }
+            }
+        }
+        if (body.size() == rule.getBody().size()) {
+            return rule;
+        }
+        return GdlPool.getRule(rule.getHead(), body);
+    }
+
+    /**
+     * Returns whether the literal at the given index is a sentence that the
+     * other sentences of the body imply. Its variables that appear elsewhere
+     * in the rule are held fixed, and the rest may be bound to match it to
+     * one of the others. Whenever the rest of the body holds, that other
+     * sentence holds, and so does the literal under that binding.
+     */
+    private static boolean isImpliedByRest(GdlSentence head, List<GdlLiteral> body, int index)
+    {
+        GdlLiteral literal = body.get(index);
+        if (!(literal instanceof GdlSentence)) {
+            return false;
+        }
+        Set<GdlVariable> fixed = new HashSet<GdlVariable>(GdlUtils.getVariables(head));
+        for (int i = 0; i < body.size(); i++) {
+            if (i != index) {
+                fixed.addAll(GdlUtils.getVariables(body.get(i)));
+            }
+        }
+        Set<GdlVariable> bindable = new HashSet<GdlVariable>(GdlUtils.getVariables(literal));
+        bindable.removeAll(fixed);
+        if (bindable.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < body.size(); i++) {
+            if (i != index && body.get(i) instanceof GdlSentence
+                    && matches(literal, body.get(i), new HashMap<GdlVariable, GdlTerm>(), bindable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the rules and facts that others subsume, keeping the earlier
+     * of two that subsume each other. A rule removed because of another
+     * that is itself removed is still subsumed by whatever removed that one.
+     */
+    private static List<Gdl> removeSubsumedRules(List<Gdl> description)
+    {
+        // Rules by head relation and arity, then by the index key of the
+        // head's first argument, with null for a variable
+        Map<String, Map<String, List<Integer>>> index = new HashMap<String, Map<String, List<Integer>>>();
+        for (int i = 0; i < description.size(); i++) {
+            GdlSentence head = getHead(description.get(i));
+            if (head != null) {
+                Map<String, List<Integer>> byFirstArgument = index.get(getRelationKey(head));
+                if (byFirstArgument == null) {
+                    byFirstArgument = new HashMap<String, List<Integer>>();
+                    index.put(getRelationKey(head), byFirstArgument);
+                }
+                String key = head.arity() == 0 ? null : getTermKey(head.get(0));
+                List<Integer> rules = byFirstArgument.get(key);
+                if (rules == null) {
+                    rules = new ArrayList<Integer>();
+                    byFirstArgument.put(key, rules);
+                }
+                rules.add(i);
+            }
+        }
+
+        List<Gdl> newDescription = new ArrayList<Gdl>(description.size());
+        for (int i = 0; i < description.size(); i++) {
+            Gdl gdl = description.get(i);
+            GdlSentence head = getHead(gdl);
+            if (head == null || !isSubsumed(description, i, getCandidates(index, head))) {
+                newDescription.add(gdl);
+            }
+        }
+        return newDescription;
+    }
+
+    /**
+     * Returns the rules that could subsume a rule with the given head: those
+     * whose heads have a variable for their first argument, and those whose
+     * first argument could match the head's.
+     */
+    private static List<Integer> getCandidates(Map<String, Map<String, List<Integer>>> index, GdlSentence head)
+    {
+        Map<String, List<Integer>> byFirstArgument = index.get(getRelationKey(head));
+        List<Integer> candidates = new ArrayList<Integer>();
+        List<Integer> withVariable = byFirstArgument.get(null);
+        if (withVariable != null) {
+            candidates.addAll(withVariable);
+        }
+        if (head.arity() > 0) {
+            String key = getTermKey(head.get(0));
+            List<Integer> withKey = key == null ? null : byFirstArgument.get(key);
+            if (withKey != null) {
+                candidates.addAll(withKey);
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean isSubsumed(List<Gdl> description, int index, List<Integer> candidates)
+    {
+        Gdl gdl = description.get(index);
+        for (int candidate : candidates) {
+            if (candidate == index) {
+                continue;
+            }
+            Gdl other = description.get(candidate);
+            if (subsumes(other, gdl) && (candidate < index || !subsumes(gdl, other))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether some substitution of the variables of the first rule
+     * turns its head into the head of the second, and each literal of its
+     * body into one of the second's.
+     */
+    private static boolean subsumes(Gdl general, Gdl specific)
+    {
+        Set<GdlVariable> bindable = new HashSet<GdlVariable>(GdlUtils.getVariables(general));
+        Map<GdlVariable, GdlTerm> bindings = new HashMap<GdlVariable, GdlTerm>();
+        if (!matches(getHead(general), getHead(specific), bindings, bindable)) {
+            return false;
+        }
+        return matchesBody(getBody(general), 0, getBody(specific), bindings, bindable);
+    }
+
+    private static boolean matchesBody(List<GdlLiteral> general, int index, List<GdlLiteral> specific,
+            Map<GdlVariable, GdlTerm> bindings, Set<GdlVariable> bindable)
+    {
+        if (index == general.size()) {
+            return true;
+        }
+        for (GdlLiteral literal : specific) {
+            Map<GdlVariable, GdlTerm> attempt = new HashMap<GdlVariable, GdlTerm>(bindings);
+            if (matches(general.get(index), literal, attempt, bindable)
+                    && matchesBody(general, index + 1, specific, attempt, bindable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether binding the bindable variables of the pattern, in
+     * addition to the given bindings, turns it into the target. The target's
+     * variables are treated as constants.
+     */
+    private static boolean matches(GdlLiteral pattern, GdlLiteral target, Map<GdlVariable, GdlTerm> bindings, Set<GdlVariable> bindable)
+    {
+        if (pattern instanceof GdlSentence) {
+            if (!(target instanceof GdlSentence)) {
+                return false;
+            }
+            GdlSentence patternSentence = (GdlSentence) pattern;
+            GdlSentence targetSentence = (GdlSentence) target;
+            if (!patternSentence.getName().equals(targetSentence.getName()) || patternSentence.arity() != targetSentence.arity()) {
+                return false;
+            }
+            for (int i = 0; i < patternSentence.arity(); i++) {
+                if (!matches(patternSentence.get(i), targetSentence.get(i), bindings, bindable)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (pattern instanceof GdlNot) {
+            return target instanceof GdlNot
+                    && matches(((GdlNot) pattern).getBody(), ((GdlNot) target).getBody(), bindings, bindable);
+        } else if (pattern instanceof GdlDistinct) {
+            return target instanceof GdlDistinct
+                    && matches(((GdlDistinct) pattern).getArg1(), ((GdlDistinct) target).getArg1(), bindings, bindable)
+                    && matches(((GdlDistinct) pattern).getArg2(), ((GdlDistinct) target).getArg2(), bindings, bindable);
+        } else if (pattern instanceof GdlOr) {
+            if (!(target instanceof GdlOr) || ((GdlOr) pattern).arity() != ((GdlOr) target).arity()) {
+                return false;
+            }
+            for (int i = 0; i < ((GdlOr) pattern).arity(); i++) {
+                if (!matches(((GdlOr) pattern).get(i), ((GdlOr) target).get(i), bindings, bindable)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return pattern.equals(target);
+    }
+
+    private static boolean matches(GdlTerm pattern, GdlTerm target, Map<GdlVariable, GdlTerm> bindings, Set<GdlVariable> bindable)
+    {
+        if (pattern instanceof GdlVariable && bindable.contains(pattern)) {
+            GdlTerm bound = bindings.get(pattern);
+            if (bound == null) {
+                bindings.put((GdlVariable) pattern, target);
+                return true;
+            }
+            return bound.equals(target);
+        } else if (pattern instanceof GdlFunction) {
+            if (!(target instanceof GdlFunction)) {
+                return false;
+            }
+            GdlFunction patternFunction = (GdlFunction) pattern;
+            GdlFunction targetFunction = (GdlFunction) target;
+            if (!patternFunction.getName().equals(targetFunction.getName()) || patternFunction.arity() != targetFunction.arity()) {
+                return false;
+            }
+            for (int i = 0; i < patternFunction.arity(); i++) {
+                if (!matches(patternFunction.get(i), targetFunction.get(i), bindings, bindable)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return pattern.equals(target);
+    }
+
+    private static GdlSentence getHead(Gdl gdl)
+    {
+        if (gdl instanceof GdlRule) {
+            return ((GdlRule) gdl).getHead();
+        } else if (gdl instanceof GdlSentence) {
+            return (GdlSentence) gdl;
+        }
+        return null;
+    }
+
+    private static List<GdlLiteral> getBody(Gdl gdl)
+    {
+        if (gdl instanceof GdlRule) {
+            return ((GdlRule) gdl).getBody();
+        }
+        return Collections.emptyList();
+    }
+
+    private static String getRelationKey(GdlSentence head)
+    {
+        return head.getName() + "/" + head.arity();
+    }
+
+    /**
+     * Returns a key that two terms share if one could be matched to the
+     * other, or null for a variable, which can be matched to anything.
+     */
+    private static String getTermKey(GdlTerm term)
+    {
+        if (term instanceof GdlConstant) {
+            return term.toString();
+        } else if (term instanceof GdlFunction) {
+            return "(" + ((GdlFunction) term).getName() + "/" + ((GdlFunction) term).arity();
+        }
+        return null;
+    }
+}
@@ -46,6 +46,7 @@ import org.ggp.base.util.gdl.transforms.ConstantChecker;
 import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
 import org.ggp.base.util.gdl.transforms.DeORer;
 import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.RedundancyRemover;
 import org.ggp.base.util.gdl.transforms.Relationizer;
 import org.ggp.base.util.gdl.transforms.VariableConstrainer;
 import org.ggp.base.util.propnet.architecture.Component;
@@ -123,6 +124,7 @@ public class OptimizingPropNetFactory {
 
 		description = GdlCleaner.run(description);
 		description = DeORer.run(description);
+		description = RedundancyRemover.run(description);
 		description = VariableConstrainer.replaceFunctionValuedVariables(description);
 		description = Relationizer.run(description);
 
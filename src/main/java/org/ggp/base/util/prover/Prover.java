@@ -1,5 +1,6 @@
 package org.ggp.base.util.prover;
 
+import java.util.List;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
@@ -7,6 +8,13 @@ import org.ggp.base.util.gdl.grammar.GdlSentence;
 public interface Prover
 {
 	public abstract Set<GdlSentence> askAll(GdlSentence query, Set<GdlSentence> context);
+	/**
+	 * Answers each of the queries against the same context, returning the
+	 * results of each in the order the queries were given. This gives the
+	 * same answers as calling {@link #askAll(GdlSentence, Set)} once per
+	 * query, but work the queries have in common may be shared.
+	 */
+	public abstract List<Set<GdlSentence>> askAll(List<GdlSentence> queries, Set<GdlSentence> context);
 	public abstract GdlSentence askOne(GdlSentence query, Set<GdlSentence> context);
 	public abstract boolean prove(GdlSentence query, Set<GdlSentence> context);
 }
@@ -1,7 +1,9 @@
 package org.ggp.base.util.prover.aima;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -17,8 +19,12 @@ import org.ggp.base.util.gdl.grammar.GdlOr;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
 import org.ggp.base.util.gdl.transforms.DistinctAndNotMover;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.RedundancyRemover;
 import org.ggp.base.util.prover.Prover;
 import org.ggp.base.util.prover.aima.cache.ProverCache;
 import org.ggp.base.util.prover.aima.knowledge.KnowledgeBase;
@@ -27,12 +33,26 @@ import org.ggp.base.util.prover.aima.substituter.Substituter;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
+import com.google.common.base.Predicates;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 
 
+/**
+ * A backward-chaining prover for GDL.
+ * <p>
+ * A prover may be shared by any number of threads. Its rules, its index of
+ * them and its table of state-independent answers are built when it is
+ * created and never change. Answers found during queries that do not depend
+ * on "true" or "does" are shared through a concurrent cache; two threads
+ * that find the same answers at once only store them twice. Everything else
+ * a query uses, from the context to the substitutions and the recursion
+ * bookkeeping, is created for that query and seen by its thread alone.
+ */
 public final class AimaProver implements Prover
 {
 
@@ -40,19 +60,148 @@ public final class AimaProver implements Prover
 
 	private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+	/*
+	 * Relations that never depend on "true" or "does", and every sentence
+	 * true of them, computed once when the prover is created. Queries of
+	 * these relations are answered by lookup instead of being proven.
+	 */
+	private final Set<GdlConstant> tabledRelations;
+	private final KnowledgeBase tabledAnswers;
+
+	/*
+	 * The description is cleaned first, so that a zero-arity relation such
+	 * as (open2) is the same sentence as the proposition open2, as in every
+	 * other state machine
+	 */
 	public AimaProver(List<Gdl> description)
 	{
-		description = DistinctAndNotMover.run(description);
+		this(DistinctAndNotMover.run(RedundancyRemover.run(GdlCleaner.run(description))), true);
+	}
+
+	/*
+	 * Expects a description with redundant rules and subgoals already
+	 * removed and "distinct" and "not" literals moved to the rule ends
+	 */
+	private AimaProver(List<Gdl> description, boolean tabling)
+	{
 		knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+
+		Set<GdlConstant> relations = tabling ? findStateIndependentRelations(description) : Collections.<GdlConstant>emptySet();
+		Set<GdlConstant> tabled = new HashSet<GdlConstant>(relations);
+		Set<GdlSentence> answers = new HashSet<GdlSentence>();
+		if (!relations.isEmpty())
+		{
+			AimaProver untabled = new AimaProver(description, false);
+			for (GdlSentence query : getMostGeneralQueries(description, relations))
+			{
+				Set<GdlSentence> queryAnswers = untabled.askAll(query, Collections.<GdlSentence>emptySet());
+				if (allGround(queryAnswers))
+				{
+					answers.addAll(queryAnswers);
+				}
+				else
+				{
+					// Rules like (<= (p ?x ?y) (distinct ?x ?y)) have answers with
+					// variables left in them, which a table of facts can't hold
+					tabled.remove(query.getName());
+				}
+			}
+		}
+		tabledRelations = ImmutableSet.copyOf(tabled);
+		tabledAnswers = new KnowledgeBase(answers);
+	}
+
+	/*
+	 * Finds the relations that are not downstream of "true" or "does" in the
+	 * dependency graph, computed as SentenceFormModelFactory does for constant
+	 * sentence forms but by relation name. Forms are not needed to decide
+	 * which queries can be looked up, and finding them can exhaust the stack
+	 * on deeply nested recursive functions.
+	 */
+	private static Set<GdlConstant> findStateIndependentRelations(List<Gdl> description)
+	{
+		Set<GdlConstant> relations = new HashSet<GdlConstant>();
+		SetMultimap<GdlConstant, GdlConstant> dependencyGraph = HashMultimap.create();
+		for (Gdl gdl : description)
+		{
+			if (gdl instanceof GdlRule)
+			{
+				GdlRule rule = (GdlRule) gdl;
+				GdlConstant head = rule.getHead().getName();
+				relations.add(head);
+				for (GdlSentence sentence : GdlUtils.getSentencesInRuleBody(rule))
+				{
+					relations.add(sentence.getName());
+					dependencyGraph.put(head, sentence.getName());
+				}
+			}
+			else if (gdl instanceof GdlSentence)
+			{
+				relations.add(((GdlSentence) gdl).getName());
+			}
+		}
+		relations.add(GdlPool.TRUE);
+		relations.add(GdlPool.DOES);
+		Set<GdlConstant> stateDependent = DependencyGraphs.getMatchingAndDownstream(relations, dependencyGraph,
+				Predicates.in(ImmutableSet.of(GdlPool.TRUE, GdlPool.DOES)));
+		return ImmutableSet.copyOf(Sets.difference(relations, stateDependent));
+	}
+
+	private static boolean allGround(Set<GdlSentence> sentences)
+	{
+		for (GdlSentence sentence : sentences)
+		{
+			if (!sentence.isGround())
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * One query with a distinct variable in every argument for each arity
+	 * the relations are defined with
+	 */
+	private static Set<GdlSentence> getMostGeneralQueries(List<Gdl> description, Set<GdlConstant> relations)
+	{
+		Set<GdlSentence> queries = new HashSet<GdlSentence>();
+		for (Gdl gdl : description)
+		{
+			GdlSentence head = (gdl instanceof GdlRule) ? ((GdlRule) gdl).getHead() : (gdl instanceof GdlSentence) ? (GdlSentence) gdl : null;
+			if (head == null || !relations.contains(head.getName()))
+			{
+				continue;
+			}
+			if (head.arity() == 0)
+			{
+				queries.add(GdlPool.getProposition(head.getName()));
+			}
+			else
+			{
+				List<GdlTerm> variables = new ArrayList<GdlTerm>(head.arity());
+				for (int i = 0; i < head.arity(); i++)
+				{
+					variables.add(GdlPool.getVariable("?t" + i));
+				}
+				queries.add(GdlPool.getRelation(head.getName(), variables));
+			}
+		}
+		return queries;
 	}
 
 	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
+	{
+		return ask(query, new KnowledgeBase(context), ProverCache.createSingleThreadedCache(), askOne);
+	}
+
+	private Set<GdlSentence> ask(GdlSentence query, KnowledgeBase context, ProverCache cache, boolean askOne)
 	{
 		LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
 		goals.add(query);
 
 		Set<Substitution> answers = new HashSet<Substitution>();
-		ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
+		ask(goals, context, new Substitution(), cache,
 				new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
 
 		Set<GdlSentence> results = new HashSet<GdlSentence>();
@@ -68,7 +217,7 @@ public final class AimaProver implements Prover
 	{
 		if (goals.size() == 0)
 		{
-			results.add(theta);
+			results.add(theta.copy());
 			isConstant.value = true;
 			return;
 		}
@@ -108,6 +257,25 @@ public final class AimaProver implements Prover
 		return ask(query, context, false);
 	}
 
+	/*
+	 * The queries share one indexed context and one cache of the answers
+	 * that depend on it, so a subgoal common to several of them is proven
+	 * only once.
+	 */
+	@Override
+	public List<Set<GdlSentence>> askAll(List<GdlSentence> queries, Set<GdlSentence> context)
+	{
+		KnowledgeBase contextBase = new KnowledgeBase(context);
+		ProverCache cache = ProverCache.createSingleThreadedCache();
+
+		List<Set<GdlSentence>> results = new ArrayList<Set<GdlSentence>>(queries.size());
+		for (GdlSentence query : queries)
+		{
+			results.add(ask(query, contextBase, cache, false));
+		}
+		return results;
+	}
+
 	private void askDistinct(GdlDistinct distinct, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler, IsConstant isConstant)
 	{
 		if (!distinct.getArg1().equals(distinct.getArg2()))
@@ -164,12 +332,17 @@ public final class AimaProver implements Prover
 	private void askSentence(GdlSentence sentence, LinkedList<GdlLiteral> goals, KnowledgeBase context, Substitution theta, ProverCache cache, VariableRenamer renamer, boolean askOne, Set<Substitution> results, RecursionHandler recursionHandler,
 			IsConstant isConstantRet) {
 		Collection<Substitution> sentenceResults = findSentenceResults(sentence,
-				context, theta, cache, renamer, recursionHandler, isConstantRet);
+				context, cache, renamer, recursionHandler, isConstantRet);
 
 		boolean isConstant = isConstantRet.value;
 		for (Substitution thetaPrime : sentenceResults)
 		{
-			ask(goals, context, theta.compose(thetaPrime), cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			// The sentence's variables are unbound in theta, so its answers
+			// can be bound on top of it and taken off again afterwards
+			int mark = theta.mark();
+			theta.putAll(thetaPrime);
+			ask(goals, context, theta, cache, renamer, askOne, results, recursionHandler, isConstantRet);
+			theta.undo(mark);
 			isConstant &= isConstantRet.value;
 			if (askOne && (results.size() > 0))
 			{
@@ -180,10 +353,15 @@ public final class AimaProver implements Prover
 	}
 
 	private Collection<Substitution> findSentenceResults(GdlSentence sentence,
-			KnowledgeBase context, Substitution theta,
+			KnowledgeBase context,
 			ProverCache cache, VariableRenamer renamer, RecursionHandler recursionHandler,
 			IsConstant isConstantRet) {
 		GdlSentence varRenamedSentence = new VariableRenamer().rename(sentence);
+		if (tabledRelations.contains(sentence.getName()) && !fixedAnswerCache.contains(varRenamedSentence))
+		{
+			// Looked up once, then answered from the cache like any constant query
+			fixedAnswerCache.put(sentence, varRenamedSentence, lookupTabledAnswers(sentence));
+		}
 		if (!fixedAnswerCache.contains(varRenamedSentence) && !cache.contains(varRenamedSentence))
 		{
 			if (recursionHandler.alreadyAsking.contains(varRenamedSentence)) {
@@ -198,29 +376,10 @@ public final class AimaProver implements Prover
 				return results;
 			}
 			recursionHandler.alreadyAsking.add(varRenamedSentence);
-			List<GdlRule> candidates = new ArrayList<GdlRule>();
-			candidates.addAll(knowledgeBase.fetch(sentence));
-			candidates.addAll(context.fetch(sentence));
 			boolean isConstant = !isTrueOrDoesSentence(sentence);
 
 			Set<Substitution> sentenceResults = new HashSet<Substitution>();
-			for (GdlRule rule : candidates)
-			{
-				GdlRule r = renamer.rename(rule);
-				Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
-
-				if (thetaPrime != null)
-				{
-					LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
-					for (int i = 0; i < r.arity(); i++)
-					{
-						sentenceGoals.add(r.get(i));
-					}
-
-					ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
-					isConstant &= isConstantRet.value;
-				}
-			}
+			isConstant &= askCandidates(sentence, context, cache, renamer, sentenceResults, recursionHandler, isConstantRet);
 
 			if (recursionHandler.calledRecursively.contains(varRenamedSentence)) {
 				Set<GdlSentence> sentencesFromResults = Sets.newHashSet();
@@ -232,19 +391,12 @@ public final class AimaProver implements Prover
 					recursionHandler.previousResults.putAll(varRenamedSentence, sentencesFromResults);
 
 					sentenceResults = Sets.newHashSet();
-					for (GdlRule rule : candidates) {
-						GdlRule r = renamer.rename(rule);
-						Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
-
-						if (thetaPrime != null) {
-							LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
-							for (int i = 0; i < r.arity(); i++) {
-								sentenceGoals.add(r.get(i));
-							}
-
-							ask(sentenceGoals, context, theta.compose(thetaPrime), cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
-							isConstant &= isConstantRet.value;
-						}
+					isConstant &= askCandidates(sentence, context, cache, renamer, sentenceResults, recursionHandler, isConstantRet);
+
+					// Keep going until a pass finds nothing new, not just for one more pass
+					sentencesFromResults = Sets.newHashSet();
+					for (Substitution result : sentenceResults) {
+						sentencesFromResults.add(Substituter.substitute(sentence, result));
 					}
 				}
 				recursionHandler.calledRecursively.remove(varRenamedSentence);
@@ -278,6 +430,69 @@ public final class AimaProver implements Prover
 		return cachedResults;
 	}
 
+	/*
+	 * Adds to sentenceResults every way of proving the sentence from the facts
+	 * and rules that the knowledge bases index under it. Facts are ground, so
+	 * they need neither renaming nor a body to be proven. Returns whether
+	 * every answer was independent of "true" and "does" sentences.
+	 *
+	 * The bindings made before asking about the sentence are left out of
+	 * its answers: none of them are of the sentence's own variables, which
+	 * are all the answers are used for.
+	 */
+	private boolean askCandidates(GdlSentence sentence, KnowledgeBase context, ProverCache cache, VariableRenamer renamer, Set<Substitution> sentenceResults, RecursionHandler recursionHandler, IsConstant isConstantRet)
+	{
+		boolean isConstant = true;
+		// Facts are matched against one substitution, which is only copied
+		// for the ones that unify
+		Substitution factTheta = new Substitution();
+		int mark = factTheta.mark();
+		for (KnowledgeBase kb : Arrays.asList(knowledgeBase, context))
+		{
+			for (GdlSentence fact : kb.fetchFacts(sentence))
+			{
+				if (Unifier.unify(fact, sentence, factTheta))
+				{
+					sentenceResults.add(factTheta.copy());
+					factTheta.undo(mark);
+				}
+			}
+
+			for (GdlRule rule : kb.fetchRules(sentence))
+			{
+				GdlRule r = renamer.rename(rule);
+				Substitution thetaPrime = Unifier.unify(r.getHead(), sentence);
+
+				if (thetaPrime != null)
+				{
+					LinkedList<GdlLiteral> sentenceGoals = new LinkedList<GdlLiteral>();
+					for (int i = 0; i < r.arity(); i++)
+					{
+						sentenceGoals.add(r.get(i));
+					}
+
+					ask(sentenceGoals, context, thetaPrime, cache, renamer, false, sentenceResults, recursionHandler, isConstantRet);
+					isConstant &= isConstantRet.value;
+				}
+			}
+		}
+		return isConstant;
+	}
+
+	private Set<Substitution> lookupTabledAnswers(GdlSentence sentence)
+	{
+		Set<Substitution> results = new HashSet<Substitution>();
+		for (GdlSentence answer : tabledAnswers.fetchFacts(sentence))
+		{
+			Substitution thetaPrime = Unifier.unify(sentence, answer);
+			if (thetaPrime != null)
+			{
+				results.add(thetaPrime);
+			}
+		}
+		return results;
+	}
+
 	private Collection<Substitution> filterSentenceResults(
 			GdlSentence sentence, Set<Substitution> sentenceResults) {
 		Set<GdlVariable> varsInSentence = GdlUtils.getVariablesSet(sentence);
@@ -285,7 +500,11 @@ public final class AimaProver implements Prover
 		for (Substitution result : sentenceResults) {
 			Substitution fixedResult = new Substitution();
 			for (GdlVariable var : varsInSentence) {
-				fixedResult.put(var, result.get(var));
+				GdlTerm term = Substituter.substitute(var, result);
+				// A variable that no rule bound is left free, not bound to itself
+				if (term != var) {
+					fixedResult.put(var, term);
+				}
 			}
 			results.add(fixedResult);
 		}
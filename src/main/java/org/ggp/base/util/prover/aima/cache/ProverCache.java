@@ -45,13 +45,15 @@ public final class ProverCache
 		if (cacheContents == null) {
 			return null;
 		}
-		Set<Substitution> results = new HashSet<Substitution>();
+		// The answers are distinct instances of the sentence, so the
+		// substitutions that give them are distinct too
+		List<Substitution> results = new ArrayList<Substitution>(cacheContents.size());
 		for (GdlSentence answer : cacheContents)
 		{
 			results.add(Unifier.unify(sentence, answer));
 		}
 
-		return new ArrayList<Substitution>(results);
+		return results;
 	}
 
 	public void put(GdlSentence sentence, GdlSentence renamedSentence,
@@ -1,6 +1,7 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,42 +9,235 @@ import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
 
-
+/**
+ * The rules and facts a prover searches, grouped by relation name.
+ * <p>
+ * Ground facts are kept apart from rules, so that the prover can match them
+ * without renaming variables or proving a body. Within a relation with many
+ * entries, both are indexed on every argument position by the constant (or
+ * function name) found there. A query is answered from the position where
+ * its own argument is most discriminating: the entries with the same key
+ * there, plus those with a variable there, which could match anything.
+ * Entries returned may still fail to unify with the query, but entries left
+ * out never could.
+ * <p>
+ * The index is built in the constructor and never changes, so it can be read
+ * from any number of threads without locking.
+ */
 public final class KnowledgeBase
 {
-	private final Map<GdlConstant, List<GdlRule>> contents;
+	/** Relations with fewer entries than this are scanned rather than indexed. */
+	private static final int INDEX_THRESHOLD = 8;
+
+	private final Map<GdlConstant, ArgumentIndex<GdlRule>> rules;
+	private final Map<GdlConstant, ArgumentIndex<GdlSentence>> facts;
 
 	public KnowledgeBase(Set<? extends Gdl> description)
 	{
-		contents = new HashMap<GdlConstant, List<GdlRule>>();
+		Map<GdlConstant, List<GdlRule>> ruleLists = new HashMap<GdlConstant, List<GdlRule>>();
+		Map<GdlConstant, List<GdlSentence>> factLists = new HashMap<GdlConstant, List<GdlSentence>>();
 		for (Gdl gdl : description)
 		{
 			GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
-			GdlConstant key = rule.getHead().getName();
+			GdlSentence head = rule.getHead();
+			GdlConstant key = head.getName();
 
-			if (!contents.containsKey(key))
+			if (rule.arity() == 0 && head.isGround())
+			{
+				if (!factLists.containsKey(key))
+				{
+					factLists.put(key, new ArrayList<GdlSentence>());
+				}
+				factLists.get(key).add(head);
+			}
+			else
 			{
-				contents.put(key, new ArrayList<GdlRule>());
+				if (!ruleLists.containsKey(key))
+				{
+					ruleLists.put(key, new ArrayList<GdlRule>());
+				}
+				ruleLists.get(key).add(rule);
 			}
-			contents.get(key).add(rule);
 		}
+
+		rules = new HashMap<GdlConstant, ArgumentIndex<GdlRule>>();
+		for (Map.Entry<GdlConstant, List<GdlRule>> entry : ruleLists.entrySet())
+		{
+			List<GdlSentence> heads = new ArrayList<GdlSentence>(entry.getValue().size());
+			for (GdlRule rule : entry.getValue())
+			{
+				heads.add(rule.getHead());
+			}
+			rules.put(entry.getKey(), new ArgumentIndex<GdlRule>(entry.getValue(), heads));
+		}
+		facts = new HashMap<GdlConstant, ArgumentIndex<GdlSentence>>();
+		for (Map.Entry<GdlConstant, List<GdlSentence>> entry : factLists.entrySet())
+		{
+			facts.put(entry.getKey(), new ArgumentIndex<GdlSentence>(entry.getValue(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Returns every rule and fact that might unify with the sentence, the
+	 * facts as rules without a body.
+	 */
+	public List<GdlRule> fetch(GdlSentence sentence)
+	{
+		List<GdlRule> candidates = new ArrayList<GdlRule>(fetchRules(sentence));
+		for (GdlSentence fact : fetchFacts(sentence))
+		{
+			candidates.add(GdlPool.getRule(fact));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Returns the rules, and any non-ground facts, whose head might unify
+	 * with the sentence. The list must not be modified.
+	 */
+	public List<GdlRule> fetchRules(GdlSentence sentence)
+	{
+		ArgumentIndex<GdlRule> index = rules.get(sentence.getName());
+		return index == null ? Collections.<GdlRule>emptyList() : index.lookup(sentence);
+	}
+
+	/**
+	 * Returns the ground facts that might unify with the sentence. The list
+	 * must not be modified.
+	 */
+	public List<GdlSentence> fetchFacts(GdlSentence sentence)
+	{
+		ArgumentIndex<GdlSentence> index = facts.get(sentence.getName());
+		return index == null ? Collections.<GdlSentence>emptyList() : index.lookup(sentence);
+	}
+
+	/**
+	 * The key an argument is indexed by: a constant itself, the name of a
+	 * function, or null for a variable, which matches anything.
+	 */
+	private static GdlConstant keyOf(GdlTerm term)
+	{
+		if (term instanceof GdlConstant)
+		{
+			return (GdlConstant) term;
+		}
+		else if (term instanceof GdlFunction)
+		{
+			return ((GdlFunction) term).getName();
+		}
+		return null;
 	}
 
-	public synchronized List<GdlRule> fetch(GdlSentence sentence)
+	/**
+	 * The entries of one relation, indexed on each argument position.
+	 */
+	private static final class ArgumentIndex<T>
 	{
-		GdlConstant key = sentence.getName();
+		private final List<T> entries;
+		// Arity shared by every head, or -1 if the relation is not indexed
+		private final int arity;
+		// Per position, the entries whose argument there has each key
+		private final List<Map<GdlConstant, List<T>>> keyed;
+		// Per position, the entries with a variable there
+		private final List<List<T>> unkeyed;
 
-		if (contents.containsKey(key))
+		private ArgumentIndex(List<T> entries, List<GdlSentence> heads)
 		{
-			return contents.get(key);
+			this.entries = Collections.unmodifiableList(entries);
+			this.keyed = new ArrayList<Map<GdlConstant, List<T>>>();
+			this.unkeyed = new ArrayList<List<T>>();
+
+			int sharedArity = heads.get(0).arity();
+			for (GdlSentence head : heads)
+			{
+				if (head.arity() != sharedArity)
+				{
+					sharedArity = -1;
+					break;
+				}
+			}
+			if (entries.size() < INDEX_THRESHOLD || sharedArity <= 0)
+			{
+				this.arity = -1;
+				return;
+			}
+			this.arity = sharedArity;
+
+			for (int i = 0; i < arity; i++)
+			{
+				Map<GdlConstant, List<T>> byKey = new HashMap<GdlConstant, List<T>>();
+				List<T> variable = new ArrayList<T>();
+				for (int e = 0; e < entries.size(); e++)
+				{
+					GdlConstant key = keyOf(heads.get(e).get(i));
+					if (key == null)
+					{
+						variable.add(entries.get(e));
+						continue;
+					}
+					List<T> list = byKey.get(key);
+					if (list == null)
+					{
+						list = new ArrayList<T>();
+						byKey.put(key, list);
+					}
+					list.add(entries.get(e));
+				}
+				keyed.add(byKey);
+				unkeyed.add(variable);
+			}
 		}
-		else
+
+		private List<T> lookup(GdlSentence query)
 		{
-			return new ArrayList<GdlRule>();
+			if (arity < 0 || query.arity() != arity)
+			{
+				return entries;
+			}
+
+			int bestSize = entries.size();
+			List<T> bestKeyed = null;
+			List<T> bestUnkeyed = null;
+			for (int i = 0; i < arity; i++)
+			{
+				GdlConstant key = keyOf(query.get(i));
+				if (key == null)
+				{
+					continue;
+				}
+				List<T> matches = keyed.get(i).get(key);
+				List<T> variable = unkeyed.get(i);
+				int size = (matches == null ? 0 : matches.size()) + variable.size();
+				if (size < bestSize || bestUnkeyed == null)
+				{
+					bestSize = size;
+					bestKeyed = matches;
+					bestUnkeyed = variable;
+				}
+			}
+
+			if (bestUnkeyed == null)
+			{
+				return entries;
+			}
+			if (bestUnkeyed.isEmpty())
+			{
+				return bestKeyed == null ? Collections.<T>emptyList() : bestKeyed;
+			}
+			if (bestKeyed == null)
+			{
+				return bestUnkeyed;
+			}
+			List<T> candidates = new ArrayList<T>(bestSize);
+			candidates.addAll(bestKeyed);
+			candidates.addAll(bestUnkeyed);
+			return candidates;
 		}
 	}
-}
\ No newline at end of file
+}
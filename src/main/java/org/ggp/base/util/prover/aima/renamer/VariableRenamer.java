@@ -1,9 +1,8 @@
 package org.ggp.base.util.prover.aima.renamer;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlDistinct;
@@ -20,32 +19,46 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 
 
+/**
+ * Gives the variables of rules and sentences fresh names, ?R0, ?R1 and so
+ * on, counting up from where the last renaming left off.
+ */
 public class VariableRenamer
 {
 
 	private int nextName;
 
+	// The renaming in progress: renamed[i] becomes renamings[i], for i < size
+	private GdlVariable[] renamed;
+	private GdlVariable[] renamings;
+	private int size;
+
 	public VariableRenamer()
 	{
 		nextName = 0;
+		renamed = null;
+		renamings = null;
+		size = 0;
 	}
 
 	public GdlRule rename(GdlRule rule)
 	{
-		return renameRule(rule, new HashMap<GdlVariable, GdlVariable>());
+		size = 0;
+		return renameRule(rule);
 	}
 
 	public GdlSentence rename(GdlSentence sentence)
 	{
-		return renameSentence(sentence, new HashMap<GdlVariable, GdlVariable>());
+		size = 0;
+		return renameSentence(sentence);
 	}
 
-	private GdlConstant renameConstant(GdlConstant constant, Map<GdlVariable, GdlVariable> renamings)
+	private GdlConstant renameConstant(GdlConstant constant)
 	{
 		return constant;
 	}
 
-	private GdlDistinct renameDistinct(GdlDistinct distinct, Map<GdlVariable, GdlVariable> renamings)
+	private GdlDistinct renameDistinct(GdlDistinct distinct)
 	{
 		if (distinct.isGround())
 		{
@@ -53,14 +66,14 @@ public class VariableRenamer
 		}
 		else
 		{
-			GdlTerm arg1 = renameTerm(distinct.getArg1(), renamings);
-			GdlTerm arg2 = renameTerm(distinct.getArg2(), renamings);
+			GdlTerm arg1 = renameTerm(distinct.getArg1());
+			GdlTerm arg2 = renameTerm(distinct.getArg2());
 
 			return GdlPool.getDistinct(arg1, arg2);
 		}
 	}
 
-	private GdlFunction renameFunction(GdlFunction function, Map<GdlVariable, GdlVariable> renamings)
+	private GdlFunction renameFunction(GdlFunction function)
 	{
 		if (function.isGround())
 		{
@@ -68,39 +81,39 @@ public class VariableRenamer
 		}
 		else
 		{
-			GdlConstant name = renameConstant(function.getName(), renamings);
+			GdlConstant name = renameConstant(function.getName());
 
-			List<GdlTerm> body = new ArrayList<GdlTerm>();
+			List<GdlTerm> body = new ArrayList<GdlTerm>(function.arity());
 			for (int i = 0; i < function.arity(); i++)
 			{
-				body.add(renameTerm(function.get(i), renamings));
+				body.add(renameTerm(function.get(i)));
 			}
 
 			return GdlPool.getFunction(name, body);
 		}
 	}
 
-	private GdlLiteral renameLiteral(GdlLiteral literal, Map<GdlVariable, GdlVariable> renamings)
+	private GdlLiteral renameLiteral(GdlLiteral literal)
 	{
 		if (literal instanceof GdlDistinct)
 		{
-			return renameDistinct((GdlDistinct) literal, renamings);
+			return renameDistinct((GdlDistinct) literal);
 		}
 		else if (literal instanceof GdlNot)
 		{
-			return renameNot((GdlNot) literal, renamings);
+			return renameNot((GdlNot) literal);
 		}
 		else if (literal instanceof GdlOr)
 		{
-			return renameOr((GdlOr) literal, renamings);
+			return renameOr((GdlOr) literal);
 		}
 		else
 		{
-			return renameSentence((GdlSentence) literal, renamings);
+			return renameSentence((GdlSentence) literal);
 		}
 	}
 
-	private GdlNot renameNot(GdlNot not, Map<GdlVariable, GdlVariable> renamings)
+	private GdlNot renameNot(GdlNot not)
 	{
 		if (not.isGround())
 		{
@@ -108,12 +121,12 @@ public class VariableRenamer
 		}
 		else
 		{
-			GdlLiteral body = renameLiteral(not.getBody(), renamings);
+			GdlLiteral body = renameLiteral(not.getBody());
 			return GdlPool.getNot(body);
 		}
 	}
 
-	private GdlOr renameOr(GdlOr or, Map<GdlVariable, GdlVariable> renamings)
+	private GdlOr renameOr(GdlOr or)
 	{
 		if (or.isGround())
 		{
@@ -124,19 +137,19 @@ public class VariableRenamer
 			List<GdlLiteral> disjuncts = new ArrayList<GdlLiteral>();
 			for (int i = 0; i < or.arity(); i++)
 			{
-				disjuncts.add(renameLiteral(or.get(i), renamings));
+				disjuncts.add(renameLiteral(or.get(i)));
 			}
 
 			return GdlPool.getOr(disjuncts);
 		}
 	}
 
-	private GdlProposition renameProposition(GdlProposition proposition, Map<GdlVariable, GdlVariable> renamings)
+	private GdlProposition renameProposition(GdlProposition proposition)
 	{
 		return proposition;
 	}
 
-	private GdlRelation renameRelation(GdlRelation relation, Map<GdlVariable, GdlVariable> renamings)
+	private GdlRelation renameRelation(GdlRelation relation)
 	{
 		if (relation.isGround())
 		{
@@ -144,19 +157,19 @@ public class VariableRenamer
 		}
 		else
 		{
-			GdlConstant name = renameConstant(relation.getName(), renamings);
+			GdlConstant name = renameConstant(relation.getName());
 
-			List<GdlTerm> body = new ArrayList<GdlTerm>();
+			List<GdlTerm> body = new ArrayList<GdlTerm>(relation.arity());
 			for (int i = 0; i < relation.arity(); i++)
 			{
-				body.add(renameTerm(relation.get(i), renamings));
+				body.add(renameTerm(relation.get(i)));
 			}
 
 			return GdlPool.getRelation(name, body);
 		}
 	}
 
-	private GdlRule renameRule(GdlRule rule, Map<GdlVariable, GdlVariable> renamings)
+	private GdlRule renameRule(GdlRule rule)
 	{
 		if (rule.isGround())
 		{
@@ -164,55 +177,72 @@ public class VariableRenamer
 		}
 		else
 		{
-			GdlSentence head = renameSentence(rule.getHead(), renamings);
+			GdlSentence head = renameSentence(rule.getHead());
 
-			List<GdlLiteral> body = new ArrayList<GdlLiteral>();
+			List<GdlLiteral> body = new ArrayList<GdlLiteral>(rule.arity());
 			for (int i = 0; i < rule.arity(); i++)
 			{
-				body.add(renameLiteral(rule.get(i), renamings));
+				body.add(renameLiteral(rule.get(i)));
 			}
 
 			return GdlPool.getRule(head, body);
 		}
 	}
 
-	private GdlSentence renameSentence(GdlSentence sentence, Map<GdlVariable, GdlVariable> renamings)
+	private GdlSentence renameSentence(GdlSentence sentence)
 	{
 		if (sentence instanceof GdlProposition)
 		{
-			return renameProposition((GdlProposition) sentence, renamings);
+			return renameProposition((GdlProposition) sentence);
 		}
 		else
 		{
-			return renameRelation((GdlRelation) sentence, renamings);
+			return renameRelation((GdlRelation) sentence);
 		}
 	}
 
-	private GdlTerm renameTerm(GdlTerm term, Map<GdlVariable, GdlVariable> renamings)
+	private GdlTerm renameTerm(GdlTerm term)
 	{
 		if (term instanceof GdlConstant)
 		{
-			return renameConstant((GdlConstant) term, renamings);
+			return renameConstant((GdlConstant) term);
 		}
 		else if (term instanceof GdlVariable)
 		{
-			return renameVariable((GdlVariable) term, renamings);
+			return renameVariable((GdlVariable) term);
 		}
 		else
 		{
-			return renameFunction((GdlFunction) term, renamings);
+			return renameFunction((GdlFunction) term);
 		}
 	}
 
-	private GdlVariable renameVariable(GdlVariable variable, Map<GdlVariable, GdlVariable> renamings)
+	private GdlVariable renameVariable(GdlVariable variable)
 	{
-		if (!renamings.containsKey(variable))
+		for (int i = 0; i < size; i++)
 		{
-			GdlVariable newName = GdlPool.getVariable("?R" + (nextName++));
-			renamings.put(variable, newName);
+			if (renamed[i] == variable)
+			{
+				return renamings[i];
+			}
 		}
 
-		return renamings.get(variable);
+		if (renamed == null)
+		{
+			// Most sentences asked about have only a few variables, if any
+			renamed = new GdlVariable[4];
+			renamings = new GdlVariable[4];
+		}
+		else if (size == renamed.length)
+		{
+			renamed = Arrays.copyOf(renamed, size * 2);
+			renamings = Arrays.copyOf(renamings, size * 2);
+		}
+		GdlVariable newName = GdlPool.getVariable("?R" + (nextName++));
+		renamed[size] = variable;
+		renamings[size] = newName;
+		size++;
+		return newName;
 	}
 
 }
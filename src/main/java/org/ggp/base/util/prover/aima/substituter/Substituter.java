@@ -37,6 +37,11 @@ public final class Substituter
 		return substituteRule(rule, theta);
 	}
 
+	public static GdlTerm substitute(GdlTerm term, Substitution theta)
+	{
+		return substituteTerm(term, theta);
+	}
+
 	private static GdlConstant substituteConstant(GdlConstant constant, Substitution theta)
 	{
 		return constant;
@@ -67,7 +72,7 @@ public final class Substituter
 		{
 			GdlConstant name = substituteConstant(function.getName(), theta);
 
-			List<GdlTerm> body = new ArrayList<GdlTerm>();
+			List<GdlTerm> body = new ArrayList<GdlTerm>(function.arity());
 			for (int i = 0; i < function.arity(); i++)
 			{
 				body.add(substituteTerm(function.get(i), theta));
@@ -118,7 +123,7 @@ public final class Substituter
 		}
 		else
 		{
-			List<GdlLiteral> disjuncts = new ArrayList<GdlLiteral>();
+			List<GdlLiteral> disjuncts = new ArrayList<GdlLiteral>(or.arity());
 			for (int i = 0; i < or.arity(); i++)
 			{
 				disjuncts.add(substituteLiteral(or.get(i), theta));
@@ -143,7 +148,7 @@ public final class Substituter
 		{
 			GdlConstant name = substituteConstant(relation.getName(), theta);
 
-			List<GdlTerm> body = new ArrayList<GdlTerm>();
+			List<GdlTerm> body = new ArrayList<GdlTerm>(relation.arity());
 			for (int i = 0; i < relation.arity(); i++)
 			{
 				body.add(substituteTerm(relation.get(i), theta));
@@ -206,7 +211,7 @@ public final class Substituter
 	{
 		GdlSentence head = substitute(rule.getHead(), theta);
 
-		List<GdlLiteral> body = new ArrayList<GdlLiteral>();
+		List<GdlLiteral> body = new ArrayList<GdlLiteral>(rule.arity());
 		for ( GdlLiteral literal : rule.getBody() )
 		{
 			body.add(substituteLiteral(literal, theta));
@@ -1,5 +1,6 @@
 package org.ggp.base.util.prover.aima.substitution;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,14 +8,38 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
 
 
+/**
+ * A set of variable bindings.
+ * <p>
+ * Once a mark has been taken, bindings are also recorded on a trail, so that
+ * a prover can extend one substitution as it goes deeper into a proof and
+ * take the bindings back off when it backtracks: {@link #mark()} before
+ * binding, then {@link #undo(int)} to that mark. This saves copying every binding made so
+ * far for each alternative tried. A substitution that has to outlive the
+ * backtracking, such as an answer, is taken with {@link #copy()}.
+ */
 public final class Substitution
 {
 
 	private final Map<GdlVariable, GdlTerm> contents;
 
+	// Variables in the order they were bound, up to trailSize, and what
+	// each was bound to before (null if nothing)
+	private GdlVariable[] trail;
+	private GdlTerm[] previousTerms;
+	private int trailSize;
+
 	public Substitution()
 	{
-		contents = new HashMap<GdlVariable, GdlTerm>();
+		this(new HashMap<GdlVariable, GdlTerm>());
+	}
+
+	private Substitution(Map<GdlVariable, GdlTerm> contents)
+	{
+		this.contents = contents;
+		this.trail = null;
+		this.previousTerms = null;
+		this.trailSize = 0;
 	}
 
 	public Substitution compose(Substitution thetaPrime)
@@ -55,21 +80,83 @@ public final class Substitution
 		return contents.hashCode();
 	}
 
+	/**
+	 * Binds the variable to the term, replacing any term it was bound to.
+	 * Undoing the binding restores the old one.
+	 */
 	public void put(GdlVariable variable, GdlTerm term)
 	{
-		contents.put(variable, term);
+		GdlTerm previous = contents.put(variable, term);
+		// Bindings made before the first mark can never be undone
+		if (trail != null)
+		{
+			if (trailSize == trail.length)
+			{
+				trail = Arrays.copyOf(trail, trailSize * 2);
+				previousTerms = Arrays.copyOf(previousTerms, trailSize * 2);
+			}
+			trail[trailSize] = variable;
+			previousTerms[trailSize] = previous;
+			trailSize++;
+		}
+	}
+
+	/**
+	 * Adds every binding of the other substitution to this one, as
+	 * {@link #put(GdlVariable, GdlTerm)} would.
+	 */
+	public void putAll(Substitution other)
+	{
+		for (Map.Entry<GdlVariable, GdlTerm> entry : other.contents.entrySet())
+		{
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Returns a mark for the bindings made so far, to pass to
+	 * {@link #undo(int)}.
+	 */
+	public int mark()
+	{
+		if (trail == null)
+		{
+			trail = new GdlVariable[4];
+			previousTerms = new GdlTerm[4];
+		}
+		return trailSize;
+	}
+
+	/**
+	 * Removes every binding made since the mark was taken.
+	 */
+	public void undo(int mark)
+	{
+		while (trailSize > mark)
+		{
+			trailSize--;
+			if (previousTerms[trailSize] == null)
+			{
+				contents.remove(trail[trailSize]);
+			}
+			else
+			{
+				contents.put(trail[trailSize], previousTerms[trailSize]);
+			}
+			trail[trailSize] = null;
+			previousTerms[trailSize] = null;
+		}
 	}
 
 	/**
-	 * Creates an identical substitution.
+	 * Creates an identical substitution. Its bindings are its own, and
+	 * cannot be undone.
 	 *
 	 * @return A new, identical substitution.
 	 */
 	public Substitution copy()
 	{
-		Substitution copy = new Substitution();
-		copy.contents.putAll(contents);
-		return copy;
+		return new Substitution(new HashMap<GdlVariable, GdlTerm>(contents));
 	}
 
 	@Override
@@ -2,6 +2,7 @@ package org.ggp.base.util.prover.aima.unifier;
 
 import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
@@ -13,7 +14,7 @@ public final class Unifier
     public static Substitution unify(GdlSentence x, GdlSentence y)
     {
         Substitution theta = new Substitution();
-        boolean isGood = unifyTerm(x.toTerm(), y.toTerm(), theta);
+        boolean isGood = unifySentence(x, y, theta);
 
         if(isGood)
             return theta;
@@ -21,6 +22,42 @@ public final class Unifier
             return null;
     }
 
+    /**
+     * Extends theta with the bindings that unify x and y. If they do not
+     * unify, any bindings made along the way are undone and theta is left
+     * as it was.
+     */
+    public static boolean unify(GdlSentence x, GdlSentence y, Substitution theta)
+    {
+        int mark = theta.mark();
+        if (unifySentence(x, y, theta))
+        {
+            return true;
+        }
+        theta.undo(mark);
+        return false;
+    }
+
+    /*
+     * Matches the sentences argument by argument, rather than turning them
+     * into terms first, which would build and pool a function for each.
+     */
+    private static boolean unifySentence(GdlSentence x, GdlSentence y, Substitution theta)
+    {
+        if (x == y)
+            return true;
+        if (!x.getName().equals(y.getName()) || x.arity() != y.arity()
+                || (x instanceof GdlProposition) != (y instanceof GdlProposition))
+            return false;
+
+        for (int i = 0; i < x.arity(); i++)
+        {
+            if (! unifyTerm(x.get(i), y.get(i), theta))
+                return false;
+        }
+        return true;
+    }
+
     private static boolean unifyTerm(GdlTerm x, GdlTerm y, Substitution theta)
     {
     	if(x.equals(y))
@@ -49,6 +86,8 @@ public final class Unifier
 
             if (! unifyTerm(xFunction.getName(), yFunction.getName(), theta))
                 return false;
+            if (xFunction.arity() != yFunction.arity())
+                return false;
 
             for (int i = 0; i < xFunction.arity(); i++)
             {
@@ -1,9 +1,11 @@
 package org.ggp.base.util.reasoner.gdl;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -25,6 +27,7 @@ import org.ggp.base.util.gdl.model.assignments.AssignmentIterator;
 import org.ggp.base.util.gdl.model.assignments.Assignments;
 import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
 import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.IterationOrderCandidate;
 import org.ggp.base.util.gdl.transforms.CommonTransforms;
 import org.ggp.base.util.reasoner.DifferentialForwardChainingReasoner;
 
@@ -39,18 +42,39 @@ public class GdlChainingReasoner implements
 		DifferentialForwardChainingReasoner<GdlRule, GdlSentenceSet> {
 	private final SentenceFormModel model;
 	private final ImmutableMultimap<SentenceForm, GdlSentence> constants;
+	private final Map<GdlSentence, SentenceForm> sentenceForms = new ConcurrentHashMap<GdlSentence, SentenceForm>();
+	//Null unless iteration orders are reused
+	private final Map<GdlRule, IterationOrder> iterationOrders;
 
-	private GdlChainingReasoner(SentenceFormModel model, ImmutableMultimap<SentenceForm, GdlSentence> constants) {
+	private GdlChainingReasoner(SentenceFormModel model, ImmutableMultimap<SentenceForm, GdlSentence> constants,
+			Map<GdlRule, IterationOrder> iterationOrders) {
 		this.model = model;
 		this.constants = constants;
+		this.iterationOrders = iterationOrders;
 	}
 
 	public static GdlChainingReasoner create(SentenceFormModel model) {
+		return create(model, false);
+	}
+
+	/**
+	 * If reuseIterationOrders is true, the order in which the assignments
+	 * of a rule are iterated over in {@link #getRuleResults(GdlRule, SentenceDomainModel, GdlSentenceSet)}
+	 * is chosen the first time the rule is applied and reused afterwards,
+	 * instead of being searched for on every call. This suits applying the
+	 * same rules to many similar sets of sentences, such as the states of a
+	 * game; the results are the same either way. The variable domains of the
+	 * rule are kept along with the order, so the same domain model must be
+	 * passed in every time. A reasoner that reuses iteration orders is not
+	 * thread-safe.
+	 */
+	public static GdlChainingReasoner create(SentenceFormModel model, boolean reuseIterationOrders) {
 		ImmutableMultimap.Builder<SentenceForm, GdlSentence> constantsBuilder = ImmutableMultimap.builder();
 		for (SentenceForm form : model.getSentenceForms()) {
 			constantsBuilder.putAll(form, model.getSentencesListedAsTrue(form));
 		}
-		return new GdlChainingReasoner(model, constantsBuilder.build());
+		return new GdlChainingReasoner(model, constantsBuilder.build(),
+				reuseIterationOrders ? new HashMap<GdlRule, IterationOrder>() : null);
 	}
 
 	@Override
@@ -63,12 +87,24 @@ public class GdlChainingReasoner implements
 			SentenceDomainModel domainModel,
 			GdlSentenceSet sentencesSoFar) throws InterruptedException {
 		ConcurrencyUtils.checkForInterruption();
-		SentenceForm headForm = model.getSentenceForm(rule.getHead());
-		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		SentenceForm headForm = getSentenceForm(rule.getHead());
 		Map<SentenceForm, ? extends FunctionInfo> functionInfoMap = sentencesSoFar.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = sentencesSoFar.getSentences().asMap();
 
-		AssignmentsImpl assignments = new AssignmentsImpl(rule, varDomains, functionInfoMap, completedSentenceFormValues);
+		AssignmentsImpl assignments;
+		if (iterationOrders == null) {
+			Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+			assignments = new AssignmentsImpl(rule, varDomains, functionInfoMap, completedSentenceFormValues);
+		} else {
+			IterationOrder order = iterationOrders.get(rule);
+			if (order == null) {
+				Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+				order = new IterationOrder(varDomains,
+						AssignmentsImpl.getBestIterationOrdering(rule, varDomains, functionInfoMap, completedSentenceFormValues));
+				iterationOrders.put(rule, order);
+			}
+			assignments = new AssignmentsImpl(rule, order.ordering, order.varDomains, functionInfoMap, completedSentenceFormValues);
+		}
 		AssignmentIterator asnItr = assignments.getIterator();
 		GdlSentenceSet sentencesToAdd = GdlSentenceSet.create();
 		while (asnItr.hasNext()) {
@@ -120,11 +156,27 @@ public class GdlChainingReasoner implements
 	private boolean satisfiesSentence(Map<GdlVariable, GdlConstant> assignment,
 			GdlSentence sentence,
 			SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
+		//Variables are only assigned constants, so the form is that of the literal
+		SentenceForm form = getSentenceForm(sentence);
 		sentence = CommonTransforms.replaceVariables(sentence, assignment);
-		SentenceForm form = model.getSentenceForm(sentence);
 		return sentencesSoFar.get(form).contains(sentence);
 	}
 
+	/**
+	 * Returns the form of a sentence appearing in a rule. Creating a form
+	 * and computing its hash code are expensive enough to dominate the cost
+	 * of applying a rule, so forms are remembered for the sentences in rules,
+	 * which are few and interned.
+	 */
+	private SentenceForm getSentenceForm(GdlSentence ruleSentence) {
+		SentenceForm form = sentenceForms.get(ruleSentence);
+		if (form == null) {
+			form = model.getSentenceForm(ruleSentence);
+			sentenceForms.put(ruleSentence, form);
+		}
+		return form;
+	}
+
 	private boolean satisfiesDistinct(Map<GdlVariable, GdlConstant> assignment,
 			GdlDistinct distinct) {
 		distinct = CommonTransforms.replaceVariables(distinct, assignment);
@@ -160,7 +212,7 @@ public class GdlChainingReasoner implements
 		for (GdlLiteral literal : rule.getBody()) {
 			ConcurrencyUtils.checkForInterruption();
 			if (literal instanceof GdlSentence) {
-				SentenceForm literalForm = domainModel.getSentenceForm((GdlSentence) literal);
+				SentenceForm literalForm = getSentenceForm((GdlSentence) literal);
 				addRuleResultsForChosenLiteral(
 						rule,
 						(GdlSentence) literal,
@@ -180,7 +232,7 @@ public class GdlChainingReasoner implements
 			SentenceDomainModel domainModel,
 			GdlSentenceSet allSentences,
 			GdlSentenceSet sentencesToAdd) {
-		SentenceForm headForm = model.getSentenceForm(rule.getHead());
+		SentenceForm headForm = getSentenceForm(rule.getHead());
 		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
 		Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = allSentences.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = allSentences.getSentences().asMap();
@@ -217,4 +269,14 @@ public class GdlChainingReasoner implements
 			}
 		}
 	}
+
+	private static class IterationOrder {
+		private final Map<GdlVariable, Set<GdlConstant>> varDomains;
+		private final IterationOrderCandidate ordering;
+
+		private IterationOrder(Map<GdlVariable, Set<GdlConstant>> varDomains, IterationOrderCandidate ordering) {
+			this.varDomains = varDomains;
+			this.ordering = ordering;
+		}
+	}
 }
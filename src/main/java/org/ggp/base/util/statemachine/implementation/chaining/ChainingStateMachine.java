@@ -0,0 +1,367 @@
+package org.ggp.base.util.statemachine.implementation.chaining;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultParser;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+/**
+ * ChainingStateMachine answers queries by forward chaining with a
+ * {@link GdlChainingReasoner}, deriving every sentence true in a state
+ * bottom-up instead of proving each query top-down as the
+ * {@link org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine}
+ * does. Subgoals shared between queries are derived only once per state, and
+ * unlike a propnet nothing is grounded ahead of time, so it suits games that
+ * are too large for a propnet.
+ * <p>
+ * Sentences of constant forms are computed once, when the machine is
+ * initialized. The rest are derived stratum by stratum in dependency order,
+ * with one full pass over the rules of a stratum followed, if the stratum is
+ * recursive, by differential passes that only look at newly derived
+ * sentences. The strata that do not depend on "does" are evaluated once per
+ * state, giving its legal, goal and terminal sentences together; the last
+ * state evaluated is kept, so that asking several of those in a row costs a
+ * single pass. The next state is found by adding the moves to a copy of that
+ * result and evaluating the remaining strata.
+ * <p>
+ * Initialization needs a sentence form model of the game, so games the model
+ * cannot be built for are not supported. The machine is not thread-safe.
+ */
+public class ChainingStateMachine extends StateMachine
+{
+    private GdlChainingReasoner reasoner;
+    private SentenceDomainModel model;
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+    private Set<GdlSentence> inputs;
+    private SetMultimap<GdlConstant, SentenceForm> formsByName;
+    /** Facts, and constant sentences that queries or the strata refer to */
+    private SetMultimap<SentenceForm, GdlSentence> constantSentences;
+    /** Strata that do not depend on "does", in the order they are evaluated */
+    private List<Stratum> stateStrata;
+    /** Strata that depend on "does", in the order they are evaluated */
+    private List<Stratum> moveStrata;
+
+    private Map<GdlSentence, SentenceForm> sentenceForms;
+
+    private MachineState lastState;
+    private GdlSentenceSet lastStateSentences;
+
+    /**
+     * Initialize must be called before using the StateMachine
+     */
+    public ChainingStateMachine()
+    {
+
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try {
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+            model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            reasoner = GdlChainingReasoner.create(model, true);
+
+            formsByName = HashMultimap.create();
+            for (SentenceForm form : model.getSentenceForms()) {
+                formsByName.put(form.getName(), form);
+            }
+
+            ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+            Set<SentenceForm> constantForms = constantChecker.getConstantSentenceForms();
+            Set<SentenceForm> dynamicForms = Sets.difference(model.getSentenceForms(), constantForms);
+
+            SetMultimap<SentenceForm, SentenceForm> dependencyGraph = ImmutableSetMultimap.copyOf(model.getDependencyGraph());
+            Set<SentenceForm> moveForms = DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(), dependencyGraph,
+                    Predicates.in(ImmutableSet.copyOf(formsByName.get(GdlPool.DOES))));
+
+            // Queries read the results directly, so those are kept even when constant
+            Set<SentenceForm> neededConstantForms = new HashSet<SentenceForm>();
+            for (GdlConstant name : ImmutableSet.of(GdlPool.LEGAL, GdlPool.GOAL, GdlPool.TERMINAL, GdlPool.NEXT)) {
+                neededConstantForms.addAll(formsByName.get(name));
+            }
+            for (SentenceForm form : dynamicForms) {
+                neededConstantForms.addAll(dependencyGraph.get(form));
+            }
+            constantSentences = HashMultimap.create();
+            for (SentenceForm form : Sets.intersection(neededConstantForms, constantForms)) {
+                constantSentences.putAll(form, constantChecker.getTrueSentences(form));
+            }
+            // Facts of forms that rules also derive, such as (goal random 100)
+            for (SentenceForm form : dynamicForms) {
+                constantSentences.putAll(form, model.getSentencesListedAsTrue(form));
+            }
+
+            stateStrata = new ArrayList<Stratum>();
+            moveStrata = new ArrayList<Stratum>();
+            for (Set<SentenceForm> forms : DependencyGraphs.toposortSafe(ImmutableSet.copyOf(dynamicForms), dependencyGraph)) {
+                Stratum stratum = new Stratum(forms, dependencyGraph);
+                if (stratum.rules.isEmpty()) {
+                    continue;
+                }
+                if (Sets.intersection(forms, moveForms).isEmpty()) {
+                    stateStrata.add(stratum);
+                } else {
+                    moveStrata.add(stratum);
+                }
+            }
+
+            initialState = new ProverResultParser().toState(getConstantSentencesNamed(constantChecker, GdlPool.INIT));
+            inputs = getConstantSentencesNamed(constantChecker, GdlPool.INPUT);
+            sentenceForms = new HashMap<GdlSentence, SentenceForm>();
+            lastState = null;
+            lastStateSentences = null;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        Set<GdlSentence> results = getSentencesFor(getStateSentences(state), GdlPool.GOAL, role);
+
+        if (results.size() != 1)
+        {
+            GamerLogger.logError("StateMachine", "Got goal results of size: " + results.size() + " when expecting size one.");
+            throw new GoalDefinitionException(state, role);
+        }
+
+        try
+        {
+            GdlConstant constant = (GdlConstant) results.iterator().next().get(1);
+
+            return Integer.parseInt(constant.toString());
+        }
+        catch (Exception e)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        return !getSentencesNamed(getStateSentences(state), GdlPool.TERMINAL).isEmpty();
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : inputs) {
+            if (sentence.get(0).equals(role.getName())) {
+                results.add(sentence);
+            }
+        }
+
+        if (results.size() == 0)
+        {
+            throw new MoveDefinitionException(initialState, role);
+        }
+
+        return new ProverResultParser().toMoves(results);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> results = getSentencesFor(getStateSentences(state), GdlPool.LEGAL, role);
+
+        if (results.size() == 0)
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+
+        return new ProverResultParser().toMoves(results);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        GdlSentenceSet sentences = GdlSentenceSet.create(getStateSentences(state).getSentences());
+        for (GdlSentence does : ProverQueryBuilder.getContext(state, getRoles(), moves)) {
+            if (does.getName() == GdlPool.DOES) {
+                sentences.put(getSentenceForm(does), does);
+            }
+        }
+        chain(moveStrata, sentences);
+
+        return new ProverResultParser().toState(getSentencesNamed(sentences, GdlPool.NEXT));
+    }
+
+    /**
+     * Returns every sentence true in the state that does not depend on
+     * the moves made in it.
+     */
+    private GdlSentenceSet getStateSentences(MachineState state)
+    {
+        if (!state.equals(lastState)) {
+            GdlSentenceSet sentences = GdlSentenceSet.create(constantSentences);
+            for (GdlSentence sentence : state.getContents()) {
+                sentences.put(getSentenceForm(sentence), sentence);
+            }
+            chain(stateStrata, sentences);
+            lastState = state;
+            lastStateSentences = sentences;
+        }
+        return lastStateSentences;
+    }
+
+    /**
+     * Returns the form of a "true" or "does" sentence. Forms are costly to
+     * create, and the same sentences come up in state after state.
+     */
+    private SentenceForm getSentenceForm(GdlSentence sentence)
+    {
+        SentenceForm form = sentenceForms.get(sentence);
+        if (form == null) {
+            form = model.getSentenceForm(sentence);
+            sentenceForms.put(sentence, form);
+        }
+        return form;
+    }
+
+    /**
+     * Adds to the sentences everything the rules of the strata derive from
+     * them, evaluating the strata in order.
+     */
+    private void chain(List<Stratum> strata, GdlSentenceSet sentences)
+    {
+        try {
+            for (Stratum stratum : strata) {
+                // One full pass, collecting what is new
+                GdlSentenceSet newlyTrueSentences = GdlSentenceSet.create();
+                for (GdlRule rule : stratum.rules) {
+                    GdlSentenceSet ruleResults = reasoner.getRuleResults(rule, model, sentences);
+                    if (!reasoner.isSubsetOf(sentences, ruleResults)) {
+                        sentences = reasoner.getUnion(sentences, ruleResults);
+                        newlyTrueSentences = reasoner.getUnion(newlyTrueSentences, ruleResults);
+                    }
+                }
+                if (!stratum.recursive) {
+                    continue;
+                }
+
+                // Then differential passes until nothing new is derived
+                while (!newlyTrueSentences.getSentences().isEmpty()) {
+                    GdlSentenceSet newStuffInThisPass = GdlSentenceSet.create();
+                    for (GdlRule rule : stratum.rules) {
+                        GdlSentenceSet ruleResults = reasoner.getRuleResultsForNewSentences(rule, model, sentences, newlyTrueSentences);
+                        newStuffInThisPass = reasoner.getUnion(newStuffInThisPass, ruleResults);
+                    }
+                    sentences = reasoner.getUnion(sentences, newStuffInThisPass);
+                    newlyTrueSentences = newStuffInThisPass;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Set<GdlSentence> getConstantSentencesNamed(ConstantChecker constantChecker, GdlConstant name)
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (SentenceForm form : formsByName.get(name)) {
+            if (constantChecker.isConstantForm(form)) {
+                results.addAll(constantChecker.getTrueSentences(form));
+            }
+        }
+        return results;
+    }
+
+    private Set<GdlSentence> getSentencesNamed(GdlSentenceSet sentences, GdlConstant name)
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (SentenceForm form : formsByName.get(name)) {
+            results.addAll(sentences.getSentences().get(form));
+        }
+        return results;
+    }
+
+    private Set<GdlSentence> getSentencesFor(GdlSentenceSet sentences, GdlConstant name, Role role)
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : getSentencesNamed(sentences, name)) {
+            if (sentence.get(0).equals(role.getName())) {
+                results.add(sentence);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The rules of a set of sentence forms that have to be evaluated together,
+     * and whether any of them depends on another form of the set.
+     */
+    private final class Stratum
+    {
+        private final List<GdlRule> rules = new ArrayList<GdlRule>();
+        private final boolean recursive;
+
+        private Stratum(Set<SentenceForm> forms, SetMultimap<SentenceForm, SentenceForm> dependencyGraph)
+        {
+            boolean dependsOnItself = false;
+            for (SentenceForm form : forms) {
+                rules.addAll(model.getRules(form));
+                dependsOnItself |= !Sets.intersection(dependencyGraph.get(form), forms).isEmpty();
+            }
+            this.recursive = dependsOnItself;
+        }
+    }
+}
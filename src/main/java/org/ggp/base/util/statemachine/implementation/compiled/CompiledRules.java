@@ -0,0 +1,27 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+/**
+ * The superclass of the classes {@link RuleCompiler} generates. Each rule of
+ * a game becomes a method of the generated class that finds the assignments
+ * satisfying the rule's body with nested loops over the tuples of its
+ * literals, and adds the head of each to the relation of the head.
+ * <p>
+ * Relations are passed in as an array with one {@link TupleSet} per sentence
+ * form, indexed as the compiler numbered the forms.
+ */
+public abstract class CompiledRules
+{
+    /** The constant ids each variable of a rule that is looped over its domain can take */
+    protected int[][] domains;
+
+    void setDomains(int[][] domains)
+    {
+        this.domains = domains;
+    }
+
+    /**
+     * Adds the heads of every assignment satisfying the body of the rule with
+     * the given number to the relations.
+     */
+    public abstract void applyRule(int rule, TupleSet[] relations);
+}
@@ -0,0 +1,482 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfoImpl;
+import org.ggp.base.util.gdl.transforms.ConstantChecker;
+import org.ggp.base.util.gdl.transforms.ConstantCheckerFactory;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultParser;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+/**
+ * CompiledStateMachine answers queries by forward chaining, like the
+ * {@link org.ggp.base.util.statemachine.implementation.chaining.ChainingStateMachine},
+ * but with the rules compiled into Java by a {@link RuleCompiler} when the
+ * machine is initialized. Each rule becomes a nested-loop join over tuples of
+ * constant ids, so applying it involves no unification, no maps of variable
+ * assignments and no sentence objects. Like the chaining machine it grounds
+ * nothing ahead of time, so it suits games whose propnet is too large to
+ * build, at closer to compiled speed than the prover.
+ * <p>
+ * Sentences of constant forms are computed once, when the machine is
+ * initialized, and shared by every state. The rest are derived stratum by
+ * stratum in dependency order; a recursive stratum has its rules applied
+ * until they add nothing new. The strata that do not depend on "does" are
+ * evaluated once per state and the last state evaluated is kept, so asking
+ * for its legal moves, goals and terminality costs a single evaluation. The
+ * next state is found by adding the moves to that result and evaluating the
+ * remaining strata.
+ * <p>
+ * Joins are planned before any state is seen, from the sizes of the constant
+ * forms, of the initial state and of the joint move. Initialization needs a
+ * sentence form model of the game, so games the model cannot be built for
+ * are not supported. The machine is not thread-safe.
+ */
+public class CompiledStateMachine extends StateMachine
+{
+    private SentenceDomainModel model;
+    private RuleCompiler compiler;
+    private CompiledRules compiledRules;
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+    private Set<GdlSentence> inputs;
+
+    /** The forms, indexed as the compiler numbered them */
+    private List<SentenceForm> forms;
+    /** The sentences of constant forms; the other forms are left empty */
+    private TupleSet[] constantRelations;
+    /** Forms that neither are nor depend on "does", but are not constant */
+    private int[] stateForms;
+    /** "does" and the forms that depend on it */
+    private int[] moveForms;
+    /** Sentences listed as true in the description for the state forms, encoded */
+    private List<int[]> stateFacts;
+    /** Sentences listed as true in the description for the move forms, encoded */
+    private List<int[]> moveFacts;
+    private int[] legalForms;
+    private int[] goalForms;
+    private int[] terminalForms;
+    private int[] nextForms;
+    /** Strata that do not depend on "does", in the order they are evaluated */
+    private List<Stratum> stateStrata;
+    /** Strata that depend on "does", in the order they are evaluated */
+    private List<Stratum> moveStrata;
+
+    /** The form index and constant ids of each "true" and "does" sentence seen */
+    private Map<GdlSentence, int[]> encodedSentences;
+
+    private MachineState lastState;
+    private TupleSet[] lastStateRelations;
+
+    /**
+     * Initialize must be called before using the StateMachine
+     */
+    public CompiledStateMachine()
+    {
+
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try {
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+            model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            forms = ImmutableList.copyOf(model.getSentenceForms());
+
+            ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
+            Set<SentenceForm> constantForms = constantChecker.getConstantSentenceForms();
+            Set<SentenceForm> dynamicForms = Sets.difference(model.getSentenceForms(), constantForms);
+
+            SetMultimap<SentenceForm, SentenceForm> dependencyGraph = ImmutableSetMultimap.copyOf(model.getDependencyGraph());
+            Set<SentenceForm> doesDependentForms = DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(), dependencyGraph,
+                    Predicates.in(ImmutableSet.copyOf(getFormsNamed(GdlPool.DOES))));
+
+            // Join planning needs sizes; the initial state and the joint move stand in for what is not constant
+            Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
+            Map<SentenceForm, Integer> sentenceFormSizes = new HashMap<SentenceForm, Integer>();
+            for (SentenceForm form : constantForms) {
+                functionInfoMap.put(form, FunctionInfoImpl.create(form, constantChecker));
+                sentenceFormSizes.put(form, constantChecker.getTrueSentences(form).size());
+            }
+            Set<GdlSentence> initSentences = getConstantSentencesNamed(constantChecker, GdlPool.INIT);
+            for (GdlSentence init : initSentences) {
+                SentenceForm form = model.getSentenceForm(GdlPool.getRelation(GdlPool.TRUE, init.getBody()));
+                Integer size = sentenceFormSizes.get(form);
+                sentenceFormSizes.put(form, size == null ? 1 : size + 1);
+            }
+            for (SentenceForm form : getFormsNamed(GdlPool.DOES)) {
+                sentenceFormSizes.put(form, roles.size());
+            }
+            compiler = new RuleCompiler(model, forms, functionInfoMap, sentenceFormSizes);
+
+            constantRelations = new TupleSet[forms.size()];
+            List<Integer> stateFormList = new ArrayList<Integer>();
+            List<Integer> moveFormList = new ArrayList<Integer>();
+            stateFacts = new ArrayList<int[]>();
+            moveFacts = new ArrayList<int[]>();
+            for (int i = 0; i < forms.size(); i++) {
+                ConcurrencyUtils.checkForInterruption();
+                SentenceForm form = forms.get(i);
+                constantRelations[i] = new TupleSet(form.getTupleSize());
+                if (constantForms.contains(form)) {
+                    for (GdlSentence sentence : constantChecker.getTrueSentences(form)) {
+                        constantRelations[i].add(encode(sentence), 1);
+                    }
+                    continue;
+                }
+                (doesDependentForms.contains(form) ? moveFormList : stateFormList).add(i);
+                // Facts of forms that rules also derive, such as (goal random 100)
+                for (GdlSentence sentence : model.getSentencesListedAsTrue(form)) {
+                    (doesDependentForms.contains(form) ? moveFacts : stateFacts).add(encode(sentence));
+                }
+            }
+            stateForms = toArray(stateFormList);
+            moveForms = toArray(moveFormList);
+            legalForms = getFormIndicesNamed(GdlPool.LEGAL);
+            goalForms = getFormIndicesNamed(GdlPool.GOAL);
+            terminalForms = getFormIndicesNamed(GdlPool.TERMINAL);
+            nextForms = getFormIndicesNamed(GdlPool.NEXT);
+
+            List<GdlRule> rules = new ArrayList<GdlRule>();
+            stateStrata = new ArrayList<Stratum>();
+            moveStrata = new ArrayList<Stratum>();
+            for (Set<SentenceForm> stratumForms : DependencyGraphs.toposortSafe(ImmutableSet.copyOf(dynamicForms), dependencyGraph)) {
+                ConcurrencyUtils.checkForInterruption();
+                Stratum stratum = new Stratum(stratumForms, dependencyGraph, rules);
+                if (stratum.rules.length == 0) {
+                    continue;
+                }
+                if (Sets.intersection(stratumForms, doesDependentForms).isEmpty()) {
+                    stateStrata.add(stratum);
+                } else {
+                    moveStrata.add(stratum);
+                }
+            }
+            compiledRules = compiler.compile(rules);
+
+            initialState = new ProverResultParser().toState(initSentences);
+            inputs = getConstantSentencesNamed(constantChecker, GdlPool.INPUT);
+            encodedSentences = new HashMap<GdlSentence, int[]>();
+            lastState = null;
+            lastStateRelations = null;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        Set<GdlSentence> results = getSentences(getStateRelations(state), goalForms, role);
+
+        if (results.size() != 1)
+        {
+            GamerLogger.logError("StateMachine", "Got goal results of size: " + results.size() + " when expecting size one.");
+            throw new GoalDefinitionException(state, role);
+        }
+
+        try
+        {
+            GdlConstant constant = (GdlConstant) results.iterator().next().get(1);
+
+            return Integer.parseInt(constant.toString());
+        }
+        catch (Exception e)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        TupleSet[] relations = getStateRelations(state);
+        for (int form : terminalForms) {
+            if (relations[form].size() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : inputs) {
+            if (sentence.get(0).equals(role.getName())) {
+                results.add(sentence);
+            }
+        }
+
+        if (results.size() == 0)
+        {
+            throw new MoveDefinitionException(initialState, role);
+        }
+
+        return new ProverResultParser().toMoves(results);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> results = getSentences(getStateRelations(state), legalForms, role);
+
+        if (results.size() == 0)
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+
+        return new ProverResultParser().toMoves(results);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        TupleSet[] relations = getStateRelations(state).clone();
+        for (int form : moveForms) {
+            relations[form] = new TupleSet(forms.get(form).getTupleSize());
+        }
+        addFacts(relations, moveFacts);
+        for (int i = 0; i < roles.size(); i++) {
+            GdlSentence does = GdlPool.getRelation(GdlPool.DOES, new GdlTerm[] { roles.get(i).getName(), moves.get(i).getContents() });
+            add(relations, does);
+        }
+        evaluate(moveStrata, relations);
+
+        return new ProverResultParser().toState(getSentences(relations, nextForms, null));
+    }
+
+    /**
+     * Returns the relations true in the state, apart from those that depend
+     * on the moves made in it.
+     */
+    private TupleSet[] getStateRelations(MachineState state)
+    {
+        if (!state.equals(lastState)) {
+            TupleSet[] relations = constantRelations.clone();
+            for (int form : stateForms) {
+                relations[form] = new TupleSet(forms.get(form).getTupleSize());
+            }
+            addFacts(relations, stateFacts);
+            for (GdlSentence sentence : state.getContents()) {
+                add(relations, sentence);
+            }
+            evaluate(stateStrata, relations);
+            lastState = state;
+            lastStateRelations = relations;
+        }
+        return lastStateRelations;
+    }
+
+    private void evaluate(List<Stratum> strata, TupleSet[] relations)
+    {
+        for (Stratum stratum : strata) {
+            int size;
+            do {
+                size = stratum.size(relations);
+                for (int rule : stratum.rules) {
+                    compiledRules.applyRule(rule, relations);
+                }
+            } while (stratum.recursive && stratum.size(relations) != size);
+        }
+    }
+
+    private void addFacts(TupleSet[] relations, List<int[]> facts)
+    {
+        for (int[] fact : facts) {
+            relations[fact[0]].add(fact, 1);
+        }
+    }
+
+    /**
+     * Adds a "true" or "does" sentence to its relation, unless no rule
+     * could ever look at it.
+     */
+    private void add(TupleSet[] relations, GdlSentence sentence)
+    {
+        int[] encoded = encodedSentences.get(sentence);
+        if (encoded == null) {
+            encoded = encode(sentence);
+            encodedSentences.put(sentence, encoded);
+        }
+        if (encoded[0] != -1) {
+            relations[encoded[0]].add(encoded, 1);
+        }
+    }
+
+    /**
+     * Returns the index of the sentence's form, or -1 if it has none,
+     * followed by the ids of the constants in it.
+     */
+    private int[] encode(GdlSentence sentence)
+    {
+        List<GdlConstant> tuple = GdlUtils.getTupleFromGroundSentence(sentence);
+        int[] encoded = new int[tuple.size() + 1];
+        encoded[0] = compiler.getFormIndex(model.getSentenceForm(sentence));
+        for (int i = 0; i < tuple.size(); i++) {
+            encoded[i + 1] = compiler.getConstantId(tuple.get(i));
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the sentences of the forms, or only those about the given
+     * role if it is not null.
+     */
+    private Set<GdlSentence> getSentences(TupleSet[] relations, int[] formsToRead, Role role)
+    {
+        int roleId = role == null ? -1 : compiler.getConstantId(role.getName());
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (int form : formsToRead) {
+            TupleSet relation = relations[form];
+            int arity = relation.getArity();
+            int[] tuples = relation.getTuples();
+            for (int offset = 0; offset < relation.size() * arity; offset += arity) {
+                if (role != null && tuples[offset] != roleId) {
+                    continue;
+                }
+                List<GdlConstant> tuple = new ArrayList<GdlConstant>(arity);
+                for (int i = 0; i < arity; i++) {
+                    tuple.add(compiler.getConstant(tuples[offset + i]));
+                }
+                results.add(forms.get(form).getSentenceFromTuple(tuple));
+            }
+        }
+        return results;
+    }
+
+    private Set<SentenceForm> getFormsNamed(GdlConstant name)
+    {
+        Set<SentenceForm> results = new HashSet<SentenceForm>();
+        for (SentenceForm form : model.getSentenceForms()) {
+            if (form.getName() == name) {
+                results.add(form);
+            }
+        }
+        return results;
+    }
+
+    private int[] getFormIndicesNamed(GdlConstant name)
+    {
+        List<Integer> indices = new ArrayList<Integer>();
+        for (SentenceForm form : getFormsNamed(name)) {
+            indices.add(compiler.getFormIndex(form));
+        }
+        return toArray(indices);
+    }
+
+    private Set<GdlSentence> getConstantSentencesNamed(ConstantChecker constantChecker, GdlConstant name)
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (SentenceForm form : getFormsNamed(name)) {
+            if (constantChecker.isConstantForm(form)) {
+                results.addAll(constantChecker.getTrueSentences(form));
+            }
+        }
+        return results;
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * The rules of a set of sentence forms that have to be evaluated together,
+     * by their numbers in the compiled rules, and whether any of the forms
+     * depends on another form of the set.
+     */
+    private final class Stratum
+    {
+        private final int[] rules;
+        private final int[] headForms;
+        private final boolean recursive;
+
+        private Stratum(Set<SentenceForm> stratumForms, SetMultimap<SentenceForm, SentenceForm> dependencyGraph, List<GdlRule> allRules)
+        {
+            List<Integer> ruleNumbers = new ArrayList<Integer>();
+            List<Integer> formIndices = new ArrayList<Integer>();
+            boolean dependsOnItself = false;
+            for (SentenceForm form : stratumForms) {
+                for (GdlRule rule : model.getRules(form)) {
+                    ruleNumbers.add(allRules.size());
+                    allRules.add(rule);
+                }
+                formIndices.add(compiler.getFormIndex(form));
+                dependsOnItself |= !Sets.intersection(dependencyGraph.get(form), stratumForms).isEmpty();
+            }
+            this.rules = toArray(ruleNumbers);
+            this.headForms = toArray(formIndices);
+            this.recursive = dependsOnItself;
+        }
+
+        /**
+         * Returns how many sentences of the stratum's forms there are.
+         */
+        private int size(TupleSet[] relations)
+        {
+            int size = 0;
+            for (int form : headForms) {
+                size += relations[form].size();
+            }
+            return size;
+        }
+    }
+}
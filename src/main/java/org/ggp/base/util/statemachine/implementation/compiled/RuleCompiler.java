@@ -0,0 +1,415 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.NotFoundException;
+
+import org.ggp.base.util.concurrency.ConcurrencyUtils;
+import org.ggp.base.util.gdl.GdlUtils;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlDistinct;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModels;
+import org.ggp.base.util.gdl.model.SentenceDomainModels.VarDomainOpts;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.model.assignments.AssignmentsImpl;
+import org.ggp.base.util.gdl.model.assignments.FunctionInfo;
+import org.ggp.base.util.gdl.model.assignments.IterationOrderCandidate;
+
+import com.google.common.base.Joiner;
+
+/**
+ * RuleCompiler turns the rules of a game into Java code, loaded with
+ * javassist as a subclass of {@link CompiledRules}, so that they can be
+ * applied without interpreting GDL and without grounding the game.
+ * <p>
+ * Constants are numbered as they are first seen, and the sentences of each
+ * form become tuples of those numbers in a {@link TupleSet}. Each rule is
+ * compiled into a nested-loop join in the iteration order that
+ * {@link AssignmentsImpl} would choose for it, as the propnet factory does:
+ * variables are bound by looping over the tuples of its source conjuncts and
+ * functional conjuncts, or else over their domains, and every other literal
+ * is checked as soon as the variables in it are bound.
+ * <p>
+ * The numbering of constants keeps growing as the state machine meets new
+ * ones, so a compiler is not thread-safe.
+ */
+public final class RuleCompiler
+{
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final SentenceDomainModel model;
+    private final Map<SentenceForm, Integer> formIndices;
+    private final Map<SentenceForm, ? extends FunctionInfo> functionInfoMap;
+    private final Map<SentenceForm, Integer> sentenceFormSizes;
+
+    private final Map<GdlConstant, Integer> constantIds = new HashMap<GdlConstant, Integer>();
+    private final List<GdlConstant> constants = new ArrayList<GdlConstant>();
+
+    /**
+     * The forms are numbered in the order given. The function info and the
+     * (possibly estimated) number of sentences of each form are used to plan
+     * the joins, as in {@link AssignmentsImpl#getBestIterationOrderingForSizes(GdlRule, Map, Map, Map)}.
+     */
+    public RuleCompiler(SentenceDomainModel model, List<SentenceForm> forms,
+            Map<SentenceForm, ? extends FunctionInfo> functionInfoMap, Map<SentenceForm, Integer> sentenceFormSizes)
+    {
+        this.model = model;
+        this.formIndices = new HashMap<SentenceForm, Integer>();
+        for (SentenceForm form : forms) {
+            formIndices.put(form, formIndices.size());
+        }
+        this.functionInfoMap = functionInfoMap;
+        this.sentenceFormSizes = sentenceFormSizes;
+    }
+
+    /**
+     * Returns the number of a form, or -1 if it was not given to the compiler.
+     */
+    public int getFormIndex(SentenceForm form)
+    {
+        Integer index = formIndices.get(form);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the number of a constant, numbering it if it has none yet.
+     */
+    public int getConstantId(GdlConstant constant)
+    {
+        Integer id = constantIds.get(constant);
+        if (id == null) {
+            id = constants.size();
+            constantIds.put(constant, id);
+            constants.add(constant);
+        }
+        return id;
+    }
+
+    public GdlConstant getConstant(int id)
+    {
+        return constants.get(id);
+    }
+
+    /**
+     * Compiles the rules into one class, where applying rule i runs the code
+     * compiled from the i-th of them. Checks for interruption between
+     * rules, since a large game can take long to compile.
+     */
+    public CompiledRules compile(List<GdlRule> rules) throws InterruptedException
+    {
+        String className = CompiledRules.class.getName() + "$Game" + classCount.incrementAndGet();
+        List<int[]> domains = new ArrayList<int[]>();
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new ClassClassPath(CompiledRules.class));
+            pool.importPackage(CompiledRules.class.getPackage().getName());
+            CtClass ctClass = pool.makeClass(className, pool.get(CompiledRules.class.getName()));
+
+            StringBuilder dispatch = new StringBuilder("public void applyRule(int rule, TupleSet[] r) {\nswitch (rule) {\n");
+            for (int i = 0; i < rules.size(); i++) {
+                ConcurrencyUtils.checkForInterruption();
+                String method = new RuleWriter(rules.get(i), domains).write("rule" + i);
+                try {
+                    ctClass.addMethod(CtNewMethod.make(method, ctClass));
+                } catch (CannotCompileException e) {
+                    throw new IllegalStateException("Could not compile " + rules.get(i) + " as:\n" + method, e);
+                }
+                dispatch.append("case ").append(i).append(": rule").append(i).append("(r); return;\n");
+            }
+            dispatch.append("default: throw new IllegalArgumentException(\"No rule \" + rule);\n}\n}");
+            ctClass.addMethod(CtNewMethod.make(dispatch.toString(), ctClass));
+
+            byte[] bytecode = ctClass.toBytecode();
+            ctClass.detach();
+            Class<?> generatedClass = new GeneratedClassLoader(CompiledRules.class.getClassLoader()).define(className, bytecode);
+            CompiledRules compiledRules = (CompiledRules) generatedClass.newInstance();
+            compiledRules.setDomains(domains.toArray(new int[domains.size()][]));
+            return compiledRules;
+        } catch (NotFoundException | CannotCompileException | IOException
+                | InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not compile the rules", e);
+        }
+    }
+
+    /**
+     * Writes the method for one rule. The method declares a scratch array to
+     * build tuples in, then opens one block per loop or check, binding the
+     * variables as it goes, and adds the head in the innermost block.
+     */
+    private final class RuleWriter
+    {
+        private final GdlRule rule;
+        private final List<int[]> domains;
+        private final StringBuilder code = new StringBuilder();
+        private final Map<GdlVariable, String> boundVars = new HashMap<GdlVariable, String>();
+        private final List<GdlLiteral> uncheckedLiterals;
+        private int blocks = 0;
+        private int loops = 0;
+        private boolean unsatisfiable = false;
+
+        private RuleWriter(GdlRule rule, List<int[]> domains)
+        {
+            this.rule = rule;
+            this.domains = domains;
+            this.uncheckedLiterals = new ArrayList<GdlLiteral>(rule.getBody());
+        }
+
+        private String write(String methodName)
+        {
+            int maxArity = getTuple(rule.getHead()).size();
+            for (GdlSentence sentence : GdlUtils.getSentencesInRuleBody(rule)) {
+                maxArity = Math.max(maxArity, getTuple(sentence).size());
+            }
+            code.append("int[] q = new int[").append(maxArity).append("];\n");
+
+            Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, model, VarDomainOpts.INCLUDE_HEAD);
+            IterationOrderCandidate ordering = AssignmentsImpl.getBestIterationOrderingForSizes(rule, varDomains, functionInfoMap, sentenceFormSizes);
+            List<GdlSentence> sourceConjuncts = ordering.getSourceConjuncts();
+            List<GdlSentence> functionalConjuncts = ordering.getFunctionalConjuncts();
+            List<GdlVariable> variableOrdering = ordering.getVariableOrdering();
+
+            writeChecks();
+            for (int i = 0; i < variableOrdering.size() && !unsatisfiable; i++) {
+                GdlVariable var = variableOrdering.get(i);
+                if (boundVars.containsKey(var)) {
+                    continue;
+                }
+                GdlSentence conjunct = functionalConjuncts.get(i);
+                for (GdlSentence sourceConjunct : sourceConjuncts) {
+                    if (GdlUtils.getVariables(sourceConjunct).contains(var)) {
+                        conjunct = sourceConjunct;
+                        break;
+                    }
+                }
+                if (conjunct != null) {
+                    uncheckedLiterals.remove(conjunct);
+                    writeLoop(conjunct);
+                } else {
+                    writeDomainLoop(var, varDomains.get(var));
+                }
+                writeChecks();
+            }
+            if (!unsatisfiable) {
+                int head = getFormIndex(model.getSentenceForm(rule.getHead()));
+                code.append(fillTuple(rule.getHead())).append("r[").append(head).append("].add(q);\n");
+            }
+            for (int i = 0; i < blocks; i++) {
+                code.append("}\n");
+            }
+
+            if (unsatisfiable) {
+                return "private void " + methodName + "(TupleSet[] r) {\n}";
+            }
+            return "private void " + methodName + "(TupleSet[] r) {\n" + code + "}";
+        }
+
+        /**
+         * Loops over the tuples of a positive literal, keeping those that agree
+         * with its constants and the variables bound so far, and binds the rest
+         * of its variables.
+         */
+        private void writeLoop(GdlSentence sentence)
+        {
+            int form = getFormIndex(model.getSentenceForm(sentence));
+            if (form == -1) {
+                unsatisfiable = true;
+                return;
+            }
+            List<GdlTerm> tuple = getTuple(sentence);
+            int loop = loops++;
+            String tuples = "t" + loop;
+            String offset = "o" + loop;
+            String index = "i" + loop;
+            code.append("int[] ").append(tuples).append(" = r[").append(form).append("].getTuples();\n");
+            code.append("int n").append(loop).append(" = r[").append(form).append("].size();\n");
+            code.append("for (int ").append(index).append(" = 0; ").append(index).append(" < n").append(loop)
+                    .append("; ").append(index).append("++) {\n");
+            code.append("int ").append(offset).append(" = ").append(index).append(" * ").append(tuple.size()).append(";\n");
+            blocks++;
+
+            List<String> conditions = new ArrayList<String>();
+            Map<GdlVariable, String> newVars = new HashMap<GdlVariable, String>();
+            StringBuilder bindings = new StringBuilder();
+            for (int i = 0; i < tuple.size(); i++) {
+                GdlTerm term = tuple.get(i);
+                String value = tuples + "[" + offset + " + " + i + "]";
+                if (term instanceof GdlConstant) {
+                    conditions.add(value + " == " + getConstantId((GdlConstant) term));
+                } else if (boundVars.containsKey(term)) {
+                    conditions.add(value + " == " + boundVars.get(term));
+                } else if (newVars.containsKey(term)) {
+                    conditions.add(value + " == " + newVars.get(term));
+                } else {
+                    String name = "v" + (boundVars.size() + newVars.size());
+                    bindings.append("int ").append(name).append(" = ").append(value).append(";\n");
+                    newVars.put((GdlVariable) term, name);
+                }
+            }
+            if (!conditions.isEmpty()) {
+                code.append("if (").append(Joiner.on(" && ").join(conditions)).append(") {\n");
+                blocks++;
+            }
+            code.append(bindings);
+            boundVars.putAll(newVars);
+        }
+
+        private void writeDomainLoop(GdlVariable var, Set<GdlConstant> domain)
+        {
+            int[] ids = new int[domain == null ? 0 : domain.size()];
+            int i = 0;
+            if (domain != null) {
+                for (GdlConstant constant : domain) {
+                    ids[i++] = getConstantId(constant);
+                }
+            }
+            int loop = loops++;
+            String name = "v" + boundVars.size();
+            code.append("int[] d").append(loop).append(" = domains[").append(domains.size()).append("];\n");
+            code.append("for (int i").append(loop).append(" = 0; i").append(loop).append(" < d").append(loop)
+                    .append(".length; i").append(loop).append("++) {\n");
+            code.append("int ").append(name).append(" = d").append(loop).append("[i").append(loop).append("];\n");
+            blocks++;
+            domains.add(ids);
+            boundVars.put(var, name);
+        }
+
+        /**
+         * Checks every literal not checked yet whose variables are all bound.
+         */
+        private void writeChecks()
+        {
+            List<GdlLiteral> literals = new ArrayList<GdlLiteral>(uncheckedLiterals);
+            for (GdlLiteral literal : literals) {
+                if (!boundVars.keySet().containsAll(GdlUtils.getVariables(literal))) {
+                    continue;
+                }
+                uncheckedLiterals.remove(literal);
+                if (literal instanceof GdlSentence) {
+                    int form = getFormIndex(model.getSentenceForm((GdlSentence) literal));
+                    if (form == -1) {
+                        unsatisfiable = true;
+                        return;
+                    }
+                    code.append(fillTuple((GdlSentence) literal));
+                    code.append("if (r[").append(form).append("].contains(q)) {\n");
+                    blocks++;
+                } else if (literal instanceof GdlNot) {
+                    GdlLiteral body = ((GdlNot) literal).getBody();
+                    if (!(body instanceof GdlSentence)) {
+                        throw new IllegalArgumentException("Negated literal should be a sentence but isn't: " + body);
+                    }
+                    int form = getFormIndex(model.getSentenceForm((GdlSentence) body));
+                    if (form == -1) {
+                        continue;
+                    }
+                    code.append(fillTuple((GdlSentence) body));
+                    code.append("if (!r[").append(form).append("].contains(q)) {\n");
+                    blocks++;
+                } else if (literal instanceof GdlDistinct) {
+                    GdlDistinct distinct = (GdlDistinct) literal;
+                    String condition = getDistinctCondition(distinct.getArg1(), distinct.getArg2());
+                    if (condition.equals("false")) {
+                        unsatisfiable = true;
+                        return;
+                    } else if (!condition.equals("true")) {
+                        code.append("if (").append(condition).append(") {\n");
+                        blocks++;
+                    }
+                } else {
+                    throw new IllegalArgumentException("Unrecognized type of literal " + literal.getClass() + " for literal " + literal
+                            + "; rules must have their ORs removed before compiling");
+                }
+            }
+        }
+
+        /**
+         * Returns a Java condition for two terms being distinct, or "true" or
+         * "false" when that is known without looking at any variables.
+         * Variables only stand for constants.
+         */
+        private String getDistinctCondition(GdlTerm term1, GdlTerm term2)
+        {
+            if (term1 instanceof GdlFunction && term2 instanceof GdlFunction) {
+                GdlFunction function1 = (GdlFunction) term1;
+                GdlFunction function2 = (GdlFunction) term2;
+                if (function1.getName() != function2.getName() || function1.arity() != function2.arity()) {
+                    return "true";
+                }
+                List<String> conditions = new ArrayList<String>();
+                for (int i = 0; i < function1.arity(); i++) {
+                    String condition = getDistinctCondition(function1.get(i), function2.get(i));
+                    if (condition.equals("true")) {
+                        return "true";
+                    } else if (!condition.equals("false")) {
+                        conditions.add(condition);
+                    }
+                }
+                return conditions.isEmpty() ? "false" : "(" + Joiner.on(" || ").join(conditions) + ")";
+            } else if (term1 instanceof GdlFunction || term2 instanceof GdlFunction) {
+                return "true";
+            } else if (term1 instanceof GdlConstant && term2 instanceof GdlConstant) {
+                return term1 == term2 ? "false" : "true";
+            }
+            return getValue(term1) + " != " + getValue(term2);
+        }
+
+        private String fillTuple(GdlSentence sentence)
+        {
+            StringBuilder fill = new StringBuilder();
+            List<GdlTerm> tuple = getTuple(sentence);
+            for (int i = 0; i < tuple.size(); i++) {
+                fill.append("q[").append(i).append("] = ").append(getValue(tuple.get(i))).append(";\n");
+            }
+            return fill.toString();
+        }
+
+        private String getValue(GdlTerm term)
+        {
+            if (term instanceof GdlConstant) {
+                return Integer.toString(getConstantId((GdlConstant) term));
+            }
+            return boundVars.get(term);
+        }
+    }
+
+    private static List<GdlTerm> getTuple(GdlSentence sentence)
+    {
+        return GdlUtils.getTupleFromSentence(sentence);
+    }
+
+    /**
+     * Defines the classes the compiler generates. Each compiled game gets a
+     * loader of its own, so that its code can be unloaded with it.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader
+    {
+        private GeneratedClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytecode)
+        {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.Arrays;
+
+/**
+ * The true sentences of one sentence form, as tuples of constant ids, in
+ * the form the code generated by {@link RuleCompiler} reads and writes them.
+ * <p>
+ * The tuples are packed one after another into a single array, in the order
+ * they were added, so that a rule can loop over them by index. An open
+ * addressing hash table over their positions answers membership. Nothing is
+ * ever removed, and a tuple array handed out by {@link #getTuples()} stays
+ * valid for the tuples there were when it was handed out, so a rule may keep
+ * adding to a set it is looping over.
+ * <p>
+ * The generated code is defined by a class loader of its own, so everything
+ * it uses here is public.
+ */
+public final class TupleSet
+{
+    private final int arity;
+    private int[] tuples;
+    private int size;
+    /** One more than the position of the tuple in each slot, or 0 if it is empty */
+    private int[] slots;
+
+    public TupleSet(int arity)
+    {
+        this.arity = arity;
+        this.tuples = new int[arity * 4];
+        this.slots = new int[8];
+    }
+
+    public int getArity()
+    {
+        return arity;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the tuples, the i-th of which takes up the arity places
+     * starting at i * arity.
+     */
+    public int[] getTuples()
+    {
+        return tuples;
+    }
+
+    /**
+     * Returns whether the first arity values of the given array are a tuple
+     * in the set.
+     */
+    public boolean contains(int[] tuple)
+    {
+        return slots[findSlot(tuple, 0)] != 0;
+    }
+
+    /**
+     * Adds the first arity values of the given array as a tuple, unless it is
+     * already in the set. Returns whether it was added.
+     */
+    public boolean add(int[] tuple)
+    {
+        return add(tuple, 0);
+    }
+
+    /**
+     * Adds the arity values of the given array starting at the offset as a
+     * tuple, unless it is already in the set. Returns whether it was added.
+     */
+    public boolean add(int[] values, int offset)
+    {
+        int slot = findSlot(values, offset);
+        if (slots[slot] != 0) {
+            return false;
+        }
+        if ((size + 1) * arity > tuples.length) {
+            tuples = Arrays.copyOf(tuples, Math.max(tuples.length * 2, (size + 1) * arity));
+        }
+        System.arraycopy(values, offset, tuples, size * arity, arity);
+        size++;
+        slots[slot] = size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    private int findSlot(int[] values, int offset)
+    {
+        int mask = slots.length - 1;
+        int slot = hash(values, offset) & mask;
+        while (slots[slot] != 0 && !matches(slots[slot] - 1, values, offset)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int index, int[] values, int offset)
+    {
+        int tupleOffset = index * arity;
+        for (int i = 0; i < arity; i++) {
+            if (tuples[tupleOffset + i] != values[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int hash(int[] values, int offset)
+    {
+        int hash = 1;
+        for (int i = 0; i < arity; i++) {
+            hash = 31 * hash + values[offset + i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private void rehash()
+    {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hash(tuples, index * arity) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = index + 1;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.ggp.base.util.statemachine.implementation.prover.result;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+import com.google.common.collect.ImmutableMap;
+
+
+/**
+ * Whether a state is terminal, and the legal moves and goal of each role in
+ * it, as found together by
+ * {@link org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine#getStateResult(MachineState)}.
+ * <p>
+ * The accessors throw the same exceptions the individual state machine
+ * queries would, so an ill-defined goal in a state that is not terminal
+ * only matters if it is asked for. A result may leave out the legal moves
+ * or the goals altogether; {@link #hasLegalMoves()} and {@link #hasGoals()}
+ * tell whether they were found. The next state is not part of a result:
+ * it needs a joint move, which is usually chosen from the legal moves found
+ * here.
+ */
+public final class ProverStateResult
+{
+    private final MachineState state;
+    private final boolean terminal;
+    private final ImmutableMap<Role, List<Move>> legalMoves;
+    // Null where the goal is not exactly one number
+    private final Map<Role, Integer> goals;
+
+    public ProverStateResult(MachineState state, boolean terminal, Map<Role, List<Move>> legalMoves, Map<Role, Integer> goals)
+    {
+        this.state = state;
+        this.terminal = terminal;
+        this.legalMoves = ImmutableMap.copyOf(legalMoves);
+        this.goals = Collections.unmodifiableMap(new HashMap<Role, Integer>(goals));
+    }
+
+    public MachineState getState()
+    {
+        return state;
+    }
+
+    public boolean isTerminal()
+    {
+        return terminal;
+    }
+
+    public boolean hasLegalMoves()
+    {
+        return !legalMoves.isEmpty();
+    }
+
+    public boolean hasGoals()
+    {
+        return !goals.isEmpty();
+    }
+
+    public List<Move> getLegalMoves(Role role) throws MoveDefinitionException
+    {
+        List<Move> moves = legalMoves.get(role);
+        if (moves == null || moves.isEmpty())
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+        return Collections.unmodifiableList(moves);
+    }
+
+    public int getGoal(Role role) throws GoalDefinitionException
+    {
+        Integer goal = goals.get(role);
+        if (goal == null)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+        return goal;
+    }
+}
@@ -0,0 +1,550 @@
+package org.ggp.base.util.statemachine.verifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+
+/**
+ * StateMachineFuzzer checks a state machine against a reference machine by
+ * playing random matches on both, many at once, and comparing them after
+ * every joint move. Where {@link StateMachineVerifier} compares the number
+ * of legal moves on one thread, this compares the states themselves, the
+ * legal moves of each role, terminality and the goals of terminal states.
+ * <p>
+ * Each game is fuzzed by a number of shards, which run on a shared pool of
+ * threads. Each shard builds its own pair of machines, so neither needs to
+ * be thread-safe, and plays matches for its share of the game's time. The
+ * moves of each match are chosen among the reference's legal moves by a
+ * random number generator seeded from the fuzzer's seed, so a match that
+ * exposes a difference can be replayed from its seed alone.
+ * <p>
+ * When a match exposes a difference, its joint moves are shrunk to a short
+ * sequence that still does, by removing runs of joint moves for as long as
+ * the rest stays legal for the reference and still leads to a difference.
+ * Shrinking stops after a fixed number of replays, so a long match on a slow
+ * machine cannot hold up its shard for long. The shortest difference found in each game is reported, along with how
+ * much of the game the matches covered.
+ */
+public final class StateMachineFuzzer
+{
+    /**
+     * Creates uninitialized state machines of one kind.
+     */
+    public interface Factory
+    {
+        StateMachine create();
+    }
+
+    /**
+     * A difference between the machines, and the joint moves from the
+     * initial state that lead to it.
+     */
+    public static final class Divergence
+    {
+        private final List<List<Move>> moves;
+        private final String description;
+        private final long seed;
+
+        private Divergence(List<List<Move>> moves, String description, long seed)
+        {
+            this.moves = Collections.unmodifiableList(moves);
+            this.description = description;
+            this.seed = seed;
+        }
+
+        public List<List<Move>> getMoves()
+        {
+            return moves;
+        }
+
+        public String getDescription()
+        {
+            return description;
+        }
+
+        /**
+         * Returns the seed of the random match the difference was found in,
+         * before it was shrunk.
+         */
+        public long getSeed()
+        {
+            return seed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return description + " after " + moves + " (seed " + seed + ")";
+        }
+    }
+
+    /**
+     * What fuzzing found in one game.
+     */
+    public static final class Report
+    {
+        private final String gameKey;
+        private final AtomicLong matches = new AtomicLong();
+        private final AtomicLong steps = new AtomicLong();
+        private final AtomicLong maxDepth = new AtomicLong();
+        private final Set<Long> fingerprints = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        private volatile Divergence divergence;
+        private volatile String error;
+
+        private Report(String gameKey)
+        {
+            this.gameKey = gameKey;
+        }
+
+        public String getGameKey()
+        {
+            return gameKey;
+        }
+
+        public long getMatches()
+        {
+            return matches.get();
+        }
+
+        /**
+         * Returns the number of states reached, counting each time a state
+         * is reached again.
+         */
+        public long getSteps()
+        {
+            return steps.get();
+        }
+
+        /**
+         * Returns the number of distinct states reached, by fingerprints of
+         * their contents.
+         */
+        public int getDistinctStates()
+        {
+            return fingerprints.size();
+        }
+
+        public long getMaxDepth()
+        {
+            return maxDepth.get();
+        }
+
+        /**
+         * Returns the shortest difference found, or null if there was none.
+         */
+        public Divergence getDivergence()
+        {
+            return divergence;
+        }
+
+        /**
+         * Returns why the game could not be fuzzed, or null if it could.
+         */
+        public String getError()
+        {
+            return error;
+        }
+
+        public boolean isPassed()
+        {
+            return divergence == null && error == null;
+        }
+
+        private synchronized void offer(Divergence found)
+        {
+            if (divergence == null || found.moves.size() < divergence.moves.size()) {
+                divergence = found;
+            }
+        }
+
+        private synchronized void fail(String message)
+        {
+            if (error == null) {
+                error = message;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            String coverage = getMatches() + " matches, " + getSteps() + " states, "
+                    + getDistinctStates() + " distinct, max depth " + getMaxDepth();
+            if (error != null) {
+                return gameKey + ": ERROR " + error + " (" + coverage + ")";
+            } else if (divergence != null) {
+                return gameKey + ": DIVERGED " + divergence + " (" + coverage + ")";
+            }
+            return gameKey + ": OK (" + coverage + ")";
+        }
+    }
+
+    private final Factory reference;
+    private final Factory subject;
+    private final int threads;
+    private long seed = 0;
+    private int shardsPerGame;
+    private int maxDepth = 1000;
+    private int maxShrinkReplays = 1000;
+
+    /**
+     * Creates a fuzzer of machines made by the subject factory against those
+     * made by the reference factory, on the given number of threads.
+     */
+    public StateMachineFuzzer(Factory reference, Factory subject, int threads)
+    {
+        this.reference = reference;
+        this.subject = subject;
+        this.threads = threads;
+        this.shardsPerGame = threads;
+    }
+
+    /**
+     * Returns a factory that creates machines of the named class with its
+     * no-argument constructor.
+     */
+    public static Factory forClass(final String className)
+    {
+        final Class<?> machineClass;
+        try {
+            machineClass = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("No state machine class " + className, e);
+        }
+        if (!StateMachine.class.isAssignableFrom(machineClass)) {
+            throw new IllegalArgumentException(className + " is not a state machine");
+        }
+        return new Factory() {
+            @Override
+            public StateMachine create() {
+                try {
+                    return (StateMachine) machineClass.newInstance();
+                } catch (InstantiationException | IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot create " + className, e);
+                }
+            }
+        };
+    }
+
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets how many shards each game is split into. The default is the
+     * number of threads.
+     */
+    public void setShardsPerGame(int shardsPerGame)
+    {
+        this.shardsPerGame = shardsPerGame;
+    }
+
+    /**
+     * Sets the number of joint moves after which a match is abandoned, for
+     * games that can go on forever.
+     */
+    public void setMaxDepth(int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Sets how many times a difference may be replayed while shrinking it.
+     * The shortest sequence found by then is reported.
+     */
+    public void setMaxShrinkReplays(int maxShrinkReplays)
+    {
+        this.maxShrinkReplays = maxShrinkReplays;
+    }
+
+    /**
+     * Fuzzes each of the given games for about the given number of
+     * milliseconds of thread time, not counting the time to build the
+     * machines, and returns a report for each game in the same order.
+     */
+    public List<Report> fuzz(Map<String, List<Gdl>> games, long timePerGame) throws InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Report> reports = new ArrayList<Report>();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        final long shardTime = timePerGame / shardsPerGame;
+        int gameIndex = 0;
+        for (Map.Entry<String, List<Gdl>> game : games.entrySet()) {
+            final Report report = new Report(game.getKey());
+            final List<Gdl> description = game.getValue();
+            reports.add(report);
+            for (int shard = 0; shard < shardsPerGame; shard++) {
+                final long shardSeed = new Random(seed + 1000003L * gameIndex + shard).nextLong();
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        runShard(report, description, shardSeed, shardTime);
+                    }
+                }));
+            }
+            gameIndex++;
+        }
+        executor.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return reports;
+    }
+
+    private void runShard(Report report, List<Gdl> description, long shardSeed, long duration)
+    {
+        StateMachine referenceMachine = reference.create();
+        StateMachine subjectMachine;
+        try {
+            referenceMachine.initialize(description);
+            referenceMachine.getInitialState();
+        } catch (Exception | StackOverflowError e) {
+            report.fail("reference could not be initialized: " + e);
+            return;
+        }
+        try {
+            subjectMachine = subject.create();
+            subjectMachine.initialize(description);
+        } catch (Exception | StackOverflowError e) {
+            report.fail("subject could not be initialized: " + e);
+            return;
+        }
+
+        Random seeds = new Random(shardSeed);
+        long deadline = System.currentTimeMillis() + duration;
+        while (System.currentTimeMillis() < deadline && report.isPassed()) {
+            long matchSeed = seeds.nextLong();
+            Divergence divergence;
+            try {
+                divergence = playMatch(referenceMachine, subjectMachine, matchSeed, report);
+            } catch (Exception | StackOverflowError e) {
+                report.fail("reference failed in the match with seed " + matchSeed + ": " + e);
+                return;
+            }
+            report.matches.incrementAndGet();
+            if (divergence != null) {
+                report.offer(shrink(referenceMachine, subjectMachine, divergence));
+            }
+        }
+    }
+
+    /**
+     * Plays a random match with the given seed on both machines, and returns
+     * the first difference between them, or null if there was none.
+     */
+    private Divergence playMatch(StateMachine referenceMachine, StateMachine subjectMachine, long matchSeed, Report report) throws Exception
+    {
+        Random random = new Random(matchSeed);
+        List<List<Move>> moves = new ArrayList<List<Move>>();
+        MachineState referenceState = referenceMachine.getInitialState();
+        MachineState subjectState;
+        try {
+            subjectState = subjectMachine.getInitialState();
+        } catch (Exception | StackOverflowError e) {
+            return new Divergence(moves, "subject threw " + e, matchSeed);
+        }
+        while (true) {
+            report.steps.incrementAndGet();
+            report.fingerprints.add(fingerprint(referenceState));
+            String difference = compare(referenceMachine, subjectMachine, referenceState, subjectState);
+            if (difference != null) {
+                updateMax(report.maxDepth, moves.size());
+                return new Divergence(moves, difference, matchSeed);
+            }
+            if (referenceMachine.isTerminal(referenceState) || moves.size() >= maxDepth) {
+                updateMax(report.maxDepth, moves.size());
+                return null;
+            }
+
+            List<Move> jointMove = new ArrayList<Move>();
+            for (Role role : referenceMachine.getRoles()) {
+                List<Move> legalMoves = referenceMachine.getLegalMoves(referenceState, role);
+                jointMove.add(legalMoves.get(random.nextInt(legalMoves.size())));
+            }
+            moves.add(jointMove);
+            referenceState = referenceMachine.getNextState(referenceState, jointMove);
+            try {
+                subjectState = subjectMachine.getNextState(subjectState, jointMove);
+            } catch (Exception | StackOverflowError e) {
+                return new Divergence(moves, "subject threw " + e, matchSeed);
+            }
+        }
+    }
+
+    /**
+     * Replays the given joint moves on both machines, and returns the first
+     * difference between them, or null if there was none or one of the joint
+     * moves is not legal for the reference.
+     */
+    private Divergence replay(StateMachine referenceMachine, StateMachine subjectMachine, List<List<Move>> moves, long matchSeed)
+    {
+        try {
+            MachineState referenceState = referenceMachine.getInitialState();
+            MachineState subjectState;
+            try {
+                subjectState = subjectMachine.getInitialState();
+            } catch (Exception | StackOverflowError e) {
+                return new Divergence(new ArrayList<List<Move>>(), "subject threw " + e, matchSeed);
+            }
+            List<Role> roles = referenceMachine.getRoles();
+            for (int i = 0; ; i++) {
+                String difference = compare(referenceMachine, subjectMachine, referenceState, subjectState);
+                if (difference != null) {
+                    return new Divergence(new ArrayList<List<Move>>(moves.subList(0, i)), difference, matchSeed);
+                }
+                if (i == moves.size() || referenceMachine.isTerminal(referenceState)) {
+                    return null;
+                }
+                List<Move> jointMove = moves.get(i);
+                for (int r = 0; r < roles.size(); r++) {
+                    if (!referenceMachine.getLegalMoves(referenceState, roles.get(r)).contains(jointMove.get(r))) {
+                        return null;
+                    }
+                }
+                referenceState = referenceMachine.getNextState(referenceState, jointMove);
+                try {
+                    subjectState = subjectMachine.getNextState(subjectState, jointMove);
+                } catch (Exception | StackOverflowError e) {
+                    return new Divergence(new ArrayList<List<Move>>(moves.subList(0, i + 1)), "subject threw " + e, matchSeed);
+                }
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Shrinks the joint moves of a difference by removing runs of them,
+     * longest first, as long as what is left still leads to a difference
+     * and no more than maxShrinkReplays replays have been tried.
+     */
+    private Divergence shrink(StateMachine referenceMachine, StateMachine subjectMachine, Divergence divergence)
+    {
+        int replays = 0;
+        for (int length = divergence.moves.size() / 2; length >= 1; length--) {
+            boolean removed = true;
+            while (removed) {
+                removed = false;
+                for (int start = 0; start + length <= divergence.moves.size(); start++) {
+                    if (replays++ >= maxShrinkReplays) {
+                        return divergence;
+                    }
+                    List<List<Move>> candidate = new ArrayList<List<Move>>(divergence.moves.subList(0, start));
+                    candidate.addAll(divergence.moves.subList(start + length, divergence.moves.size()));
+                    Divergence shrunk = replay(referenceMachine, subjectMachine, candidate, divergence.seed);
+                    if (shrunk != null) {
+                        divergence = shrunk;
+                        removed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return divergence;
+    }
+
+    /**
+     * Returns how the machines differ in the given states, or null if they
+     * agree on the state, its terminality, its legal moves if it is not
+     * terminal and its goals if it is.
+     */
+    private static String compare(StateMachine referenceMachine, StateMachine subjectMachine, MachineState referenceState, MachineState subjectState)
+    {
+        try {
+            if (!referenceState.getContents().equals(subjectState.getContents())) {
+                Set<GdlSentence> missing = new HashSet<GdlSentence>(referenceState.getContents());
+                missing.removeAll(subjectState.getContents());
+                Set<GdlSentence> extra = new HashSet<GdlSentence>(subjectState.getContents());
+                extra.removeAll(referenceState.getContents());
+                return "subject state lacks " + missing + " and has " + extra;
+            }
+            boolean terminal = referenceMachine.isTerminal(referenceState);
+            if (terminal != subjectMachine.isTerminal(subjectState)) {
+                return "subject says the state is " + (terminal ? "not " : "") + "terminal";
+            }
+            for (Role role : referenceMachine.getRoles()) {
+                if (terminal) {
+                    String referenceGoal = goalOf(referenceMachine, referenceState, role);
+                    String subjectGoal = goalOf(subjectMachine, subjectState, role);
+                    if (!referenceGoal.equals(subjectGoal)) {
+                        return "goal of " + role + " is " + referenceGoal + " but subject says " + subjectGoal;
+                    }
+                } else {
+                    Set<Move> referenceMoves = legalMovesOf(referenceMachine, referenceState, role);
+                    Set<Move> subjectMoves = legalMovesOf(subjectMachine, subjectState, role);
+                    if (!referenceMoves.equals(subjectMoves)) {
+                        return "legal moves of " + role + " are " + referenceMoves + " but subject says " + subjectMoves;
+                    }
+                }
+            }
+            return null;
+        } catch (Exception | StackOverflowError e) {
+            return "comparing the state threw " + e;
+        }
+    }
+
+    private static String goalOf(StateMachine machine, MachineState state, Role role)
+    {
+        try {
+            return Integer.toString(machine.getGoal(state, role));
+        } catch (GoalDefinitionException e) {
+            return "undefined";
+        }
+    }
+
+    private static Set<Move> legalMovesOf(StateMachine machine, MachineState state, Role role)
+    {
+        try {
+            return new HashSet<Move>(machine.getLegalMoves(state, role));
+        } catch (MoveDefinitionException e) {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the contents of a state that does not
+     * depend on their order.
+     */
+    private static long fingerprint(MachineState state)
+    {
+        long fingerprint = 0;
+        for (GdlSentence sentence : state.getContents()) {
+            long hash = sentence.hashCode() * 0x9E3779B97F4A7C15L;
+            fingerprint += hash ^ (hash >>> 29);
+        }
+        return fingerprint;
+    }
+
+    private static void updateMax(AtomicLong max, long value)
+    {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
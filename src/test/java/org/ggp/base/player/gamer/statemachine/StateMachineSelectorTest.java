@@ -0,0 +1,109 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.player.gamer.statemachine.StateMachineSelector.Builder;
+import org.ggp.base.player.gamer.statemachine.StateMachineSelector.Candidate;
+import org.ggp.base.player.gamer.statemachine.StateMachineSelector.Status;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateMachineSelectorTest extends Assert {
+
+    @Test
+    public void testSelectionOnTicTacToe() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachineSelector selector = new StateMachineSelector(Arrays.asList(
+                builder("prover", false, false, false),
+                builder("broken", true, false, false),
+                builder("slow", false, true, false),
+                builder("wrong", false, false, true)));
+
+        StateMachine machine = selector.select(description, 2000);
+        List<Candidate> candidates = selector.getCandidates();
+        assertEquals(4, candidates.size());
+        assertEquals(Status.MEASURED, candidates.get(0).getStatus());
+        assertTrue(candidates.get(0).getDepthChargesPerSecond() > 0);
+        assertEquals(Status.FAILED, candidates.get(1).getStatus());
+        assertEquals(Status.TIMED_OUT, candidates.get(2).getStatus());
+        assertEquals(-1, candidates.get(2).getBuildTime());
+        assertEquals(Status.INCONSISTENT, candidates.get(3).getStatus());
+
+        assertSame(candidates.get(0), selector.getSelected());
+        assertEquals(9, machine.getLegalMoves(machine.getInitialState(), machine.getRoles().get(0)).size());
+    }
+
+    @Test
+    public void testFallsBackOnProver() throws Exception {
+        List<Gdl> description = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachineSelector selector = new StateMachineSelector(Arrays.asList(
+                builder("wrong", false, false, true)));
+
+        StateMachine machine = selector.select(description, 1000);
+        assertNull(selector.getSelected());
+        assertTrue(machine instanceof ProverStateMachine);
+        assertFalse(machine.isTerminal(machine.getInitialState()));
+    }
+
+    @Test
+    public void testDepthChargesThatNeverEndAreCutOff() throws Exception {
+        List<Gdl> description = Game.createEphemeralGame(Game.preprocessRulesheet(
+                "(role robot) (init (cell a)) (legal robot wait) (<= (next (cell ?x)) (true (cell ?x))) "
+                + "(<= terminal (true (cell b))) (goal robot 0)")).getRules();
+        StateMachineSelector selector = new StateMachineSelector(Arrays.asList(
+                builder("prover", false, false, false)));
+
+        long start = System.currentTimeMillis();
+        selector.select(description, 1000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(Status.MEASURED, selector.getCandidates().get(0).getStatus());
+        assertEquals(0, selector.getCandidates().get(0).getDepthChargesPerSecond(), 0);
+    }
+
+    /**
+     * Returns a builder of provers that throws, takes far too long to build,
+     * or offers only the first legal move, as asked.
+     */
+    private static Builder builder(final String name, final boolean broken, final boolean slow, final boolean wrong) {
+        return new Builder() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public StateMachine build(List<Gdl> description) {
+                if (broken) {
+                    throw new IllegalStateException("Cannot build " + name);
+                }
+                if (slow) {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                StateMachine machine = wrong ? new FirstMoveProverStateMachine() : new ProverStateMachine();
+                machine.initialize(description);
+                return machine;
+            }
+        };
+    }
+
+    private static final class FirstMoveProverStateMachine extends ProverStateMachine {
+        @Override
+        public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+            return super.getLegalMoves(state, role).subList(0, 1);
+        }
+    }
+}
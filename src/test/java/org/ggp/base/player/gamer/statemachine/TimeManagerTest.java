@@ -0,0 +1,108 @@
+package org.ggp.base.player.gamer.statemachine;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimeManagerTest extends Assert {
+
+    @Test
+    public void testDefaultMarginBeforeAnyLatencyIsSeen() {
+        TimeManager timeManager = new TimeManager();
+        long timeout = System.currentTimeMillis() + 10000;
+        timeManager.beginClock(timeout, 10000);
+        assertEquals(TimeManager.DEFAULT_MARGIN, timeManager.getSafetyMargin());
+        assertEquals(timeout - TimeManager.DEFAULT_MARGIN, timeManager.getDeadline());
+        assertFalse(timeManager.shouldStop());
+    }
+
+    @Test
+    public void testMarginFollowsObservedLatency() {
+        TimeManager timeManager = new TimeManager();
+        long timeout = System.currentTimeMillis() + 10000;
+        timeManager.beginClock(timeout, 10000);
+        timeManager.endClock();
+        long now = System.currentTimeMillis();
+        timeManager.recordResponseSent(now - 20, now, now + 100);
+
+        // Twice the latency of 120ms, plus the minimum
+        long margin = timeManager.getSafetyMargin();
+        assertTrue(margin >= TimeManager.MIN_MARGIN + 240);
+        assertTrue(margin < TimeManager.MIN_MARGIN + 300);
+    }
+
+    @Test
+    public void testLateResponseWidensMargin() {
+        TimeManager timeManager = new TimeManager();
+        timeManager.beginClock(System.currentTimeMillis() + 5000, 10000);
+        timeManager.endClock();
+        long now = System.currentTimeMillis();
+        timeManager.recordResponseSent(now, now, now);
+        long timelyMargin = timeManager.getSafetyMargin();
+
+        // Sent after the timeout, however little the latency was
+        timeManager.beginClock(System.currentTimeMillis() - 10, 10000);
+        timeManager.endClock();
+        now = System.currentTimeMillis();
+        timeManager.recordResponseSent(now, now, now);
+        assertTrue(timeManager.getSafetyMargin() >= timelyMargin + TimeManager.DEFAULT_MARGIN);
+    }
+
+    @Test
+    public void testSearchPastDeadlineWidensMargin() {
+        TimeManager timeManager = new TimeManager();
+        // The deadline passed 500ms ago, but the response is still in time
+        long timeout = System.currentTimeMillis() + 500;
+        timeManager.beginClock(timeout, 100000);
+        timeManager.endClock();
+        long now = System.currentTimeMillis();
+        timeManager.recordResponseSent(now, now, now);
+
+        // Twice the 500ms overrun, plus the minimum
+        long margin = timeManager.getSafetyMargin();
+        assertTrue(margin >= TimeManager.MIN_MARGIN + 1000);
+        assertTrue(margin < TimeManager.MIN_MARGIN + 1100);
+    }
+
+    @Test
+    public void testResponseToUnendedClockIsIgnored() {
+        TimeManager timeManager = new TimeManager();
+        long timeout = System.currentTimeMillis() + 10000;
+        timeManager.beginClock(timeout, 10000);
+        // No endClock, so there is no search whose latency could be measured
+        timeManager.recordResponseSent(timeout, timeout, timeout + 5000);
+        assertEquals(TimeManager.DEFAULT_MARGIN, timeManager.getSafetyMargin());
+    }
+
+    @Test
+    public void testMarginIsCappedAtHalfTheClock() {
+        TimeManager timeManager = new TimeManager();
+        long timeout = System.currentTimeMillis() + 1000;
+        timeManager.beginClock(timeout, 1000);
+        assertEquals(500, timeManager.getSafetyMargin());
+        assertEquals(timeout - 500, timeManager.getDeadline());
+    }
+
+    @Test
+    public void testPondering() {
+        TimeManager timeManager = new TimeManager();
+        timeManager.beginClock(System.currentTimeMillis() - 1, 10000);
+        assertTrue(timeManager.shouldStop());
+        timeManager.startPondering();
+        assertFalse(timeManager.shouldStop());
+        timeManager.stopPondering();
+        assertTrue(timeManager.shouldStop());
+    }
+
+    @Test
+    public void testClockUsageIsRecorded() {
+        TimeManager timeManager = new TimeManager();
+        timeManager.beginClock(System.currentTimeMillis() + 10000, 10000);
+        timeManager.endClock();
+        timeManager.beginClock(System.currentTimeMillis() + 10000, 10000);
+        timeManager.endClock();
+        assertEquals(2, timeManager.getClockUsage().size());
+        for (double usage : timeManager.getClockUsage()) {
+            assertTrue(usage >= 0 && usage < 0.5);
+        }
+    }
+}
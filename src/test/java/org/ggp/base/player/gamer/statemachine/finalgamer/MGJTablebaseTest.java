@@ -0,0 +1,94 @@
+package org.ggp.base.player.gamer.statemachine.finalgamer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MGJTablebaseTest extends Assert {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTripOnTicTacToe() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        MGJTablebase tablebase = build(rules);
+        assertEquals(5478, tablebase.size());
+        assertEquals(2, tablebase.getNumRoles());
+
+        StateMachine machine = new ProverStateMachine();
+        machine.initialize(rules);
+        int[] goals = new int[2];
+        MachineState state = machine.getInitialState();
+        assertEquals(9, tablebase.probe(state, goals));
+        assertArrayEquals(new int[] {50, 50}, goals);
+
+        // Every state of a game is in the table, and its final state has its own goals
+        while (!machine.isTerminal(state)) {
+            state = machine.getRandomNextState(state);
+            assertTrue(tablebase.probe(state, goals) >= 0);
+        }
+        assertEquals(0, tablebase.probe(state, goals));
+        assertArrayEquals(new int[] {machine.getGoal(state, machine.getRoles().get(0)), machine.getGoal(state, machine.getRoles().get(1))}, goals);
+    }
+
+    @Test
+    public void testSolvesStatesOnCycles() throws Exception {
+        // From a the robot must flip to b, where it can stop and win or flip back to a
+        List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(
+                "(role robot) (init (pos a)) "
+                + "(<= (legal robot flip) (true (pos ?x))) (<= (legal robot stop) (true (pos b))) "
+                + "(<= (next (pos b)) (does robot flip) (true (pos a))) "
+                + "(<= (next (pos a)) (does robot flip) (true (pos b))) "
+                + "(<= (next done) (does robot stop)) "
+                + "(<= terminal (true done)) "
+                + "(<= (goal robot 100) (true done)) (<= (goal robot 0) (not (true done)))")).getRules();
+        MGJTablebase tablebase = build(rules);
+        assertEquals(3, tablebase.size());
+
+        StateMachine machine = new ProverStateMachine();
+        machine.initialize(rules);
+        int[] goals = new int[1];
+        assertEquals(2, tablebase.probe(machine.getInitialState(), goals));
+        assertEquals(100, goals[0]);
+    }
+
+    @Test
+    public void testUnknownStatesAreNotFound() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        MGJTablebase tablebase = build(rules);
+        int[] goals = new int[2];
+        assertEquals(-1, tablebase.probe(new MachineState(new HashSet<GdlSentence>()), goals));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherRules() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        File file = folder.newFile("tictactoe.tb");
+        MGJTablebaseBuilder builder = new MGJTablebaseBuilder(rules, 10000);
+        builder.export(file, builder.solve());
+        MGJTablebase.open(file, Arrays.<Gdl>asList(rules.get(0)));
+    }
+
+    private MGJTablebase build(List<Gdl> rules) throws Exception {
+        File file = folder.newFile();
+        MGJTablebaseBuilder builder = new MGJTablebaseBuilder(rules, 10000);
+        int count = builder.solve();
+        builder.export(file, count);
+        return MGJTablebase.open(file, rules);
+    }
+}
@@ -3,6 +3,9 @@ package org.ggp.base.test;
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
 import org.ggp.base.player.gamer.python.PythonGamerTest;
+import org.ggp.base.player.gamer.statemachine.StateMachineSelectorTest;
+import org.ggp.base.player.gamer.statemachine.TimeManagerTest;
+import org.ggp.base.player.gamer.statemachine.finalgamer.MGJTablebaseTest;
 import org.ggp.base.util.crypto.BaseCryptographyTest;
 import org.ggp.base.util.crypto.CanonicalJSONTest;
 import org.ggp.base.util.crypto.SignableJSONTest;
@@ -12,9 +15,14 @@ import org.ggp.base.util.gdl.model.SimpleSentenceFormTest;
 import org.ggp.base.util.gdl.scrambler.GdlRendererTest;
 import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
+import org.ggp.base.util.gdl.transforms.RedundancyRemoverTest;
 import org.ggp.base.util.http.HttpTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.statemachine.implementation.chaining.ChainingStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.compiled.CompiledStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineConcurrencyTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
+import org.ggp.base.util.statemachine.verifier.StateMachineFuzzerTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
@@ -23,7 +31,9 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 	BaseCryptographyTest.class,
 	CanonicalJSONTest.class,
+	ChainingStateMachineTest.class,
 	ClojureGamerTest.class,
+	CompiledStateMachineTest.class,
 	DependencyGraphsTest.class,
 	GameParsingTest.class,
 	GdlCleanerTest.class,
@@ -31,13 +41,19 @@ import org.junit.runners.Suite;
 	GdlScramblerTest.class,
 	HttpTest.class,
 	InfoResponseTest.class,
+	MGJTablebaseTest.class,
 	NoTabsInRulesheetsTest.class,
+	ProverStateMachineConcurrencyTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
+	RedundancyRemoverTest.class,
 	SignableJSONTest.class,
 	SimpleSentenceFormTest.class,
+	StateMachineFuzzerTest.class,
+	StateMachineSelectorTest.class,
 	StaticValidationTest.class,
 	TiltyardRequestFarmTest.class,
+	TimeManagerTest.class,
                      })
 public class AllTests {
 
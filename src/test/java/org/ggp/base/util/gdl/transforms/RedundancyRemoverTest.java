@@ -0,0 +1,72 @@
+package org.ggp.base.util.gdl.transforms;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RedundancyRemoverTest extends Assert {
+
+    @Test
+    public void testDuplicateLiteralsRemoved() throws Exception {
+        assertEquals(parse("(<= (p ?x) (q ?x) (not (r ?x)))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (q ?x) (not (r ?x)) (q ?x) (not (r ?x)))")));
+    }
+
+    @Test
+    public void testImpliedSubgoalsRemoved() throws Exception {
+        assertEquals(parse("(<= (p ?x) (cell ?x 1 b))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (cell ?x ?y ?z) (cell ?x 1 b))")));
+        // ?y appears in the head, so (q ?x ?y) says more than (q ?x a)
+        assertEquals(parse("(<= (p ?x ?y) (q ?x ?y) (q ?x a))"),
+                RedundancyRemover.run(parse("(<= (p ?x ?y) (q ?x ?y) (q ?x a))")));
+        // ?z appears in the "not", so it is bound by (q ?x ?z) alone
+        assertEquals(parse("(<= (p ?x) (q ?x ?z) (q ?x a) (not (r ?z)))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (q ?x ?z) (q ?x a) (not (r ?z)))")));
+        // Sentences are not matched to negated ones
+        assertEquals(parse("(<= (p ?x) (q ?x) (r ?x ?y) (not (r ?x a)))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (q ?x) (r ?x ?y) (not (r ?x a)))")));
+    }
+
+    @Test
+    public void testSubsumedRulesRemoved() throws Exception {
+        assertEquals(parse("(<= (p ?y) (q ?y ?z)) (<= (p b) (s b))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (q ?x a) (r ?x)) (<= (p ?y) (q ?y ?z)) (<= (p b) (s b))")));
+        assertEquals(parse("(p a) (p b) (<= (p ?x) (q ?x))"),
+                RedundancyRemover.run(parse("(p a) (<= (p a) (r a)) (p b) (<= (p ?x) (q ?x)) (p b)")));
+        // Of rules that differ only in the names of their variables, the first is kept
+        assertEquals(parse("(<= (p ?x) (q ?x ?y) (not (r ?y)))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (q ?x ?y) (not (r ?y))) (<= (p ?a) (q ?a ?b) (not (r ?b)))")));
+        // Rules are only compared with those whose first arguments could match
+        assertEquals(parse("(<= (p ?x) (q ?x)) (<= (p (f ?x)) (r ?x)) (<= (p (g a)) (r a)) (<= (p b) (r b))"),
+                RedundancyRemover.run(parse("(<= (p ?x) (q ?x)) (<= (p a) (q a)) (<= (p (f ?x)) (r ?x)) "
+                        + "(<= (p (f a)) (r a)) (<= (p (g a)) (r a)) (<= (p b) (r b))")));
+    }
+
+    private static List<Gdl> parse(String gdl) throws Exception {
+        List<Gdl> description = new ArrayList<Gdl>();
+        for (String part : split(gdl)) {
+            description.add(GdlFactory.create(part));
+        }
+        return description;
+    }
+
+    private static List<String> split(String gdl) {
+        List<String> parts = new ArrayList<String>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < gdl.length(); i++) {
+            if (gdl.charAt(i) == '(') {
+                if (depth++ == 0) {
+                    start = i;
+                }
+            } else if (gdl.charAt(i) == ')' && --depth == 0) {
+                parts.add(gdl.substring(start, i + 1));
+            }
+        }
+        return parts;
+    }
+}
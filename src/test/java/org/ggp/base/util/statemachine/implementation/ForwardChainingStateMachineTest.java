@@ -0,0 +1,144 @@
+package org.ggp.base.util.statemachine.implementation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks a state machine that derives states by forward chaining against
+ * small test games and against the prover on random playouts. Each machine
+ * gets a subclass that says how to create it.
+ */
+public abstract class ForwardChainingStateMachineTest extends Assert {
+
+    protected StateMachine sm;
+
+    /**
+     * Creates an uninitialized instance of the machine under test.
+     */
+    protected abstract StateMachine createStateMachine();
+
+    /**
+     * Games on which random playouts must agree with the prover.
+     */
+    protected List<String> getPlayoutGames() {
+        return Arrays.asList("ticTacToe", "connectFour");
+    }
+
+    @Before
+    public void setUp() {
+        sm = createStateMachine();
+    }
+
+    @Test
+    public void testTicTacToe() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        MachineState state = sm.getInitialState();
+        assertFalse(sm.isTerminal(state));
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        Role oRole = new Role(GdlPool.getConstant("oplayer"));
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+
+        assertEquals(9, sm.getLegalJointMoves(state).size());
+        assertEquals(9, sm.getLegalMoves(state, xRole).size());
+        assertEquals(1, sm.getLegalMoves(state, oRole).size());
+        Move noop = new Move(GdlPool.getConstant("noop"));
+        assertEquals(noop, sm.getLegalMoves(state, oRole).get(0));
+
+        state = sm.getNextState(state, Arrays.asList(move("mark 1 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 1 3")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 3 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 2 2")));
+        assertFalse(sm.isTerminal(state));
+        state = sm.getNextState(state, Arrays.asList(move("mark 2 1"), noop));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, xRole));
+        assertEquals(0, sm.getGoal(state, oRole));
+        assertEquals(Arrays.asList(100, 0), sm.getGoals(state));
+    }
+
+    @Test
+    public void testCase3C() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("test_case_3c").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role xplayer = new Role(GdlPool.getConstant("xplayer"));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(move("win")), sm.getLegalMoves(state, xplayer));
+        state = sm.getNextState(state, Collections.singletonList(move("win")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(100), sm.getGoals(state));
+    }
+
+    @Test
+    public void testDistinctAtBeginningOfRule() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("test_distinct_beginning_rule").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role you = new Role(GdlPool.getConstant("you"));
+        assertEquals(2, sm.getLegalMoves(state, you).size());
+        state = sm.getNextState(state, Collections.singletonList(move("do a b")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(100), sm.getGoals(state));
+    }
+
+    @Test
+    public void testAgreesWithProverOnRandomPlayouts() throws Exception {
+        for (String game : getPlayoutGames()) {
+            List<Gdl> desc = new TestGameRepository().getGame(game).getRules();
+            sm.initialize(desc);
+            StateMachine prover = new ProverStateMachine();
+            prover.initialize(desc);
+
+            Random random = new Random(0);
+            for (int i = 0; i < 10; i++) {
+                MachineState state = prover.getInitialState();
+                assertEquals(state, sm.getInitialState());
+                while (!prover.isTerminal(state)) {
+                    assertFalse(sm.isTerminal(state));
+                    for (Role role : prover.getRoles()) {
+                        assertEquals(new HashSet<Move>(prover.getLegalMoves(state, role)),
+                                new HashSet<Move>(sm.getLegalMoves(state, role)));
+                    }
+                    List<List<Move>> jointMoves = prover.getLegalJointMoves(state);
+                    List<Move> jointMove = jointMoves.get(random.nextInt(jointMoves.size()));
+                    MachineState nextState = prover.getNextState(state, jointMove);
+                    assertEquals(nextState, sm.getNextState(state, jointMove));
+                    state = nextState;
+                }
+                assertTrue(sm.isTerminal(state));
+                assertEquals(prover.getGoals(state), sm.getGoals(state));
+            }
+        }
+    }
+
+    protected Move move(String description) {
+        String[] parts = description.split(" ");
+        GdlConstant head = GdlPool.getConstant(parts[0]);
+        if(parts.length == 1)
+            return new Move(head);
+        List<GdlTerm> body = new ArrayList<GdlTerm>();
+        for(int i = 1; i < parts.length; i++) {
+            body.add(GdlPool.getConstant(parts[i]));
+        }
+        return new Move(GdlPool.getFunction(head, body));
+    }
+}
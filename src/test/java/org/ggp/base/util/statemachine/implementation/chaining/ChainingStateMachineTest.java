@@ -0,0 +1,12 @@
+package org.ggp.base.util.statemachine.implementation.chaining;
+
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.ForwardChainingStateMachineTest;
+
+public class ChainingStateMachineTest extends ForwardChainingStateMachineTest {
+
+    @Override
+    protected StateMachine createStateMachine() {
+        return new ChainingStateMachine();
+    }
+}
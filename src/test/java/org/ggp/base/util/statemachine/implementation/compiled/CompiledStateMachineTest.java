@@ -0,0 +1,20 @@
+package org.ggp.base.util.statemachine.implementation.compiled;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.ForwardChainingStateMachineTest;
+
+public class CompiledStateMachineTest extends ForwardChainingStateMachineTest {
+
+    @Override
+    protected StateMachine createStateMachine() {
+        return new CompiledStateMachine();
+    }
+
+    @Override
+    protected List<String> getPlayoutGames() {
+        return Arrays.asList("ticTacToe", "connectFour", "test_case_2c");
+    }
+}
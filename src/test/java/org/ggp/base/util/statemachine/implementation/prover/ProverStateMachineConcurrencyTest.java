@@ -0,0 +1,152 @@
+package org.ggp.base.util.statemachine.implementation.prover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs playouts on one shared {@link ProverStateMachine} from several threads
+ * at once, and checks that each sees exactly what it would have alone.
+ */
+public class ProverStateMachineConcurrencyTest extends Assert {
+
+    private static final int THREADS = 4;
+    private static final int PLAYOUTS = 12;
+    // Some of the test games never end
+    private static final int MAX_DEPTH = 100;
+
+    @Test
+    public void testParallelPlayoutsOnTestGames() throws Exception {
+        GameRepository repository = new TestGameRepository();
+        for (String key : repository.getGameKeys()) {
+            if (key.startsWith("test_invalid")) {
+                continue;
+            }
+            List<Gdl> rules = repository.getGame(key).getRules();
+
+            StateMachine reference = new ProverStateMachine();
+            reference.initialize(rules);
+            List<List<Object>> expected = new ArrayList<List<Object>>();
+            for (int i = 0; i < PLAYOUTS; i++) {
+                expected.add(playout(reference, i));
+            }
+
+            ProverStateMachine shared = new ProverStateMachine();
+            shared.initialize(rules);
+            List<List<Object>> actual = runInParallel(shared, new Playout() {
+                @Override
+                public List<Object> play(StateMachine machine, int seed) throws Exception {
+                    return playout(machine, seed);
+                }
+            });
+            for (int i = 0; i < PLAYOUTS; i++) {
+                assertEquals(key + ", playout " + i, expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelDepthCharges() throws Exception {
+        for (String key : Arrays.asList("ticTacToe", "connectFour")) {
+            List<Gdl> rules = new TestGameRepository().getGame(key).getRules();
+            ProverStateMachine shared = new ProverStateMachine();
+            shared.initialize(rules);
+            List<List<Object>> results = runInParallel(shared, new Playout() {
+                @Override
+                public List<Object> play(StateMachine machine, int seed) throws Exception {
+                    int[] depth = new int[1];
+                    MachineState state = machine.performDepthCharge(machine.getInitialState(), depth);
+                    return Arrays.<Object>asList(machine.isTerminal(state), depth[0] > 0, machine.getGoals(state).size());
+                }
+            });
+            for (List<Object> result : results) {
+                assertEquals(key, Arrays.<Object>asList(true, true, 2), result);
+            }
+        }
+    }
+
+    private interface Playout {
+        List<Object> play(StateMachine machine, int seed) throws Exception;
+    }
+
+    /*
+     * Plays every playout on the machine, spread over the threads, which all
+     * start together. Returns the results in the order of their seeds.
+     */
+    private static List<List<Object>> runInParallel(final StateMachine machine, final Playout playout) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<List<Object>>> futures = new ArrayList<Future<List<Object>>>();
+            for (int i = 0; i < PLAYOUTS; i++) {
+                final int seed = i;
+                futures.add(executor.submit(new Callable<List<Object>>() {
+                    @Override
+                    public List<Object> call() throws Exception {
+                        start.await();
+                        return playout.play(machine, seed);
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<List<Object>> results = new ArrayList<List<Object>>();
+            for (Future<List<Object>> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Plays random moves from the initial state, choosing them from the
+     * legal joint moves in a fixed order so that the seed decides the
+     * playout. Records the legal joint moves and the state at every step,
+     * then the goals, or the exception thrown in their place.
+     */
+    private static List<Object> playout(StateMachine machine, int seed) throws Exception {
+        List<Object> trace = new ArrayList<Object>();
+        Random random = new Random(seed);
+        MachineState state = machine.getInitialState();
+        trace.add(state);
+        try {
+            for (int depth = 0; depth < MAX_DEPTH && !machine.isTerminal(state); depth++) {
+                List<List<Move>> jointMoves = new ArrayList<List<Move>>(machine.getLegalJointMoves(state));
+                trace.add(new HashSet<List<Move>>(jointMoves));
+                Collections.sort(jointMoves, new Comparator<List<Move>>() {
+                    @Override
+                    public int compare(List<Move> a, List<Move> b) {
+                        return a.toString().compareTo(b.toString());
+                    }
+                });
+                state = machine.getNextState(state, jointMoves.get(random.nextInt(jointMoves.size())));
+                trace.add(state);
+            }
+            trace.add(machine.isTerminal(state));
+            trace.add(machine.getGoals(state));
+        } catch (Exception e) {
+            trace.add(e.getClass().getSimpleName());
+        }
+        return trace;
+    }
+}
@@ -13,6 +13,7 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverStateResult;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -97,6 +98,19 @@ public class ProverStateMachineTest extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
 
+    @Test
+    public void testCase3A() throws Exception {
+        // (open2) in a rule head is the same sentence as open2 in a rule body
+        List<Gdl> desc = new TestGameRepository().getGame("test_case_3a").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role xplayer = new Role(GdlPool.getConstant("xplayer"));
+        assertEquals(Collections.singletonList(move("move correct_correct")), sm.getLegalMoves(state, xplayer));
+        state = sm.getNextState(state, Collections.singletonList(move("move correct_correct")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(100), sm.getGoals(state));
+    }
+
     @Test
     public void testCase3C() throws Exception {
         List<Gdl> desc = new TestGameRepository().getGame("test_case_3c").getRules();
@@ -184,6 +198,59 @@ public class ProverStateMachineTest extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
 
+    @Test
+    public void testStateResultOnTicTacToe() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        Role oRole = new Role(GdlPool.getConstant("oplayer"));
+        Move noop = new Move(GdlPool.getConstant("noop"));
+        MachineState state = sm.getInitialState();
+
+        // Uncached moves are as read-only as those of a result
+        try {
+            sm.getLegalMoves(state, xRole).clear();
+            fail("The legal moves can be changed");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        ProverStateResult result = sm.getStateResult(state);
+        assertFalse(result.isTerminal());
+        assertEquals(9, result.getLegalMoves(xRole).size());
+        assertEquals(Collections.singletonList(noop), result.getLegalMoves(oRole));
+        try {
+            result.getLegalMoves(xRole).clear();
+            fail("The legal moves of a shared result can be changed");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals(9, sm.getLegalMoves(state, xRole).size());
+
+        state = sm.getNextState(state, Arrays.asList(move("mark 1 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 1 3")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 3 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 2 2")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 2 1"), noop));
+        result = sm.getStateResult(state);
+        assertTrue(result.isTerminal());
+        assertEquals(100, result.getGoal(xRole));
+        assertEquals(0, result.getGoal(oRole));
+        assertEquals(Arrays.asList(100, 0), sm.getGoals(state));
+    }
+
+    @Test
+    public void testDepthChargeEndsInTerminalState() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        for (int i = 0; i < 20; i++) {
+            int[] depth = new int[1];
+            MachineState state = sm.performDepthCharge(sm.getInitialState(), depth);
+            assertTrue(sm.isTerminal(state));
+            assertTrue(depth[0] >= 5 && depth[0] <= 9);
+            List<Integer> goals = sm.getGoals(state);
+            assertEquals(100, goals.get(0) + goals.get(1));
+        }
+    }
+
     protected Move move(String description) {
         String[] parts = description.split(" ");
         GdlConstant head = GdlPool.getConstant(parts[0]);
@@ -0,0 +1,125 @@
+package org.ggp.base.util.statemachine.verifier;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineFuzzer.Divergence;
+import org.ggp.base.util.statemachine.verifier.StateMachineFuzzer.Report;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StateMachineFuzzerTest extends Assert {
+
+    private final Map<String, List<Gdl>> ticTacToe =
+            Collections.singletonMap("ticTacToe", new TestGameRepository().getGame("ticTacToe").getRules());
+
+    @Test
+    public void testAgreeingMachinesPass() throws Exception {
+        StateMachineFuzzer fuzzer = new StateMachineFuzzer(
+                StateMachineFuzzer.forClass(ProverStateMachine.class.getName()),
+                StateMachineFuzzer.forClass(ProverStateMachine.class.getName()), 2);
+        List<Report> reports = fuzzer.fuzz(ticTacToe, 1000);
+        assertEquals(1, reports.size());
+        Report report = reports.get(0);
+        assertTrue(report.toString(), report.isPassed());
+        assertTrue(report.getMatches() > 0);
+        assertTrue(report.getDistinctStates() > 1);
+        assertEquals(9, report.getMaxDepth());
+    }
+
+    @Test
+    public void testDivergenceIsShrunk() throws Exception {
+        StateMachineFuzzer.Factory centreEnds = new StateMachineFuzzer.Factory() {
+            @Override
+            public StateMachine create() {
+                return new CentreEndsProverStateMachine();
+            }
+        };
+        StateMachineFuzzer fuzzer = new StateMachineFuzzer(
+                StateMachineFuzzer.forClass(ProverStateMachine.class.getName()), centreEnds, 2);
+        fuzzer.setSeed(42);
+        Report report = fuzzer.fuzz(ticTacToe, 2000).get(0);
+        assertFalse(report.isPassed());
+        assertNull(report.getError());
+        Divergence divergence = report.getDivergence();
+        assertEquals(Arrays.asList(Arrays.asList(Move.create("( mark 2 2 )"), Move.create("noop"))), divergence.getMoves());
+        assertTrue(divergence.getDescription(), divergence.getDescription().contains("terminal"));
+    }
+
+    @Test
+    public void testShrinkingStopsAfterReplayBudget() throws Exception {
+        final FourMarksEndProverStateMachine subject = new FourMarksEndProverStateMachine();
+        StateMachineFuzzer.Factory fourMarksEnd = new StateMachineFuzzer.Factory() {
+            @Override
+            public StateMachine create() {
+                return subject;
+            }
+        };
+        StateMachineFuzzer fuzzer = new StateMachineFuzzer(
+                StateMachineFuzzer.forClass(ProverStateMachine.class.getName()), fourMarksEnd, 1);
+        fuzzer.setSeed(42);
+        fuzzer.setMaxShrinkReplays(3);
+        Report report = fuzzer.fuzz(ticTacToe, 2000).get(0);
+        assertEquals(4, report.getDivergence().getMoves().size());
+        // Every match and every replay starts from the initial state, and
+        // shrinking four moves would take seven replays without the budget
+        assertEquals(report.getMatches() + 3, subject.initialStates);
+    }
+
+    /**
+     * A prover that wrongly ends the game as soon as x holds the centre.
+     */
+    private static final class CentreEndsProverStateMachine extends ProverStateMachine {
+        private final GdlSentence centre;
+
+        CentreEndsProverStateMachine() {
+            try {
+                centre = (GdlSentence) GdlFactory.create("( true ( cell 2 2 x ) )");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean isTerminal(MachineState state) {
+            return state.getContents().contains(centre) || super.isTerminal(state);
+        }
+    }
+
+    /**
+     * A prover that wrongly ends the game once four cells are marked, and
+     * counts how often it is asked for the initial state.
+     */
+    private static final class FourMarksEndProverStateMachine extends ProverStateMachine {
+        private int initialStates = 0;
+
+        @Override
+        public MachineState getInitialState() {
+            initialStates++;
+            return super.getInitialState();
+        }
+
+        @Override
+        public boolean isTerminal(MachineState state) {
+            int marks = 0;
+            for (GdlSentence sentence : state.getContents()) {
+                GdlFunction fact = (GdlFunction) sentence.get(0);
+                if (fact.getName().getValue().equals("cell") && !fact.get(2).toString().equals("b")) {
+                    marks++;
+                }
+            }
+            return marks >= 4 || super.isTerminal(state);
+        }
+    }
+}